@@ -0,0 +1,193 @@
+package ci553.happyshop.benchmark;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.storageAccess.DatabaseRWFactory;
+import ci553.happyshop.storageAccess.DerbyRW;
+import ci553.happyshop.utility.StorageLocation;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The BenchmarkData class builds the reproducible datasets the benchmarks run against.
+ *
+ * How it works:
+ * - catalogue(size, ...) generates products "0001".."size" whose descriptions, prices and stock
+ *   come from a Random with a fixed SEED, so every run (and every machine) measures the same catalogue.
+ *   Descriptions are made of an adjective and a noun from small word lists, so name searches match
+ *   a realistic share of the catalogue at every size.
+ * - openDerby(catalogue) loads the catalogue into an in-memory Derby database (same schema as SetDatabase)
+ *   and returns a DerbyRW using the factory's connection pool, purchase mode and name index. Nothing touches
+ *   happyShopDB, and the database is gone when the benchmark fork ends.
+ * - resetOrderFolders() empties the orders folder (set with -Dhappyshop.ordersFolder, see StorageLocation)
+ *   and recreates its subfolders and orderCounter.txt, like SetOrderFileSystem.
+ * - keys(...) draws the sequence of product IDs a benchmark cycles through, so that choosing
+ *   the next product is an array read rather than a Random call inside the measured code.
+ *
+ * Example Usage:
+ *     List<Product> products = BenchmarkData.catalogue(1000, 0, 200);
+ *     DerbyRW derbyRW = BenchmarkData.openDerby(products);
+ */
+
+public final class BenchmarkData {
+
+    public static final long SEED = 553L;
+
+    // catalogue sizes shared by the benchmarks, product IDs are CHAR(4) so 9999 is the largest possible
+    public static final String SMALL = "100";
+    public static final String MEDIUM = "1000";
+    public static final String LARGE = "5000";
+
+    static final String[] ADJECTIVES = {
+            "Digital", "Portable", "Wireless", "Smart", "Compact", "Classic", "Premium", "Mini",
+            "Bluetooth", "Waterproof", "Rechargeable", "Silver", "Black", "Deluxe", "Outdoor", "Kids"
+    };
+    static final String[] NOUNS = {
+            "TV", "Radio", "Toaster", "Watch", "Camera", "MP3 player", "USB drive", "Kettle",
+            "Speaker", "Headphones", "Keyboard", "Mouse", "Lamp", "Fan", "Blender", "Charger",
+            "Tablet", "Monitor", "Router", "Printer"
+    };
+
+    private static final String BENCHMARK_DB_URL = "jdbc:derby:memory:happyShopBenchmark";
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Generates a catalogue of size products with stock between minStock and maxStock (inclusive).
+     */
+    public static List<Product> catalogue(int size, int minStock, int maxStock) {
+        if (size < 1 || size > 9999) {
+            throw new IllegalArgumentException("Catalogue size must be 1..9999, was " + size);
+        }
+        Random random = new Random(SEED);
+        List<Product> products = new ArrayList<>(size);
+        for (int i = 1; i <= size; i++) {
+            String id = String.format("%04d", i);
+            String description = ADJECTIVES[random.nextInt(ADJECTIVES.length)] + " "
+                    + NOUNS[random.nextInt(NOUNS.length)] + " " + (1 + random.nextInt(99));
+            double price = Math.round((1 + random.nextDouble() * 499) * 100) / 100.0;
+            int stock = minStock + random.nextInt(maxStock - minStock + 1);
+            products.add(new Product(id, description, id + ".jpg", price, stock));
+        }
+        return products;
+    }
+
+    /**
+     * Draws count product IDs from the catalogue, uniformly and reproducibly (seeded with SEED + salt,
+     * so that benchmark threads given different salts walk different sequences).
+     */
+    public static String[] keys(List<Product> catalogue, int count, long salt) {
+        Random random = new Random(SEED + salt);
+        String[] keys = new String[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = catalogue.get(random.nextInt(catalogue.size())).getProductId();
+        }
+        return keys;
+    }
+
+    /**
+     * Picks count distinct products for a trolley, each with an ordered quantity of 1.
+     */
+    public static ArrayList<Product> trolley(List<Product> catalogue, int count, long salt) {
+        Random random = new Random(SEED + salt);
+        List<Product> shuffled = new ArrayList<>(catalogue);
+        Collections.shuffle(shuffled, random);
+        ArrayList<Product> trolley = new ArrayList<>(count);
+        for (Product product : shuffled.subList(0, Math.min(count, shuffled.size()))) {
+            Product item = new Product(product.getProductId(), product.getProductDescription(),
+                    product.getProductImageName(), product.getUnitPrice(), product.getStockQuantity());
+            item.setOrderedQuantity(1);
+            trolley.add(item);
+        }
+        return trolley;
+    }
+
+    /**
+     * (Re)creates ProductTable in the in-memory benchmark database, fills it with the catalogue and returns a DerbyRW
+     * over it. Call once per fork: the factory's pool and name index are shared statics bound to the first URL.
+     */
+    public static DerbyRW openDerby(List<Product> catalogue) throws SQLException {
+        DatabaseRWFactory.dbURL = BENCHMARK_DB_URL;
+        try (Connection connection = DriverManager.getConnection(BENCHMARK_DB_URL + ";create=true");
+             Statement statement = connection.createStatement()) {
+            try {
+                statement.executeUpdate("DROP TABLE ProductTable");
+            } catch (SQLException e) {
+                // 42Y55: the table does not exist yet
+            }
+            statement.executeUpdate("CREATE TABLE ProductTable(" +
+                    "productID CHAR(4) PRIMARY KEY," +
+                    "description VARCHAR(100)," +
+                    "unitPrice DOUBLE," +
+                    "image VARCHAR(100)," +
+                    "inStock INT," +
+                    "CHECK (inStock >= 0)" +
+                    ")");
+
+            connection.setAutoCommit(false);
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO ProductTable VALUES(?, ?, ?, ?, ?)")) {
+                for (Product product : catalogue) {
+                    insert.setString(1, product.getProductId());
+                    insert.setString(2, product.getProductDescription());
+                    insert.setDouble(3, product.getUnitPrice());
+                    insert.setString(4, product.getProductImageName());
+                    insert.setInt(5, product.getStockQuantity());
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+            connection.commit();
+        }
+        return new DerbyRW(DatabaseRWFactory.getConnectionPool(), DatabaseRWFactory.purchaseMode,
+                DatabaseRWFactory.getProductNameIndex(), DatabaseRWFactory.getCheckoutBatcher());
+    }
+
+    /**
+     * Empties the orders folder and recreates ordered/, progressing/, collected/ and orderCounter.txt ("0").
+     * Refuses to run on the real "orders" folder, benchmarks must be given -Dhappyshop.ordersFolder.
+     */
+    public static void resetOrderFolders() throws IOException {
+        if (StorageLocation.ordersFolder.equals("orders")) {
+            throw new IllegalStateException("Run order benchmarks with -Dhappyshop.ordersFolder=<scratch folder>");
+        }
+        if (Files.exists(StorageLocation.ordersPath)) {
+            Files.walkFileTree(StorageLocation.ordersPath, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        Files.createDirectories(StorageLocation.orderedPath);
+        Files.createDirectories(StorageLocation.progressingPath);
+        Files.createDirectories(StorageLocation.collectedPath);
+        Files.writeString(StorageLocation.orderCounterPath, "0", StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Deletes the order files in one state folder, so long runs do not fill the disk.
+     */
+    public static void deleteOrderFiles(Path folder) throws IOException {
+        try (var files = Files.list(folder)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
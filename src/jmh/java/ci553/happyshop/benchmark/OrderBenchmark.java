@@ -0,0 +1,122 @@
+package ci553.happyshop.benchmark;
+
+import ci553.happyshop.catalogue.Order;
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.orderManagement.OrderCounter;
+import ci553.happyshop.orderManagement.OrderHub;
+import ci553.happyshop.orderManagement.OrderState;
+import ci553.happyshop.storageAccess.OrderFileManager;
+import ci553.happyshop.utility.StorageLocation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the file-based order system: generating an order ID, placing an order and moving an order
+ * file between state folders.
+ *
+ * Every fork runs with -Dhappyshop.ordersFolder=target/benchmark-orders, so the real orders/ folder
+ * is never touched; the scratch folder is emptied and set up again (like SetOrderFileSystem) for each trial.
+ *
+ * - generateOrderId: one locked read-increment-write of orderCounter.txt.
+ * - newOrder: an order of trolleySize products from a seeded catalogue, written to ordered/.
+ *   The order files are deleted after every iteration.
+ * - updateAndMoveOrderFile: MOVED_ORDERS order files are created in progressing/ up front; each call rewrites
+ *   the next one and moves it between progressing/ and collected/, alternating direction on every lap.
+ *
+ * Example Usage:
+ *     mvn -Pbenchmark test-compile exec:exec -Djmh.args="OrderBenchmark"
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dhappyshop.ordersFolder=target/benchmark-orders")
+@State(Scope.Benchmark)
+public class OrderBenchmark {
+
+    private static final int MOVED_ORDERS = 1000;
+    private static final int MOVED_ORDER_SIZE = 10;
+
+    private List<Product> catalogue;
+    private int[] movedOrderIds;
+    private int moveCount;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchmarkData.resetOrderFolders();
+        catalogue = BenchmarkData.catalogue(Integer.parseInt(BenchmarkData.MEDIUM), 0, 200);
+
+        ArrayList<Product> products = BenchmarkData.trolley(catalogue, MOVED_ORDER_SIZE, 1);
+        movedOrderIds = new int[MOVED_ORDERS];
+        for (int i = 0; i < MOVED_ORDERS; i++) {
+            int orderId = 1_000_000 + i; // well clear of the IDs generateOrderId and newOrder hand out
+            Order order = new Order(orderId, OrderState.Progressing, "2025-01-01 00:00:00", products);
+            OrderFileManager.createOrderFile(StorageLocation.progressingPath, orderId, order.orderDetails());
+            movedOrderIds[i] = orderId;
+        }
+        moveCount = 0;
+    }
+
+    /**
+     * The trolley placed by newOrder, its size is a parameter of newOrder only.
+     */
+    @State(Scope.Benchmark)
+    public static class PlacedTrolley {
+        @Param({"1", "10", "50"})
+        public int trolleySize;
+
+        ArrayList<Product> trolley;
+
+        @Setup(Level.Trial)
+        public void setUp(OrderBenchmark benchmark) {
+            trolley = BenchmarkData.trolley(benchmark.catalogue, trolleySize, 0);
+        }
+
+        // the placed orders are not needed again, and millions of files would slow the folder down
+        @TearDown(Level.Iteration)
+        public void deletePlacedOrders() throws IOException {
+            BenchmarkData.deleteOrderFiles(StorageLocation.orderedPath);
+        }
+    }
+
+    @Benchmark
+    public int generateOrderId() throws IOException {
+        return OrderCounter.generateOrderId();
+    }
+
+    @Benchmark
+    public Order newOrder(PlacedTrolley placed) throws IOException, SQLException {
+        return OrderHub.getOrderHub().newOrder(placed.trolley);
+    }
+
+    @Benchmark
+    public boolean updateAndMoveOrderFile() throws IOException {
+        int orderId = movedOrderIds[moveCount % MOVED_ORDERS];
+        boolean forward = (moveCount / MOVED_ORDERS) % 2 == 0;
+        moveCount++;
+        if (forward) {
+            return OrderFileManager.updateAndMoveOrderFile(orderId, OrderState.Collected,
+                    StorageLocation.progressingPath, StorageLocation.collectedPath);
+        }
+        return OrderFileManager.updateAndMoveOrderFile(orderId, OrderState.Progressing,
+                StorageLocation.collectedPath, StorageLocation.progressingPath);
+    }
+}
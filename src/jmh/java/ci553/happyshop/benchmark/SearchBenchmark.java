@@ -0,0 +1,87 @@
+package ci553.happyshop.benchmark;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.client.customer.FlexibleSearchEngine;
+import ci553.happyshop.client.customer.FlexibleSearchEngine.SearchCriteria;
+import ci553.happyshop.client.customer.FlexibleSearchEngine.SearchType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks FlexibleSearchEngine.search for each search type over a seeded DerbyRW catalogue
+ * (see BenchmarkData), the path every customer search takes.
+ *
+ * A sequence of CRITERIA_COUNT criteria is built up front from the seed: names and categories come from
+ * the same word lists as the catalogue descriptions, price ranges are random windows within the catalogue's prices.
+ * Each call searches with the next criteria in the sequence.
+ *
+ * Example Usage:
+ *     mvn -Pbenchmark test-compile exec:exec -Djmh.args="SearchBenchmark -p searchType=PARTIAL_NAME"
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+
+    private static final int CRITERIA_COUNT = 1024; // a power of two, indexes wrap with a mask
+
+    @Param({BenchmarkData.SMALL, BenchmarkData.MEDIUM, BenchmarkData.LARGE})
+    public int catalogueSize;
+
+    @Param({"EXACT_ID", "PARTIAL_NAME", "CATEGORY", "PRICE_RANGE", "COMBINED"})
+    public SearchType searchType;
+
+    private FlexibleSearchEngine searchEngine;
+    private SearchCriteria[] criteria;
+    private int position;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        List<Product> catalogue = BenchmarkData.catalogue(catalogueSize, 0, 200);
+        searchEngine = new FlexibleSearchEngine(BenchmarkData.openDerby(catalogue));
+
+        String[] productIds = BenchmarkData.keys(catalogue, CRITERIA_COUNT, 0);
+        Random random = new Random(BenchmarkData.SEED);
+        criteria = new SearchCriteria[CRITERIA_COUNT];
+        for (int i = 0; i < CRITERIA_COUNT; i++) {
+            double minPrice = random.nextInt(400);
+            SearchCriteria.Builder builder = new SearchCriteria.Builder().searchType(searchType);
+            switch (searchType) {
+                case EXACT_ID -> builder.productId(productIds[i]);
+                case PARTIAL_NAME -> builder.productName(BenchmarkData.NOUNS[random.nextInt(BenchmarkData.NOUNS.length)]);
+                case CATEGORY -> builder.category(BenchmarkData.ADJECTIVES[random.nextInt(BenchmarkData.ADJECTIVES.length)]);
+                case PRICE_RANGE -> builder.priceRange(minPrice, minPrice + 50);
+                default -> builder
+                        .productName(BenchmarkData.NOUNS[random.nextInt(BenchmarkData.NOUNS.length)])
+                        .priceRange(minPrice, minPrice + 100)
+                        .inStockOnly(true);
+            }
+            criteria[i] = builder.build();
+        }
+        position = 0;
+    }
+
+    @Benchmark
+    public List<Product> search() throws SQLException {
+        return searchEngine.search(criteria[position++ & (CRITERIA_COUNT - 1)]);
+    }
+}
@@ -0,0 +1,120 @@
+package ci553.happyshop.benchmark;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.storageAccess.DerbyRW;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the DerbyRW hot paths: a lookup by ID, a keyword search and a checkout,
+ * over seeded catalogues of BenchmarkData.SMALL, MEDIUM and LARGE products.
+ *
+ * - searchByProductId / searchProduct cycle through a fixed, seeded sequence of product IDs / name words.
+ * - purchaseSingle buys one unit of a random product from one thread.
+ * - purchaseContended buys from 8 threads at once, every trolley taking from the same HOT_PRODUCTS products,
+ *   which is where row locks and the purchase mode (-Dhappyshop.checkout.mode) make the difference.
+ * Stock is set high enough that no purchase in a run is ever short.
+ *
+ * Example Usage:
+ *     mvn -Pbenchmark test-compile exec:exec -Djmh.args="StorageBenchmark -p catalogueSize=1000"
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StorageBenchmark {
+
+    private static final int KEY_COUNT = 4096; // a power of two, indexes wrap with a mask
+    private static final int HOT_PRODUCTS = 4;
+    private static final int LARGE_STOCK = 1_000_000_000;
+
+    @Param({BenchmarkData.SMALL, BenchmarkData.MEDIUM, BenchmarkData.LARGE})
+    public int catalogueSize;
+
+    DerbyRW derbyRW;
+    List<Product> catalogue;
+    String[] productIds;
+    String[] keywords;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        catalogue = BenchmarkData.catalogue(catalogueSize, LARGE_STOCK, LARGE_STOCK);
+        derbyRW = BenchmarkData.openDerby(catalogue);
+        productIds = BenchmarkData.keys(catalogue, KEY_COUNT, 0);
+        keywords = new String[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            keywords[i] = BenchmarkData.NOUNS[i % BenchmarkData.NOUNS.length];
+        }
+    }
+
+    /**
+     * Per-thread position in the key sequences, each thread starts at a different offset.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private static int nextOffset = 0;
+        int position;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            synchronized (Cursor.class) {
+                position = nextOffset;
+                nextOffset += KEY_COUNT / 8;
+            }
+        }
+
+        int next() {
+            return position++ & (KEY_COUNT - 1);
+        }
+    }
+
+    @Benchmark
+    public Product searchByProductId(Cursor cursor) throws SQLException {
+        return derbyRW.searchByProductId(productIds[cursor.next()]);
+    }
+
+    @Benchmark
+    public ArrayList<Product> searchProduct(Cursor cursor) throws SQLException {
+        return derbyRW.searchProduct(keywords[cursor.next()]);
+    }
+
+    @Benchmark
+    public ArrayList<Product> purchaseSingle(Cursor cursor) throws SQLException {
+        return derbyRW.purchaseStocks(trolleyOf(productIds[cursor.next()]));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public ArrayList<Product> purchaseContended(Cursor cursor) throws SQLException {
+        int hot = cursor.next() % HOT_PRODUCTS;
+        return derbyRW.purchaseStocks(trolleyOf(catalogue.get(hot).getProductId()));
+    }
+
+    // A trolley of one unit of the product, built inside the measured code as the checkout does
+    private ArrayList<Product> trolleyOf(String productId) {
+        Product item = new Product(productId, "", "", 0, 0);
+        item.setOrderedQuantity(1);
+        ArrayList<Product> trolley = new ArrayList<>(1);
+        trolley.add(item);
+        return trolley;
+    }
+}
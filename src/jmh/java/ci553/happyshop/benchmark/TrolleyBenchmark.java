@@ -0,0 +1,83 @@
+package ci553.happyshop.benchmark;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.client.customer.OrganizedTrolley;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for the customer's OrganizedTrolley, which runs on the UI thread on every click.
+ *
+ * - fillTrolley: fills an empty trolley with trolleySize seeded products, plus a quarter as many repeats
+ *   that are merged into an existing line, in a seeded order; the cost of addProduct grows with
+ *   the number of lines already in the trolley.
+ * - getTrolleySummary: formats a trolley already holding trolleySize lines.
+ *
+ * Example Usage:
+ *     mvn -Pbenchmark test-compile exec:exec -Djmh.args="TrolleyBenchmark"
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TrolleyBenchmark {
+
+    @Param({"5", "20", "100"})
+    public int trolleySize;
+
+    private Product[] additions;
+    private OrganizedTrolley fullTrolley;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<Product> lines = BenchmarkData.trolley(
+                BenchmarkData.catalogue(Integer.parseInt(BenchmarkData.MEDIUM), 0, 200), trolleySize, 0);
+
+        // every line once, then a quarter of them again, in a seeded order
+        List<Product> sequence = new ArrayList<>(lines);
+        Random random = new Random(BenchmarkData.SEED);
+        for (int i = 0; i < Math.max(1, trolleySize / 4); i++) {
+            sequence.add(lines.get(random.nextInt(lines.size())));
+        }
+        Collections.shuffle(sequence, random);
+        additions = sequence.toArray(new Product[0]);
+
+        fullTrolley = new OrganizedTrolley();
+        for (Product product : lines) {
+            fullTrolley.addProduct(product);
+        }
+    }
+
+    @Benchmark
+    public OrganizedTrolley fillTrolley() {
+        OrganizedTrolley trolley = new OrganizedTrolley();
+        for (Product product : additions) {
+            trolley.addProduct(product);
+        }
+        return trolley;
+    }
+
+    @Benchmark
+    public String getTrolleySummary() {
+        return fullTrolley.getTrolleySummary();
+    }
+}
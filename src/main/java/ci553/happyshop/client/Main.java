@@ -66,7 +66,7 @@ public class Main extends Application {
         cusView.cusController = cusController;
         cusController.cusModel = cusModel;
         cusModel.cusView = cusView;
-        cusModel.databaseRW = databaseRW;
+        cusModel.setDatabaseRW(databaseRW);
         cusView.start(new Stage());
     }
 
@@ -34,7 +34,7 @@ public class CustomerClient extends Application {
         cusView.cusController = cusController;
         cusController.cusModel = cusModel;
         cusModel.cusView = cusView;
-        cusModel.databaseRW = databaseRW;
+        cusModel.setDatabaseRW(databaseRW);
         cusView.start(window);
 
         //RemoveProductNotifier removeProductNotifier = new RemoveProductNotifier();
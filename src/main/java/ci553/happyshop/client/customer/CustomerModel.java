@@ -2,8 +2,12 @@ package ci553.happyshop.client.customer;
 
 import ci553.happyshop.catalogue.Product;
 import ci553.happyshop.catalogue.Order;
+import ci553.happyshop.storageAccess.AsyncDatabaseRW;
 import ci553.happyshop.storageAccess.DatabaseRW;
+import ci553.happyshop.storageAccess.DatabaseRWFactory;
+import ci553.happyshop.storageAccess.StockReservationManager;
 import ci553.happyshop.orderManagement.OrderHub;
+import ci553.happyshop.utility.EventLog;
 import ci553.happyshop.utility.StorageLocation;
 import ci553.happyshop.utility.ProductListFormatter;
 import ci553.happyshop.client.customer.OrganizedTrolley;
@@ -19,16 +23,21 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.List;
+import java.util.UUID;
 
 public class CustomerModel {
     public CustomerView cusView;
     public DatabaseRW databaseRW;
+    private AsyncDatabaseRW asyncDatabaseRW; // runs database calls off the JavaFX thread
+    private StockReservationManager reservationManager; // holds the stock of the products in our trolley
+    private final String sessionId = UUID.randomUUID().toString(); // identifies this customer's reservations
 
     // Enhanced components
     protected OrganizedTrolley organizedTrolley;
     protected FlexibleSearchEngine searchEngine;
     private Product theProduct = null;
     private final ArrayList<Product> trolley = new ArrayList<>();
+    private boolean checkoutInProgress = false; // only touched on the JavaFX thread
 
     // UI display elements - made public for controller access
     public String imageName = "imageHolder.jpg";
@@ -44,6 +53,8 @@ public class CustomerModel {
     // Set databaseRW and initialize search engine
     public void setDatabaseRW(DatabaseRW databaseRW) {
         this.databaseRW = databaseRW;
+        this.asyncDatabaseRW = new AsyncDatabaseRW(databaseRW);
+        this.reservationManager = DatabaseRWFactory.getStockReservationManager();
         this.searchEngine = new FlexibleSearchEngine(databaseRW);
     }
 
@@ -52,14 +63,16 @@ public class CustomerModel {
     // ========================================================================
 
     // BASIC SEARCH: By ID using FlexibleSearchEngine
-    public void searchById(String productId) throws SQLException {
+    public void searchById(String productId) {
         if (productId != null && !productId.trim().isEmpty()) {
             FlexibleSearchEngine.SearchCriteria.Builder builder = new FlexibleSearchEngine.SearchCriteria.Builder();
             builder.productId(productId.trim());
             builder.searchType(FlexibleSearchEngine.SearchType.EXACT_ID);
 
-            List<Product> results = searchEngine.search(builder.build());
-            handleSearchResults(results, "ID: " + productId);
+            FlexibleSearchEngine.SearchCriteria criteria = builder.build();
+            searchEngine.recordSearch(productId);
+            runSearch(() -> searchEngine.search(criteria), "ID: " + productId);
+            return; // the view is updated when the search completes
         } else {
             theProduct = null;
             displayLaSearchResult = "Please enter a Product ID";
@@ -68,14 +81,16 @@ public class CustomerModel {
     }
 
     // BASIC SEARCH: By name using FlexibleSearchEngine
-    public void searchByName(String productName) throws SQLException {
+    public void searchByName(String productName) {
         if (productName != null && !productName.trim().isEmpty()) {
             FlexibleSearchEngine.SearchCriteria.Builder builder = new FlexibleSearchEngine.SearchCriteria.Builder();
             builder.productName(productName.trim());
             builder.searchType(FlexibleSearchEngine.SearchType.PARTIAL_NAME);
 
-            List<Product> results = searchEngine.search(builder.build());
-            handleSearchResults(results, "Name: " + productName);
+            FlexibleSearchEngine.SearchCriteria criteria = builder.build();
+            searchEngine.recordSearch(productName);
+            runSearch(() -> searchEngine.search(criteria), "Name: " + productName);
+            return; // the view is updated when the search completes
         } else {
             theProduct = null;
             displayLaSearchResult = "Please enter a Product Name";
@@ -85,20 +100,24 @@ public class CustomerModel {
 
     // ADVANCED SEARCH: Multi-criteria search using FlexibleSearchEngine
     public void performAdvancedSearch(String productId, String productName, String category,
-                                      Double minPrice, Double maxPrice, boolean inStockOnly) throws SQLException {
+                                      Double minPrice, Double maxPrice, boolean inStockOnly) {
 
         FlexibleSearchEngine.SearchCriteria.Builder builder = new FlexibleSearchEngine.SearchCriteria.Builder();
 
+        // only the typed terms are recorded as searches, not the price range or the in-stock filter
         if (productId != null && !productId.trim().isEmpty()) {
             builder.productId(productId.trim());
+            searchEngine.recordSearch(productId);
         }
 
         if (productName != null && !productName.trim().isEmpty()) {
             builder.productName(productName.trim());
+            searchEngine.recordSearch(productName);
         }
 
         if (category != null && !category.trim().isEmpty()) {
             builder.category(category.trim());
+            searchEngine.recordSearch(category);
         }
 
         if (minPrice != null || maxPrice != null) {
@@ -111,30 +130,44 @@ public class CustomerModel {
 
         builder.searchType(FlexibleSearchEngine.SearchType.COMBINED);
 
-        List<Product> results = searchEngine.search(builder.build());
+        FlexibleSearchEngine.SearchCriteria criteria = builder.build();
         String searchCriteria = buildSearchCriteriaString(productId, productName, category, minPrice, maxPrice, inStockOnly);
-        handleSearchResults(results, searchCriteria);
-        updateView();
+        runSearch(() -> searchEngine.search(criteria), searchCriteria);
     }
 
     // QUICK SEARCH: By name using FlexibleSearchEngine
-    public void quickSearchByName(String name) throws SQLException {
+    public void quickSearchByName(String name) {
         if (name != null && !name.trim().isEmpty()) {
-            List<Product> results = searchEngine.quickSearchByName(name);
-            handleSearchResults(results, "name: " + name);
+            searchEngine.recordSearch(name);
+            runSearch(() -> searchEngine.quickSearchByName(name), "name: " + name);
         }
     }
 
     // QUICK SEARCH: By price range using FlexibleSearchEngine
-    public void quickSearchByPriceRange(double min, double max) throws SQLException {
-        List<Product> results = searchEngine.quickSearchByPriceRange(min, max);
-        handleSearchResults(results, String.format("price range: £%.2f - £%.2f", min, max));
+    public void quickSearchByPriceRange(double min, double max) {
+        runSearch(() -> searchEngine.quickSearchByPriceRange(min, max),
+                String.format("price range: £%.2f - £%.2f", min, max));
     }
 
     // QUICK SEARCH: In-stock items using FlexibleSearchEngine
-    public void quickSearchInStock() throws SQLException {
-        List<Product> results = searchEngine.quickSearchInStock();
-        handleSearchResults(results, "in-stock items");
+    public void quickSearchInStock() {
+        runSearch(() -> searchEngine.quickSearchInStock(), "in-stock items");
+    }
+
+    // HELPER: Run a search off the JavaFX thread and show its results when it completes.
+    // A new search cancels one that is still running, so only the latest results are ever shown.
+    private void runSearch(AsyncDatabaseRW.DbCall<List<Product>> search, String searchCriteria) {
+        AsyncDatabaseRW.onFxThread(asyncDatabaseRW.submitLatest("search", search),
+                results -> {
+                    handleSearchResults(results, searchCriteria);
+                    updateView();
+                },
+                error -> {
+                    theProduct = null;
+                    displayLaSearchResult = "Search failed. " + AsyncDatabaseRW.describe(error);
+                    EventLog.warn("Search failed for {}: {}", searchCriteria, error.getMessage());
+                    updateView();
+                });
     }
 
     // HELPER: Handle search results from FlexibleSearchEngine
@@ -142,22 +175,22 @@ public class CustomerModel {
         if (results.isEmpty()) {
             theProduct = null;
             displayLaSearchResult = String.format("No products found for %s", searchCriteria);
-            System.out.println("No products found for: " + searchCriteria);
+            EventLog.debug("No products found for: {}", searchCriteria);
         } else if (results.size() == 1) {
             theProduct = results.get(0);
             if (theProduct.getStockQuantity() > 0) {
                 displayLaSearchResult = formatProductInfo(theProduct);
-                System.out.println("Single product found: " + theProduct.getProductId());
+                EventLog.debug("Single product found: {}", theProduct.getProductId());
             } else {
                 theProduct = null;
                 displayLaSearchResult = "Product found but out of stock";
-                System.out.println("Product out of stock: " + results.get(0).getProductId());
+                EventLog.debug("Product out of stock: {}", results.get(0).getProductId());
             }
         } else {
             theProduct = results.get(0);
             displayLaSearchResult = String.format("Found %d products for %s. Showing first:\n%s",
                     results.size(), searchCriteria, formatProductInfo(theProduct));
-            System.out.println("Multiple products found: " + results.size());
+            EventLog.debug("Multiple products found: {}", results.size());
         }
     }
 
@@ -205,92 +238,151 @@ public class CustomerModel {
     // ========================================================================
 
     // Enhanced addToTrolley using OrganizedTrolley
+    // One unit is reserved first (off the JavaFX thread), the product is only added if the reservation succeeds
     void addToTrolley() {
-        if (theProduct != null) {
-            theProduct.setOrderedQuantity(1);
-            organizedTrolley.addProduct(theProduct);
-            displayTaTrolley = organizedTrolley.getTrolleySummary();
-            displayLaSearchResult = "Product added to trolley";
-            updateView();
+        if (theProduct != null && !checkoutInProgress) { // the trolley must not change while it is being bought
+            Product product = theProduct;
+            AsyncDatabaseRW.onFxThread(
+                    asyncDatabaseRW.submit(() -> reservationManager.reserve(sessionId, product.getProductId(), 1)),
+                    result -> {
+                        if (checkoutInProgress) { // a checkout started meanwhile, the trolley is frozen
+                            reservationManager.syncWithTrolley(sessionId, organizedTrolley.getOrganizedTrolley());
+                            displayLaSearchResult = "Checkout in progress, product not added";
+                        } else if (result.reserved()) {
+                            product.setOrderedQuantity(1);
+                            organizedTrolley.addProduct(product);
+                            displayTaTrolley = organizedTrolley.getTrolleySummary();
+                            displayLaSearchResult = "Product added to trolley";
+                        } else {
+                            Product inTrolley = organizedTrolley.getProduct(product.getProductId());
+                            int alreadyInTrolley = inTrolley == null ? 0 : inTrolley.getOrderedQuantity();
+                            displayLaSearchResult = String.format(
+                                    "Sorry, no more %s available (%d in stock for you, %d already in your trolley)",
+                                    product.getProductId(), result.available(), alreadyInTrolley);
+                        }
+                        updateView();
+                    },
+                    error -> {
+                        displayLaSearchResult = "Could not add to trolley. " + AsyncDatabaseRW.describe(error);
+                        updateView();
+                    });
         }
     }
 
     // Enhanced checkout with payment processing and stock handling
-    void checkOut() throws IOException, SQLException {
+    // The stock purchase runs off the JavaFX thread, the checkout carries on in completeCheckOut once it is done
+    void checkOut() {
+        if (checkoutInProgress) {
+            return; // checkout clicked again while the purchase is still running
+        }
         if (!organizedTrolley.isEmpty()) {
             ArrayList<Product> trolleyItems = new ArrayList<>(organizedTrolley.getOrganizedTrolley());
-            ArrayList<Product> insufficientProducts = databaseRW.purchaseStocks(trolleyItems);
-
-            if (insufficientProducts.isEmpty()) {
-                // All stock available - proceed with payment
-                OrderHub orderHub = OrderHub.getOrderHub();
-                Order theOrder = orderHub.newOrder(trolleyItems);
-
-                // Process payment
-                double totalAmount = organizedTrolley.getTotalPrice();
-                PaymentProcessor.PaymentResult paymentResult = PaymentProcessor.processPayment(theOrder, totalAmount);
-
-                if (paymentResult.isSuccess()) {
-                    // Payment successful - clear trolley and show receipt
-                    organizedTrolley.clear();
-                    displayTaTrolley = "";
-                    displayTaReceipt = String.format(
-                            "ORDER CONFIRMED\n" +
-                                    "Transaction ID: %s\n" +
-                                    "Payment Method: %s\n" +
-                                    "Order ID: %s\n" +
-                                    "Ordered Date/Time: %s\n" +
-                                    "Total Paid: £%.2f\n\n" +
-                                    "Items Purchased:\n%s",
-                            paymentResult.getTransactionId(),
-                            paymentResult.getPaymentMethod().getDisplayName(),
-                            theOrder.getOrderId(),
-                            theOrder.getOrderedDateTime(),
-                            totalAmount,
-                            ProductListFormatter.buildString(theOrder.getProductList())
-                    );
-                    PaymentProcessor.showPaymentSuccess(paymentResult);
-                } else {
-                    // Payment failed - show error message
-                    displayLaSearchResult = "Payment failed. Please try again.";
-                    PaymentProcessor.showPaymentFailure(paymentResult);
-                }
+            String searchResultBefore = displayLaSearchResult;
+            checkoutInProgress = true;
+            displayLaSearchResult = "Checking stock...";
+            updateView();
+            AsyncDatabaseRW.onFxThread(
+                    asyncDatabaseRW.submit(() -> reservationManager.purchaseReserved(sessionId, trolleyItems)),
+                    insufficientProducts -> {
+                        checkoutInProgress = false;
+                        displayLaSearchResult = searchResultBefore;
+                        try {
+                            completeCheckOut(trolleyItems, insufficientProducts);
+                        } catch (IOException | SQLException e) {
+                            displayLaSearchResult = "Checkout failed. " + AsyncDatabaseRW.describe(e);
+                            EventLog.warn("Checkout failed: {}", e.getMessage());
+                            updateView();
+                        }
+                    },
+                    error -> {
+                        checkoutInProgress = false;
+                        displayLaSearchResult = "Checkout failed. " + AsyncDatabaseRW.describe(error);
+                        EventLog.warn("Checkout failed: {}", error.getMessage());
+                        updateView();
+                    });
+        } else {
+            displayTaTrolley = "Your trolley is empty";
+            EventLog.debug("Your trolley is empty");
+            updateView();
+        }
+    }
+
+    // Called on the JavaFX thread with the result of purchaseStocks
+    private void completeCheckOut(ArrayList<Product> trolleyItems, ArrayList<Product> insufficientProducts)
+            throws IOException, SQLException {
+        if (insufficientProducts.isEmpty()) {
+            // All stock available - proceed with payment
+            OrderHub orderHub = OrderHub.getOrderHub();
+            Order theOrder = orderHub.newOrder(trolleyItems);
+
+            // Process payment
+            double totalAmount = organizedTrolley.getTotalPrice();
+            PaymentProcessor.PaymentResult paymentResult = PaymentProcessor.processPayment(theOrder, totalAmount);
+
+            if (paymentResult.isSuccess()) {
+                // Payment successful - clear trolley and show receipt
+                organizedTrolley.clear();
+                displayTaTrolley = "";
+                displayTaReceipt = String.format(
+                        "ORDER CONFIRMED\n" +
+                                "Transaction ID: %s\n" +
+                                "Payment Method: %s\n" +
+                                "Order ID: %s\n" +
+                                "Ordered Date/Time: %s\n" +
+                                "Total Paid: £%.2f\n\n" +
+                                "Items Purchased:\n%s",
+                        paymentResult.getTransactionId(),
+                        paymentResult.getPaymentMethod().getDisplayName(),
+                        theOrder.getOrderId(),
+                        theOrder.getOrderedDateTime(),
+                        totalAmount,
+                        ProductListFormatter.buildString(theOrder.getProductList())
+                );
+                PaymentProcessor.showPaymentSuccess(paymentResult);
             } else {
-                // Stock shortage - handle gracefully
-                StockShortageHandler.StockShortageResult result =
-                        StockShortageHandler.showStockShortageDialog(insufficientProducts);
-
-                if (result.shouldProceed()) {
-                    // Auto-adjust quantities
-                    StockShortageHandler.autoAdjustQuantities(result.getProductsToReduce());
-
-                    // Remove out-of-stock items
-                    for (Product product : result.getProductsToRemove()) {
-                        organizedTrolley.removeProduct(product.getProductId());
-                    }
-
-                    // Update trolley display
-                    displayTaTrolley = organizedTrolley.getTrolleySummary();
-
-                    String adjustmentMessage = StockShortageHandler.createAdjustmentSummary(
-                            result.getProductsToRemove(),
-                            result.getProductsToReduce()
-                    );
-                    StockShortageHandler.showSuccessNotification(adjustmentMessage);
-                } else {
-                    displayLaSearchResult = "Checkout cancelled. Please review your trolley.";
-                }
+                // Payment failed - show error message
+                displayLaSearchResult = "Payment failed. Please try again.";
+                PaymentProcessor.showPaymentFailure(paymentResult);
             }
         } else {
-            displayTaTrolley = "Your trolley is empty";
-            System.out.println("Your trolley is empty");
+            // Stock shortage - handle gracefully
+            StockShortageHandler.StockShortageResult result =
+                    StockShortageHandler.showStockShortageDialog(insufficientProducts);
+
+            if (result.shouldProceed()) {
+                // Auto-adjust quantities
+                StockShortageHandler.autoAdjustQuantities(result.getProductsToReduce());
+
+                // Remove out-of-stock items
+                for (Product product : result.getProductsToRemove()) {
+                    organizedTrolley.removeProduct(product.getProductId());
+                }
+
+                // Give back the reservations of the removed and reduced quantities
+                reservationManager.syncWithTrolley(sessionId, organizedTrolley.getOrganizedTrolley());
+
+                // Update trolley display
+                displayTaTrolley = organizedTrolley.getTrolleySummary();
+
+                String adjustmentMessage = StockShortageHandler.createAdjustmentSummary(
+                        result.getProductsToRemove(),
+                        result.getProductsToReduce()
+                );
+                StockShortageHandler.showSuccessNotification(adjustmentMessage);
+            } else {
+                displayLaSearchResult = "Checkout cancelled. Please review your trolley.";
+            }
         }
         updateView();
     }
 
     // Trolley management methods
     void cancel() {
+        if (checkoutInProgress) {
+            return; // the trolley must not change while it is being bought
+        }
         organizedTrolley.clear();
+        reservationManager.releaseAll(sessionId);
         displayTaTrolley = organizedTrolley.getTrolleySummary();
         displayTaReceipt = "";
         updateView();
@@ -2,8 +2,13 @@ package ci553.happyshop.client.customer;
 
 import ci553.happyshop.catalogue.Product;
 import ci553.happyshop.storageAccess.DatabaseRW;
+import ci553.happyshop.storageAccess.DatabaseRWFactory;
+import ci553.happyshop.storageAccess.ProductQuery;
+import ci553.happyshop.storageAccess.SearchSuggestionIndex;
+import ci553.happyshop.utility.EventLog;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class FlexibleSearchEngine {
@@ -14,7 +19,8 @@ public class FlexibleSearchEngine {
         CATEGORY("Category Search"),
         PRICE_RANGE("Price Range"),
         COMBINED("Combined Search"),
-        ADVANCED("Advanced Filters");
+        ADVANCED("Advanced Filters"),
+        FUZZY("Typo-Tolerant Name Match");
 
         private final String description;
 
@@ -34,6 +40,7 @@ public class FlexibleSearchEngine {
         private Double minPrice;
         private Double maxPrice;
         private Boolean inStockOnly;
+        private Integer maxResults;
         private SearchType searchType;
 
         public static class Builder {
@@ -65,6 +72,14 @@ public class FlexibleSearchEngine {
                 return this;
             }
 
+            public Builder maxResults(Integer maxResults) {
+                if (maxResults != null && maxResults <= 0) {
+                    throw new IllegalArgumentException("maxResults must be greater than 0, was " + maxResults);
+                }
+                criteria.maxResults = maxResults;
+                return this;
+            }
+
             public Builder searchType(SearchType type) {
                 criteria.searchType = type;
                 return this;
@@ -81,154 +96,251 @@ public class FlexibleSearchEngine {
         public Double getMinPrice() { return minPrice; }
         public Double getMaxPrice() { return maxPrice; }
         public Boolean getInStockOnly() { return inStockOnly; }
+        public Integer getMaxResults() { return maxResults; }
         public SearchType getSearchType() { return searchType; }
     }
 
+    private static final int RECENT_SEARCHES = 10;
+    private static final int MAX_TERM_LENGTH = 64; // longer search terms are cut short before they are recorded
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern FUZZY_WORD_SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final int FUZZY_TERMS_PER_WORD = 8; // the closest catalogue words searched for each typed word
+    private static final int FUZZY_CANDIDATE_ROWS = 500; // the most matching products read per spelling tier
+
     private final DatabaseRW databaseRW;
-    private List<Product> lastSearchResults;
+    private final SearchSuggestionIndex suggestionIndex; // shared by all customer clients
+    private final PopularSearchTracker popularSearches; // shared by all customer clients
+    private final int popularSearchStripe; // this client's part of popularSearches
+    private final String[] recentSearches = new String[RECENT_SEARCHES]; // ring buffer, guarded by itself
+    private int nextRecentSearch; // the slot the next search is written to
+    private int recentSearchCount; // slots filled so far, up to RECENT_SEARCHES
+    private volatile List<Product> lastSearchResults; // searches run on background threads
 
     public FlexibleSearchEngine(DatabaseRW databaseRW) {
+        this(databaseRW, DatabaseRWFactory.getSearchSuggestionIndex());
+    }
+
+    public FlexibleSearchEngine(DatabaseRW databaseRW, SearchSuggestionIndex suggestionIndex) {
         this.databaseRW = databaseRW;
+        this.suggestionIndex = suggestionIndex;
+        this.popularSearches = PopularSearchTracker.getPopularSearchTracker();
+        this.popularSearchStripe = popularSearches.assignStripe();
         this.lastSearchResults = new ArrayList<>();
     }
 
     public List<Product> search(SearchCriteria criteria) throws SQLException {
-        List<Product> allProducts = getAllProducts();  // Get all products first
         List<Product> results = new ArrayList<>();
 
-        switch (criteria.getSearchType()) {
-            case EXACT_ID:
-                results = searchByExactId(allProducts, criteria.getProductId());
-                break;
+        // An exact ID is a single keyed lookup (served from the product cache when possible),
+        // a fuzzy search runs one query for the typed words and the catalogue words close to them,
+        // every other search type is compiled into one SQL query and filtered/sorted by the database
+        if (criteria.getSearchType() == SearchType.FUZZY) {
+            results = searchFuzzy(criteria);
+        } else if (criteria.getSearchType() == SearchType.EXACT_ID) {
+            results = searchByExactId(criteria.getProductId());
+            if (criteria.getInStockOnly() != null && criteria.getInStockOnly()) {
+                results = results.stream()
+                        .filter(p -> p.getStockQuantity() > 0)
+                        .collect(Collectors.toList());
+            }
+        } else {
+            ProductQuery query = compileQuery(criteria);
+            if (query != null) {
+                results = databaseRW.searchProducts(query); // already sorted by product ID
+            }
+        }
+
+        lastSearchResults = results;
+        return results;
+    }
+
+    /**
+     * Compiles search criteria into a ProductQuery, choosing the filters according to the search type
+     * in the same way as the original in-memory filters did:
+     * - PARTIAL_NAME / CATEGORY: the description contains the name / category, ignoring case
+     * - PRICE_RANGE:             the price is within min and max (either may be null)
+     * - COMBINED / ADVANCED:     every criterion that is set
+     * Returns null when the criteria cannot match anything (eg an empty name for PARTIAL_NAME).
+     */
+    ProductQuery compileQuery(SearchCriteria criteria) {
+        ProductQuery.Builder query = new ProductQuery.Builder()
+                .orderBy(ProductQuery.OrderBy.PRODUCT_ID);
 
+        switch (criteria.getSearchType()) {
             case PARTIAL_NAME:
-                results = searchByPartialName(allProducts, criteria.getProductName());
+                if (isBlank(criteria.getProductName())) {
+                    return null;
+                }
+                query.descriptionContains(criteria.getProductName());
                 break;
 
             case CATEGORY:
-                results = searchByCategory(allProducts, criteria.getCategory());
+                if (isBlank(criteria.getCategory())) {
+                    return null;
+                }
+                query.descriptionContains(criteria.getCategory());
                 break;
 
             case PRICE_RANGE:
-                results = searchByPriceRange(allProducts, criteria.getMinPrice(), criteria.getMaxPrice());
+                query.priceRange(criteria.getMinPrice(), criteria.getMaxPrice());
                 break;
 
             case COMBINED:
-                results = searchCombined(allProducts, criteria);
-                break;
-
             case ADVANCED:
-                results = searchAdvanced(allProducts, criteria);
+                if (criteria.getProductId() != null) {
+                    query.productId(criteria.getProductId());
+                }
+                if (criteria.getProductName() != null) {
+                    query.descriptionContains(criteria.getProductName());
+                }
+                if (criteria.getCategory() != null) {
+                    query.descriptionContains(criteria.getCategory());
+                }
+                query.priceRange(criteria.getMinPrice(), criteria.getMaxPrice());
                 break;
 
             default:
-                results = allProducts;
+                break; // no filters, the whole catalogue
         }
 
-        // Apply stock filter if requested
         if (criteria.getInStockOnly() != null && criteria.getInStockOnly()) {
-            results = results.stream()
-                    .filter(p -> p.getStockQuantity() > 0)
-                    .collect(Collectors.toList());
+            query.inStockOnly(true);
         }
-
-        results.sort(Comparator.comparing(Product::getProductId));
-        lastSearchResults = results;
-        return results;
+        query.limit(criteria.getMaxResults());
+        return query.build();
     }
 
-    // Helper method to get all products (works with basic DatabaseRW)
-    private List<Product> getAllProducts() throws SQLException {
-        List<Product> allProducts = new ArrayList<>();
-
-        // For basic DatabaseRW, we'll use a simple approach
-        // Get products by trying common IDs or use your existing methods
-        String[] commonIds = {"0001", "0002", "0003", "0004", "0005", "0006", "0007", "0008", "0009", "0010"};
-
-        for (String id : commonIds) {
-            try {
-                Product product = databaseRW.searchByProductId(id);
-                if (product != null) {
-                    allProducts.add(product);
-                }
-            } catch (SQLException e) {
-                // Product doesn't exist, continue
-                continue;
-            }
-        }
-
-        return allProducts;
+    private static boolean isBlank(String text) {
+        return text == null || text.trim().isEmpty();
     }
 
     // Search implementations
-    private List<Product> searchByExactId(List<Product> products, String productId) {
-        if (productId == null || productId.trim().isEmpty()) {
-            return new ArrayList<>();
+    private List<Product> searchByExactId(String productId) throws SQLException {
+        List<Product> results = new ArrayList<>();
+        if (isBlank(productId)) {
+            return results;
         }
 
-        return products.stream()
-                .filter(p -> p.getProductId().equalsIgnoreCase(productId.trim()))
-                .collect(Collectors.toList());
+        // IDs match ignoring case ("p0001" finds "P0001"): the keyed lookup finds an ID typed as stored,
+        // any other casing is looked up with a case-insensitive query
+        Product product = databaseRW.searchByProductId(productId.trim());
+        if (product != null) {
+            results.add(product);
+            return results;
+        }
+        return databaseRW.searchProducts(new ProductQuery.Builder()
+                .productId(productId.trim())
+                .limit(1)
+                .build());
     }
 
-    private List<Product> searchByPartialName(List<Product> products, String name) {
-        if (name == null || name.trim().isEmpty()) {
-            return new ArrayList<>();
+    /**
+     * Finds the products whose description matches every typed word, allowing for typos:
+     * - each word matches as in PARTIAL_NAME (0 edits), or through a catalogue word within maxEditsFor(word) edits
+     *   of it, found by SearchSuggestionIndex.fuzzyTerms (eg "cofee" -> "Coffee", 1 edit)
+     * - a product's distance is the edits of its worst matching word, then the sum over the words of their
+     *   closest match
+     * - the spellings are searched in tiers: only the exact words first, then the spellings within 1 edit,
+     *   then within 2. Each tier is one query, and no further tier is searched once maxResults products
+     *   (at most FUZZY_CANDIDATE_ROWS) are found. So a product is never left out for a further one,
+     *   only the rows of the last tier searched may be cut off, in product ID order
+     * - the products are ranked by distance, then by units sold, then by product ID
+     * The price range and in-stock criteria apply as usual.
+     */
+    private List<Product> searchFuzzy(SearchCriteria criteria) throws SQLException {
+        List<Product> results = new ArrayList<>();
+        if (isBlank(criteria.getProductName())) {
+            return results;
         }
+        suggestionIndex.ensureBuilt(databaseRW);
 
-        String lowerName = name.toLowerCase();
-        return products.stream()
-                .filter(p -> p.getProductDescription().toLowerCase().contains(lowerName))
-                .collect(Collectors.toList());
-    }
+        List<List<SearchSuggestionIndex.FuzzyTerm>> termsOfWords = new ArrayList<>();
+        for (String word : FUZZY_WORD_SEPARATORS.split(criteria.getProductName().trim())) {
+            if (!word.isEmpty()) {
+                termsOfWords.add(candidateTermsFor(word));
+            }
+        }
+        if (termsOfWords.isEmpty()) {
+            return results; // no word in the input
+        }
 
-    private List<Product> searchByCategory(List<Product> products, String category) {
-        if (category == null || category.trim().isEmpty()) {
-            return new ArrayList<>();
+        Integer limit = criteria.getMaxResults();
+        int wanted = limit == null ? FUZZY_CANDIDATE_ROWS : Math.min(limit, FUZZY_CANDIDATE_ROWS);
+        Map<String, Product> found = new HashMap<>(); // productID -> product, each tier finds the ones before again
+        Map<Product, int[]> distances = new HashMap<>(); // product -> {worst word, sum over the words}
+        for (int tier = 0; tier <= SearchSuggestionIndex.MAX_FUZZY_DISTANCE && found.size() < wanted; tier++) {
+            if (tier > 0 && !hasSpellingAt(termsOfWords, tier)) {
+                continue; // the same spellings as the tier before
+            }
+            ProductQuery.Builder query = new ProductQuery.Builder()
+                    .priceRange(criteria.getMinPrice(), criteria.getMaxPrice())
+                    .inStockOnly(criteria.getInStockOnly() != null && criteria.getInStockOnly())
+                    .limit(FUZZY_CANDIDATE_ROWS);
+            for (List<SearchSuggestionIndex.FuzzyTerm> terms : termsOfWords) {
+                int maxDistance = tier;
+                query.descriptionContainsAny(terms.stream()
+                        .filter(term -> term.distance() <= maxDistance)
+                        .map(SearchSuggestionIndex.FuzzyTerm::text)
+                        .toList());
+            }
+            for (Product product : databaseRW.searchProducts(query.build())) {
+                if (found.putIfAbsent(product.getProductId(), product) == null) {
+                    distances.put(product, distanceOf(product, termsOfWords));
+                }
+            }
         }
 
-        String lowerCategory = category.toLowerCase();
-        return products.stream()
-                .filter(p -> p.getProductDescription().toLowerCase().contains(lowerCategory))
-                .collect(Collectors.toList());
+        Map<String, Long> unitsSold = suggestionIndex.unitsSoldByProduct();
+        results.addAll(distances.keySet());
+        results.sort(Comparator.<Product>comparingInt(product -> distances.get(product)[0])
+                .thenComparingInt(product -> distances.get(product)[1])
+                .thenComparing(product -> unitsSold.getOrDefault(product.getProductId().trim(), 0L),
+                        Comparator.reverseOrder())
+                .thenComparing(Product::getProductId));
+        return results.size() > wanted ? new ArrayList<>(results.subList(0, wanted)) : results;
     }
 
-    private List<Product> searchByPriceRange(List<Product> products, Double min, Double max) {
-        return products.stream()
-                .filter(p -> {
-                    double price = p.getUnitPrice();
-                    boolean withinMin = min == null || price >= min;
-                    boolean withinMax = max == null || price <= max;
-                    return withinMin && withinMax;
-                })
-                .collect(Collectors.toList());
+    private static boolean hasSpellingAt(List<List<SearchSuggestionIndex.FuzzyTerm>> termsOfWords, int distance) {
+        return termsOfWords.stream().flatMap(List::stream).anyMatch(term -> term.distance() == distance);
     }
 
-    private List<Product> searchCombined(List<Product> products, SearchCriteria criteria) {
-        return products.stream()
-                .filter(p -> {
-                    boolean matchesId = criteria.getProductId() == null ||
-                            p.getProductId().equalsIgnoreCase(criteria.getProductId());
-                    boolean matchesName = criteria.getProductName() == null ||
-                            p.getProductDescription().toLowerCase().contains(criteria.getProductName().toLowerCase());
-                    boolean matchesCategory = criteria.getCategory() == null ||
-                            p.getProductDescription().toLowerCase().contains(criteria.getCategory().toLowerCase());
-                    boolean matchesPrice = true;
-
-                    if (criteria.getMinPrice() != null) {
-                        matchesPrice = p.getUnitPrice() >= criteria.getMinPrice();
-                    }
-                    if (criteria.getMaxPrice() != null && matchesPrice) {
-                        matchesPrice = p.getUnitPrice() <= criteria.getMaxPrice();
-                    }
-
-                    return matchesId && matchesName && matchesCategory && matchesPrice;
-                })
-                .collect(Collectors.toList());
+    // The edits of the worst matching word and the sum over the words, each word counting its closest spelling
+    private static int[] distanceOf(Product product, List<List<SearchSuggestionIndex.FuzzyTerm>> termsOfWords) {
+        String description = product.getProductDescription().toLowerCase();
+        int worst = 0;
+        int sum = 0;
+        for (List<SearchSuggestionIndex.FuzzyTerm> terms : termsOfWords) {
+            int closest = SearchSuggestionIndex.MAX_FUZZY_DISTANCE;
+            for (SearchSuggestionIndex.FuzzyTerm term : terms) {
+                if (term.distance() < closest && description.contains(term.text().toLowerCase())) {
+                    closest = term.distance();
+                }
+            }
+            worst = Math.max(worst, closest);
+            sum += closest;
+        }
+        return new int[] {worst, sum};
+    }
+
+    // The word itself (matched as a part of the description) and the catalogue words close to it
+    private List<SearchSuggestionIndex.FuzzyTerm> candidateTermsFor(String word) {
+        List<SearchSuggestionIndex.FuzzyTerm> terms = new ArrayList<>();
+        terms.add(new SearchSuggestionIndex.FuzzyTerm(word, 0));
+        for (SearchSuggestionIndex.FuzzyTerm term : suggestionIndex.fuzzyTerms(word, maxEditsFor(word),
+                FUZZY_TERMS_PER_WORD)) {
+            if (!term.text().equalsIgnoreCase(word)) {
+                terms.add(term);
+            }
+        }
+        return terms;
     }
 
-    private List<Product> searchAdvanced(List<Product> products, SearchCriteria criteria) {
-        return searchCombined(products, criteria);
+    // Short words allow fewer typos, otherwise almost every short word would match ("tv" is 2 edits from "pc")
+    private static int maxEditsFor(String word) {
+        if (word.length() <= 3) {
+            return 0;
+        }
+        return word.length() <= 5 ? 1 : SearchSuggestionIndex.MAX_FUZZY_DISTANCE;
     }
 
     // Quick search methods
@@ -240,6 +352,14 @@ public class FlexibleSearchEngine {
         return search(criteria);
     }
 
+    public List<Product> quickSearchFuzzy(String name) throws SQLException {
+        SearchCriteria criteria = new SearchCriteria.Builder()
+                .productName(name)
+                .searchType(SearchType.FUZZY)
+                .build();
+        return search(criteria);
+    }
+
     public List<Product> quickSearchByPriceRange(double min, double max) throws SQLException {
         SearchCriteria criteria = new SearchCriteria.Builder()
                 .priceRange(min, max)
@@ -248,6 +368,18 @@ public class FlexibleSearchEngine {
         return search(criteria);
     }
 
+    // The cheapest products in stock, cheapest first (found from the price index without a full scan)
+    public List<Product> quickSearchCheapestInStock(int count) throws SQLException {
+        ProductQuery query = new ProductQuery.Builder()
+                .inStockOnly(true)
+                .orderBy(ProductQuery.OrderBy.PRICE_ASC)
+                .limit(count)
+                .build();
+        List<Product> results = databaseRW.searchProducts(query);
+        lastSearchResults = results;
+        return results;
+    }
+
     public List<Product> quickSearchInStock() throws SQLException {
         SearchCriteria criteria = new SearchCriteria.Builder()
                 .inStockOnly(true)
@@ -257,21 +389,64 @@ public class FlexibleSearchEngine {
     }
 
     // Search enhancement features
+    // Completes the last word of the input from the catalogue's words and product IDs, the best sellers first,
+    // eg "samsung t" -> ["samsung TV", "samsung Tablet"]
     public List<String> getSearchSuggestions(String partialInput) {
-        // Return mock suggestions for now
-        List<String> suggestions = Arrays.asList("iPhone", "Samsung", "Laptop", "Coffee Maker", "Phone", "Tablet");
-        return suggestions.stream()
-                .filter(s -> s.toLowerCase().contains(partialInput.toLowerCase()))
-                .limit(10)
+        if (partialInput == null || partialInput.isEmpty() || Character.isWhitespace(
+                partialInput.charAt(partialInput.length() - 1))) {
+            return new ArrayList<>(); // nothing to complete
+        }
+        try {
+            suggestionIndex.ensureBuilt(databaseRW);
+        } catch (SQLException e) {
+            EventLog.warn("Search suggestions unavailable: {}", e.getMessage());
+            return new ArrayList<>();
+        }
+        int wordStart = partialInput.length();
+        while (wordStart > 0 && !Character.isWhitespace(partialInput.charAt(wordStart - 1))) {
+            wordStart--;
+        }
+        String typedBefore = partialInput.substring(0, wordStart);
+        return suggestionIndex.suggest(partialInput.substring(wordStart), SearchSuggestionIndex.TOP_K).stream()
+                .map(term -> typedBefore + term)
                 .collect(Collectors.toList());
     }
 
+    // Remembers a term the customer searched for, in this client's recent searches and the shared popular searches
+    public void recordSearch(String term) {
+        if (isBlank(term)) {
+            return;
+        }
+        String cleaned = WHITESPACE.matcher(term.trim()).replaceAll(" ");
+        if (cleaned.length() > MAX_TERM_LENGTH) {
+            cleaned = cleaned.substring(0, MAX_TERM_LENGTH);
+        }
+        synchronized (recentSearches) {
+            recentSearches[nextRecentSearch] = cleaned; // overwrites the oldest once the buffer is full
+            nextRecentSearch = (nextRecentSearch + 1) % RECENT_SEARCHES;
+            recentSearchCount = Math.min(recentSearchCount + 1, RECENT_SEARCHES);
+        }
+        popularSearches.record(cleaned, popularSearchStripe);
+    }
+
+    // This client's last searches, the newest first, each term once (ignoring case)
     public List<String> getRecentSearches() {
-        return Arrays.asList("iPhone", "Samsung TV", "Laptop", "Coffee Maker");
+        List<String> recent = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        synchronized (recentSearches) {
+            for (int i = 1; i <= recentSearchCount; i++) {
+                String term = recentSearches[(nextRecentSearch - i + RECENT_SEARCHES) % RECENT_SEARCHES];
+                if (seen.add(term.toLowerCase(Locale.ROOT))) {
+                    recent.add(term);
+                }
+            }
+        }
+        return recent;
     }
 
+    // The terms searched most often lately by all customers, the most popular first
     public List<String> getPopularSearches() {
-        return Arrays.asList("Electronics", "Laptop", "Phone", "Coffee");
+        return popularSearches.topSearches(RECENT_SEARCHES);
     }
 
     public List<Product> getLastSearchResults() {
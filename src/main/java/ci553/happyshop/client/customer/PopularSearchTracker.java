@@ -0,0 +1,236 @@
+package ci553.happyshop.client.customer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The PopularSearchTracker class counts the search terms of all customer clients in a fixed amount of memory
+ * and reports the most popular ones, where older searches count for less than recent ones.
+ * It is a singleton shared by every FlexibleSearchEngine.
+ *
+ * How it works:
+ * - Counts are kept in a Count-Min sketch: DEPTH rows of WIDTH counters. A term adds to one counter in each row,
+ *   and its count is read as the smallest of those counters (never lower than the real count, and only higher
+ *   when other terms share all of its counters).
+ * - Next to the sketch, up to CANDIDATES terms with the highest counts are remembered (the heavy hitters).
+ *   A new term only takes the place of the lowest of them once its own count is higher.
+ * - Time decay: a search made one half-life ago counts half as much as one made now.
+ *   Instead of lowering every counter as time passes, each search adds a weight that doubles every half-life
+ *   (forward decay), and the counters are scaled back down when the weight gets large.
+ *   The half-life is set with -Dhappyshop.search.popularHalfLifeMinutes (default 60).
+ * - The sketch is split into stripes with a lock each, and every client is given its own stripe (assignStripe),
+ *   so customers do not wait for each other when they record a search. If the stripe is busy the next free one
+ *   is used. topSearches adds the stripes together, which gives the same counts as one sketch would.
+ * - Memory stays at STRIPES * DEPTH * WIDTH counters plus STRIPES * CANDIDATES terms, however many searches
+ *   are recorded.
+ *
+ * Example Usage:
+ *     PopularSearchTracker tracker = PopularSearchTracker.getPopularSearchTracker();
+ *     int stripe = tracker.assignStripe();
+ *     tracker.record("Coffee Maker", stripe);
+ *     List<String> popular = tracker.topSearches(10); // eg ["coffee maker"]
+ */
+
+public class PopularSearchTracker {
+    private static PopularSearchTracker popularSearchTracker; //singleton instance
+
+    private static final int DEPTH = 4;
+    private static final int WIDTH_BITS = 10;
+    private static final int WIDTH = 1 << WIDTH_BITS;
+    private static final int CANDIDATES = 32; // heavy hitters remembered per stripe
+    private static final int MAX_STRIPES = 16;
+    private static final double RESCALE_WEIGHT = 0x1p20; // scale the counters down once a search weighs this much
+    private static final double MIN_COUNT = 0.01; // terms counting less than this are forgotten
+
+    private final Stripe[] stripes;
+    private final double halfLifeNanos;
+    private final AtomicInteger nextStripe = new AtomicInteger();
+
+    // one part of the sketch, with the heavy hitters recorded into it
+    private final class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final double[] counters = new double[DEPTH * WIDTH];
+        final Map<String, Double> candidates = new HashMap<>(); // term -> its count when it was last recorded
+        double lowestCandidate; // no more than the lowest count in candidates, once it is full
+        long landmarkNanos = System.nanoTime(); // a search made at this time adds a weight of 1
+
+        void add(String term, int[] cells, long now) {
+            double weight = Math.pow(2, (now - landmarkNanos) / halfLifeNanos);
+            if (weight > RESCALE_WEIGHT) {
+                scaleDown(1 / weight, now);
+                weight = 1;
+            }
+            double count = Double.MAX_VALUE;
+            for (int cell : cells) {
+                counters[cell] += weight;
+                count = Math.min(count, counters[cell]);
+            }
+
+            if (candidates.size() < CANDIDATES || candidates.containsKey(term)) {
+                candidates.put(term, count);
+                return;
+            }
+            if (count <= lowestCandidate) {
+                return; // most searches end here, without looking through the candidates
+            }
+            String lowest = null;
+            double lowestCount = Double.MAX_VALUE;
+            for (Map.Entry<String, Double> candidate : candidates.entrySet()) {
+                if (candidate.getValue() < lowestCount) {
+                    lowest = candidate.getKey();
+                    lowestCount = candidate.getValue();
+                }
+            }
+            if (count > lowestCount) {
+                candidates.remove(lowest);
+                candidates.put(term, count);
+                lowestCount = Collections.min(candidates.values());
+            }
+            lowestCandidate = lowestCount;
+        }
+
+        // Moves the landmark to now, so every counter is multiplied by the decay since the old landmark
+        private void scaleDown(double factor, long now) {
+            for (int i = 0; i < counters.length; i++) {
+                counters[i] *= factor;
+            }
+            candidates.replaceAll((term, count) -> count * factor);
+            lowestCandidate *= factor;
+            landmarkNanos = now;
+        }
+
+        // What the counters are worth at the given time
+        double decayAt(long now) {
+            return Math.pow(2, -(now - landmarkNanos) / halfLifeNanos);
+        }
+    }
+
+    private PopularSearchTracker() {
+        int stripeCount = Integer.highestOneBit(Math.min(MAX_STRIPES, Runtime.getRuntime().availableProcessors()));
+        long halfLifeMinutes = Math.max(1, Long.getLong("happyshop.search.popularHalfLifeMinutes", 60));
+        this.halfLifeNanos = TimeUnit.MINUTES.toNanos(halfLifeMinutes);
+        this.stripes = new Stripe[Math.max(2, stripeCount)];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    public static synchronized PopularSearchTracker getPopularSearchTracker() {
+        if (popularSearchTracker == null) {
+            popularSearchTracker = new PopularSearchTracker();
+        }
+        return popularSearchTracker;
+    }
+
+    // The stripe a new client should record into, clients are spread over the stripes in turn
+    public int assignStripe() {
+        return nextStripe.getAndIncrement() & (stripes.length - 1);
+    }
+
+    // Counts one search for the term (compared ignoring case)
+    public void record(String term, int stripeHint) {
+        String key = term == null ? "" : term.trim().toLowerCase(Locale.ROOT);
+        if (key.isEmpty()) {
+            return;
+        }
+        int[] cells = cellsOf(key);
+        long now = System.nanoTime();
+        Stripe stripe = lockStripe(stripeHint);
+        try {
+            stripe.add(key, cells, now);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    // Locks the client's own stripe, or the next one that is free, waiting for its own only if all are busy
+    private Stripe lockStripe(int stripeHint) {
+        int mask = stripes.length - 1;
+        for (int i = 0; i < stripes.length; i++) {
+            Stripe stripe = stripes[(stripeHint + i) & mask];
+            if (stripe.lock.tryLock()) {
+                return stripe;
+            }
+        }
+        Stripe stripe = stripes[stripeHint & mask];
+        stripe.lock.lock();
+        return stripe;
+    }
+
+    // The most searched terms right now (lower case), the most popular first
+    public List<String> topSearches(int limit) {
+        long now = System.nanoTime();
+        double[] counters = new double[DEPTH * WIDTH];
+        Set<String> terms = new HashSet<>();
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                double decay = stripe.decayAt(now);
+                for (int i = 0; i < counters.length; i++) {
+                    counters[i] += stripe.counters[i] * decay;
+                }
+                terms.addAll(stripe.candidates.keySet());
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+
+        Map<String, Double> counts = new HashMap<>();
+        for (String term : terms) {
+            double count = Double.MAX_VALUE;
+            for (int cell : cellsOf(term)) {
+                count = Math.min(count, counters[cell]);
+            }
+            if (count >= MIN_COUNT) {
+                counts.put(term, count);
+            }
+        }
+        List<String> popular = new ArrayList<>(counts.keySet());
+        popular.sort(Comparator.<String>comparingDouble(counts::get).reversed()
+                .thenComparing(Comparator.naturalOrder()));
+        return popular.size() > limit ? new ArrayList<>(popular.subList(0, limit)) : popular;
+    }
+
+    // The counter of the term in each row, each row taking its own WIDTH_BITS bits of a 64 bit hash of the term.
+    // The rows use 40 of those bits, so two different terms share all their counters with a chance of about 1 in 2^40
+    private static int[] cellsOf(String term) {
+        long hash = hash64(term);
+        int[] cells = new int[DEPTH];
+        for (int row = 0; row < DEPTH; row++) {
+            cells[row] = row * WIDTH + (int) ((hash >>> (row * WIDTH_BITS)) & (WIDTH - 1));
+        }
+        return cells;
+    }
+
+    // A 64 bit hash of the UTF-8 bytes of the term (FNV-1a, then mixed), unlike String.hashCode which only has
+    // 32 bits, so terms with the same String.hashCode do not land on the same counter in every row
+    private static long hash64(String term) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : term.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    // Spreads the bits of a hash over 64 bits (the MurmurHash3 64 bit finaliser)
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -17,6 +17,9 @@ public class WarehouseController {
             case "Delete":
                 model.doDelete();
                 break;
+            case "Hot":
+                model.doToggleHot();
+                break;
             case "➕":
                 model.doChangeStockBy("add");
                 break;
@@ -1,9 +1,11 @@
 package ci553.happyshop.client.warehouse;
 
 import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.storageAccess.AsyncDatabaseRW;
 import ci553.happyshop.storageAccess.DatabaseRW;
 import ci553.happyshop.storageAccess.DerbyRW;
 import ci553.happyshop.storageAccess.ImageFileManager;
+import ci553.happyshop.utility.EventLog;
 import ci553.happyshop.utility.StorageLocation;
 
 import java.io.IOException;
@@ -18,6 +20,7 @@ public class WarehouseModel {
     public WarehouseView view;
     public DatabaseRW databaseRW; //Interface type, not specific implementation
                          //Benefits: Flexibility: Easily change the database implementation.
+    private AsyncDatabaseRW asyncDatabaseRW; // runs databaseRW calls off the JavaFX thread, created on first use
 
     private ArrayList<Product> productList = new ArrayList<>(); // search results fetched from the database
     private Product theSelectedPro; // the product selected from the ListView before the user edits or deletes
@@ -38,7 +41,9 @@ public class WarehouseModel {
     private enum ManageProductType{
         Edited,
         Deleted,
-        New
+        New,
+        MarkedHot,
+        UnmarkedHot
     }
 
     private enum UpdateForAction{
@@ -46,6 +51,7 @@ public class WarehouseModel {
         BtnSearch,  //actually its updating the Observable ProductList
         BtnEdit,
         BtnDelete,
+        BtnHot,
 
         //actions in Editing an existing product page
         BtnChangeStockBy, // Refers to both "+" and "−" buttons for changing stock
@@ -60,40 +66,81 @@ public class WarehouseModel {
         ShowInputErrorMsg
     }
 
-    void doSearch() throws SQLException {
+    // Database calls run on a background thread, their results are shown back on the JavaFX thread
+    private AsyncDatabaseRW asyncDatabaseRW() {
+        if (asyncDatabaseRW == null || asyncDatabaseRW.getDatabaseRW() != databaseRW) {
+            asyncDatabaseRW = new AsyncDatabaseRW(databaseRW);
+        }
+        return asyncDatabaseRW;
+    }
+
+    void doSearch() {
         String keyword = view.tfSearchKeyword.getText().trim();
         if (!keyword.equals("")) {
-            productList = databaseRW.searchProduct(keyword);
+            // a new search cancels one still running, so the list only ever shows the latest results
+            AsyncDatabaseRW.onFxThread(asyncDatabaseRW().submitLatest("search", () -> databaseRW.searchProduct(keyword)),
+                    products -> {
+                        productList = products;
+                        updateView(UpdateForAction.BtnSearch);
+                    },
+                    this::showDatabaseError);
         }
         else{
             productList.clear();
-            System.out.println("please type product ID or name to search");
+            EventLog.debug("please type product ID or name to search");
+            updateView(UpdateForAction.BtnSearch);
         }
-        updateView(UpdateForAction.BtnSearch);
     }
 
-    void doDelete() throws SQLException, IOException {
+    void doDelete() {
         System.out.println("delete gets called in model");
         Product pro  = view.obrLvProducts.getSelectionModel().getSelectedItem();
         if (pro != null ) {
-            theSelectedPro = pro;
-            productList.remove(theSelectedPro); //remove the product from product List
-
-            //update databse: delete the product from database
-            databaseRW.deleteProduct(theSelectedPro.getProductId());
-
-            //delete the image from imageFolder "images/"
-            String imageName = theSelectedPro.getProductImageName(); //eg 0011.jpg;
-            ImageFileManager.deleteImageFile(StorageLocation.imageFolder, imageName);
-
-            updateView(UpdateForAction.BtnDelete);
-            theSelectedPro = null;
+            AsyncDatabaseRW.onFxThread(asyncDatabaseRW().submit(() -> {
+                        //update databse: delete the product from database
+                        databaseRW.deleteProduct(pro.getProductId());
+
+                        //delete the image from imageFolder "images/"
+                        String imageName = pro.getProductImageName(); //eg 0011.jpg;
+                        ImageFileManager.deleteImageFile(StorageLocation.imageFolder, imageName);
+                        return null;
+                    }),
+                    done -> {
+                        theSelectedPro = pro;
+                        productList.remove(theSelectedPro); //remove the product from product List
+                        updateView(UpdateForAction.BtnDelete);
+                        theSelectedPro = null;
+                    },
+                    this::showDatabaseError);
         }
         else{
             System.out.println("No product was selected");
         }
     }
 
+    // Marks the selected product as hot for a flash sale (its stock moves to striped counters), or back again
+    void doToggleHot() {
+        EventLog.debug("Hot gets called in model");
+        Product pro = view.obrLvProducts.getSelectionModel().getSelectedItem();
+        if (pro != null) {
+            AsyncDatabaseRW.onFxThread(asyncDatabaseRW().submit(() -> {
+                        boolean hot = !databaseRW.isHotProduct(pro.getProductId());
+                        databaseRW.setHotProduct(pro.getProductId(), hot);
+                        return hot;
+                    }),
+                    hot -> {
+                        theSelectedPro = pro;
+                        showManageStockHistory(hot ? ManageProductType.MarkedHot : ManageProductType.UnmarkedHot);
+                        theSelectedPro = null;
+                        updateView(UpdateForAction.BtnHot);
+                    },
+                    this::showDatabaseError);
+        }
+        else{
+            EventLog.debug("No product was selected");
+        }
+    }
+
     void doEdit() {
         System.out.println("Edit gets called in model");
         Product pro = view.obrLvProducts.getSelectionModel().getSelectedItem();
@@ -127,7 +174,7 @@ public class WarehouseModel {
            theNewProId = null;
        }
     }
-    void doSummit() throws SQLException, IOException {
+    void doSummit() throws IOException {
         if(view.theProFormMode.equals("EDIT")){
             doSubmitEdit();
         }
@@ -136,7 +183,7 @@ public class WarehouseModel {
         }
     }
 
-    private void doSubmitEdit() throws IOException, SQLException {
+    private void doSubmitEdit() throws IOException {
         System.out.println("ok edit is called");
         if(theSelectedPro!=null) {
             String id=theSelectedPro.getProductId();
@@ -162,10 +209,14 @@ public class WarehouseModel {
                 double price = Double.parseDouble(textPrice);
                 int stock= Integer.parseInt(textStock);
                 //update datbase
-                databaseRW.updateProduct(id,description,price,imageName,stock);
-
-                updateView(UpdateForAction.BtnSummitEdit);
-                theSelectedPro=null;
+                Product editedPro = theSelectedPro;
+                AsyncDatabaseRW.onFxThread(asyncDatabaseRW().updateProduct(id,description,price,imageName,stock),
+                        done -> {
+                            theSelectedPro = editedPro;
+                            updateView(UpdateForAction.BtnSummitEdit);
+                            theSelectedPro=null;
+                        },
+                        this::showDatabaseError);
             }
         }
         else{
@@ -212,36 +263,61 @@ public class WarehouseModel {
         return true;
     }
 
-    private void doSubmitNew() throws SQLException, IOException {
+    private void doSubmitNew() {
         System.out.println("Adding new Pro in model");
 
         //all info(input from user) about the new product
-        theNewProId = view.tfIdNewPro.getText().trim();
+        String newProId = view.tfIdNewPro.getText().trim();
         String textPrice = view.tfPriceNewPro.getText().trim();
         String textStock = view.tfStockNewPro.getText().trim();
         String description = view.taDescriptionNewPro.getText().trim();
         String iPath = view.imageUriNewPro; //image Path from the imageChooser in View class
 
+        //check the Id is unique in the background, then validate all input on the JavaFX thread
+        AsyncDatabaseRW.onFxThread(asyncDatabaseRW().isProIdAvailable(newProId),
+                idAvailable -> {
+                    try {
+                        submitNewIfValid(newProId, textPrice, textStock, description, iPath, idAvailable);
+                    } catch (IOException e) {
+                        showDatabaseError(e);
+                    }
+                },
+                this::showDatabaseError);
+    }
+
+    private void submitNewIfValid(String newProId, String textPrice, String textStock, String description,
+                                  String iPath, boolean idAvailable) throws IOException {
         //validate input
-        if (!validateInputNewProChild(theNewProId, textPrice, textStock, description, iPath)) {
+        if (!validateInputNewProChild(newProId, textPrice, textStock, description, iPath, idAvailable)) {
             updateView(UpdateForAction.ShowInputErrorMsg);
         } else {
             //copy the user selected image to project image folder and using productId as image name
             //and get the image extension from the source image, we write this name to database
-            String imageNameWithExtension = ImageFileManager.copyFileToDestination(view.imageUriNewPro, StorageLocation.imageFolder,theNewProId);
+            String imageNameWithExtension = ImageFileManager.copyFileToDestination(iPath, StorageLocation.imageFolder,newProId);
             double price = Double.parseDouble(textPrice);
             int stock = Integer.parseInt(textStock);
 
             //insertNewProduct to databse (String id, String des,double price,String image,int stock)
             //a record in databse looks like ('0001', '40 inch TV', 269.00,'0001TV.jpg',100)"
-            databaseRW.insertNewProduct(theNewProId,description,price,imageNameWithExtension,stock);
-            updateView(UpdateForAction.BtnSummitNew);
-            theNewProId = null;
+            AsyncDatabaseRW.onFxThread(asyncDatabaseRW().insertNewProduct(newProId,description,price,imageNameWithExtension,stock),
+                    done -> {
+                        theNewProId = newProId;
+                        updateView(UpdateForAction.BtnSummitNew);
+                        theNewProId = null;
+                    },
+                    this::showDatabaseError);
         }
     }
 
+    // Shows a failed background database call in the alertSimulator
+    private void showDatabaseError(Throwable error) {
+        EventLog.warn("Database call failed: {}", error.getMessage());
+        displayInputErrorMsg = "\u2022 " + AsyncDatabaseRW.describe(error);
+        updateView(UpdateForAction.ShowInputErrorMsg);
+    }
+
     private  boolean validateInputEditChild(String txPrice, String txStock,
-                                         String description) throws SQLException {
+                                         String description) {
 
         StringBuilder errorMessage = new StringBuilder();
 
@@ -290,7 +366,7 @@ public class WarehouseModel {
     }
 
     private  boolean validateInputNewProChild(String id, String txPrice, String txStock,
-                                   String description, String imageUri) throws SQLException {
+                                   String description, String imageUri, boolean idAvailable) {
 
         StringBuilder errorMessage = new StringBuilder();
         // Validate Id (must be exactly 4 digits)
@@ -298,7 +374,7 @@ public class WarehouseModel {
             errorMessage.append("\u2022 Product ID must be exactly 4 digits.\n");
 
         //check Id is unique
-        if(!databaseRW.isProIdAvailable(id))
+        if(!idAvailable)
             errorMessage.append("\u2022 Product ID " + id + " is not available.\n");
 
         // Validate Price (must be a positive number, and two digitals )
@@ -361,6 +437,10 @@ public class WarehouseModel {
                 alertSimulator.closeAlertSimulatorWindow();//close AlertSimulatorWindow if exists
                 break;
 
+            case UpdateForAction.BtnHot:
+                alertSimulator.closeAlertSimulatorWindow();//close AlertSimulatorWindow if exists
+                break;
+
             case UpdateForAction.BtnChangeStockBy:
                 view.updateBtnAddSub(displayStockEdit);
                 alertSimulator.closeAlertSimulatorWindow();//close AlertSimulatorWindow if exists
@@ -403,6 +483,12 @@ public class WarehouseModel {
             case ManageProductType.Deleted:
                 record = theSelectedPro.getProductId() + " deleted successfully, " + dateTime;
                 break;
+            case ManageProductType.MarkedHot:
+                record = theSelectedPro.getProductId() + " marked as hot, " + dateTime;
+                break;
+            case ManageProductType.UnmarkedHot:
+                record = theSelectedPro.getProductId() + " no longer hot, " + dateTime;
+                break;
             case ManageProductType.New :
                 record = theNewProId + " added to database successfully, " + dateTime;
         }
@@ -187,7 +187,11 @@ public class WarehouseView  {
         btnDelete.setStyle(UIStyle.grayFillBtnStyle);
         btnDelete.setOnAction(this::buttonClick);
 
-        HBox hbLaBtns = new HBox(10, laSearchSummary, btnEdit,btnDelete);
+        Button btnHot = new Button("Hot");
+        btnHot.setStyle(UIStyle.grayFillBtnStyle);
+        btnHot.setOnAction(this::buttonClick);
+
+        HBox hbLaBtns = new HBox(10, laSearchSummary, btnEdit,btnDelete,btnHot);
         hbLaBtns.setAlignment(Pos.CENTER);
         hbLaBtns.setPadding(new Insets(5)); //setPadding only works on Layout manager
         //hbLaBtns.setStyle("-fx-padding: 5px;"); //setStyle works on any Node (eg. layout manager, controls)
@@ -1,5 +1,6 @@
 package ci553.happyshop.orderManagement;
 
+import ci553.happyshop.utility.EventLog;
 import ci553.happyshop.utility.StorageLocation;
 
 import java.io.IOException;
@@ -8,6 +9,7 @@ import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * OrderCounter is responsible for generating unique, sequential orderIDs for new orders.
@@ -21,6 +23,10 @@ import java.nio.channels.FileLock;
  * or multi-process environment. The method is simple to use by OrderHub
  * or any component that needs to generate order numbers.</p>
  *
+ * <p>A file lock is held on behalf of the whole JVM: a second thread asking for it while the first
+ * still holds it gets an OverlappingFileLockException instead of waiting. Threads of this JVM therefore
+ * take turns on an in-process lock first, and only then lock the file against other processes.</p>
+ *
  * <p>FileChannel allows exclusive locking of files or specific regions of files,
  * which prevents other threads or processes from accessing the file simultaneously,
  * ensuring data integrity. </p>
@@ -31,13 +37,15 @@ import java.nio.channels.FileLock;
  */
 
 public class OrderCounter {
+    private static final ReentrantLock lock = new ReentrantLock(); // one thread of this JVM at a time
 
     public static int generateOrderId() throws IOException {
         Path path = StorageLocation.orderCounterPath;
 
         // Lock and increment the ID
+        lock.lock();
         try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
-             FileLock lock = channel.lock()) {
+             FileLock fileLock = channel.lock()) { // against other processes
 
             //creates a ByteBuffer of the same size as the file — so you can read the whole thing.
             ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
@@ -60,8 +68,10 @@ public class OrderCounter {
             //This wraps an existing byte array into a buffer — so you can write it with channel.write().
             channel.write(ByteBuffer.wrap(String.valueOf(newId).getBytes()));
 
-            System.out.println("OrderId was generated for now: " + newId);
+            EventLog.debug("OrderId was generated for now: {}", newId);
             return newId;
+        } finally {
+            lock.unlock();
         }
     }
 }
@@ -5,6 +5,7 @@ import ci553.happyshop.catalogue.Product;
 import ci553.happyshop.client.orderTracker.OrderTracker;
 import ci553.happyshop.client.picker.PickerModel;
 import ci553.happyshop.storageAccess.OrderFileManager;
+import ci553.happyshop.utility.EventLog;
 import ci553.happyshop.utility.StorageLocation;
 
 import java.io.IOException;
@@ -17,6 +18,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -36,6 +38,14 @@ import java.util.stream.Stream;
  * <p> OrderHub also follows the Observer pattern: it notifies registered observers such as OrderTracker
  * and PickerModel whenever the order data changes, keeping the UI and business logic in sync.</p>
  *
+ * <p>OrderHub may be called from many threads at once (eg the customers and pickers of LoadSimulator):
+ * the orderMap and the maps derived from it are guarded by the orderMap's lock, which is held while
+ * observers are notified, so each observer sees every change in order.
+ * Moving an order file to its new state folder (changeOrderStateMoveFile) and reading a progressing order
+ * (getOrderDetailForPicker) are done under the lock too, so the state in orderMap always names the folder
+ * the order file is in. Only the file write of newOrder, made before the order is in orderMap,
+ * and the folder scan of initializeOrderMap at startup are done outside the lock.</p>
+ *
  * <p>As the heart of the ordering system, OrderHub connects customers, pickers, and tracker,
  * managementing logic into a unified workflow.</p>
  */
@@ -59,14 +69,14 @@ public class OrderHub  {
      *   but collected orders are shown for a limited time (10 seconds).
      * - PickerModels will be notified only of orders in the "ordered" or "progressing" states, filtering out collected orders.
      */
-    private final ArrayList<OrderTracker> orderTrackerList = new ArrayList<>();
-    private final ArrayList<PickerModel> pickerModelList = new ArrayList<>();
+    private final List<OrderTracker> orderTrackerList = new CopyOnWriteArrayList<>();
+    private final List<PickerModel> pickerModelList = new CopyOnWriteArrayList<>();
 
     private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
 
     //Singleton pattern
     private OrderHub() {}
-    public static OrderHub getOrderHub() {
+    public static synchronized OrderHub getOrderHub() {
         if (orderHub == null)
             orderHub = new OrderHub();
             return orderHub;
@@ -85,10 +95,12 @@ public class OrderHub  {
         Path path = orderedPath;
         OrderFileManager.createOrderFile(path, orderId, orderDetail);
 
-        orderMap.put(orderId, theOrder.getState()); //add the order to orderMap,state is Ordered initially
-        notifyOrderTrackers(); //notify OrderTrackers
-        notifyPickerModels();//notify pickers
-        
+        synchronized (orderMap) {
+            orderMap.put(orderId, theOrder.getState()); //add the order to orderMap,state is Ordered initially
+            notifyOrderTrackers(); //notify OrderTrackers
+            notifyPickerModels();//notify pickers
+        }
+
         return theOrder;
     }
 
@@ -98,8 +110,10 @@ public class OrderHub  {
     }
      //Notifies all registered observer_OrderTrackers to update and display the latest orderMap.
     public void notifyOrderTrackers(){
-        for(OrderTracker orderTracker : orderTrackerList){
-            orderTracker.setOrderMap(orderMap);
+        synchronized (orderMap) {
+            for(OrderTracker orderTracker : orderTrackerList){
+                orderTracker.setOrderMap(orderMap);
+            }
         }
     }
 
@@ -110,17 +124,20 @@ public class OrderHub  {
 
     //notify all pickers to show orderMap (only ordered and progressing states orders)
     public void notifyPickerModels(){
-        TreeMap<Integer,OrderState> orderMapForPicker = new TreeMap<>();
-        progressingOrderMap = filterOrdersByState(OrderState.Progressing);
-        OrderedOrderMap = filterOrdersByState(OrderState.Ordered);
-        orderMapForPicker.putAll(progressingOrderMap);
-        orderMapForPicker.putAll(OrderedOrderMap);
-        for(PickerModel pickerModel : pickerModelList){
-            pickerModel.setOrderMap(orderMapForPicker);
+        synchronized (orderMap) {
+            TreeMap<Integer,OrderState> orderMapForPicker = new TreeMap<>();
+            progressingOrderMap = filterOrdersByState(OrderState.Progressing);
+            OrderedOrderMap = filterOrdersByState(OrderState.Ordered);
+            orderMapForPicker.putAll(progressingOrderMap);
+            orderMapForPicker.putAll(OrderedOrderMap);
+            for(PickerModel pickerModel : pickerModelList){
+                pickerModel.setOrderMap(orderMapForPicker);
+            }
         }
     }
 
     // Filters orderMap that match the specified state, a helper class used by notifyPickerModel()
+    // Must be called while holding the orderMap's lock
     private TreeMap<Integer, OrderState> filterOrdersByState(OrderState state) {
         TreeMap<Integer, OrderState> filteredOrderMap = new TreeMap<>(); // New map to hold filtered orders
         // Loop through the orderMap and add matching orders to filteredOrders
@@ -134,13 +151,12 @@ public class OrderHub  {
 
     //Changes the state of the specified order, updates its file, and moves it to the appropriate folder.
     //trigger by PickerModel
+    //The file is moved while orderMap is locked, so the state in orderMap always names the folder the file is in
     public void changeOrderStateMoveFile(int orderId, OrderState newState) throws IOException {
-        if(orderMap.containsKey(orderId) && !orderMap.get(orderId).equals(newState))
-        {
-            //change orderState in OrderMap, notify OrderTrackers and pickers
-            orderMap.put(orderId, newState);
-            notifyOrderTrackers();
-            notifyPickerModels();
+        synchronized (orderMap) {
+            if(!orderMap.containsKey(orderId) || orderMap.get(orderId).equals(newState)) {
+                return; // unknown order, or another caller changed it already
+            }
 
             //change orderState in order file and move the file to new state folder
             switch(newState){
@@ -152,6 +168,11 @@ public class OrderHub  {
                     removeCollectedOrder(orderId); //Scheduled removal
                     break;
             }
+
+            //change orderState in OrderMap, notify OrderTrackers and pickers
+            orderMap.put(orderId, newState);
+            notifyOrderTrackers();
+            notifyPickerModels();
         }
     }
 
@@ -164,23 +185,24 @@ public class OrderHub  {
      * The 10-second delay gives enough time for any final updates, and providing a short window for review of completed orders.
      */
     private void removeCollectedOrder(int orderId) {
-        if (orderMap.containsKey(orderId)) {
-            // Schedule removal after a few seconds
-            scheduler.schedule(() -> {
+        // Schedule removal after a few seconds
+        scheduler.schedule(() -> {
+            synchronized (orderMap) {
                 orderMap.remove(orderId); //remove collected order
-                System.out.println("Order " + orderId + " removed from tracker and OrdersMap.");
                 notifyOrderTrackers();
-            }, 10, TimeUnit.SECONDS );
-        }
+            }
+            EventLog.debug("Order {} removed from tracker and OrdersMap.", orderId);
+        }, 10, TimeUnit.SECONDS );
     }
 
     // Reads details of an order for display in the picker once they started preparing the order.
     public String  getOrderDetailForPicker(int orderId) throws IOException {
-        OrderState state = orderMap.get(orderId);
-        if(state.equals(OrderState.Progressing)) {
-            return OrderFileManager.readOrderFile(progressingPath,orderId);
-        }else{
-            return "the fuction is only for picker";
+        synchronized (orderMap) { // the file cannot be moved on while it is read
+            if(OrderState.Progressing.equals(orderMap.get(orderId))) {
+                return OrderFileManager.readOrderFile(progressingPath,orderId);
+            }else{
+                return "the fuction is only for picker";
+            }
         }
     }
 
@@ -189,20 +211,24 @@ public class OrderHub  {
     public void initializeOrderMap(){
         ArrayList<Integer> orderedIds = orderIdsLoader(orderedPath);
         ArrayList<Integer> progressingIds = orderIdsLoader(progressingPath);
-        if(orderedIds.size()>0){
-            for(Integer orderId : orderedIds){
-                orderMap.put(orderId, OrderState.Ordered);
+        int orderCount;
+        synchronized (orderMap) {
+            if(orderedIds.size()>0){
+                for(Integer orderId : orderedIds){
+                    orderMap.put(orderId, OrderState.Ordered);
+                }
             }
-        }
-        if(progressingIds.size()>0){
-            for(Integer orderId : progressingIds){
-                orderMap.put(orderId, OrderState.Progressing);
+            if(progressingIds.size()>0){
+                for(Integer orderId : progressingIds){
+                    orderMap.put(orderId, OrderState.Progressing);
+                }
             }
+            notifyOrderTrackers();
+            notifyPickerModels();
+            orderCount = orderMap.size();
         }
-        notifyOrderTrackers();
-        notifyPickerModels();
-        System.out.println("orderMap initilized. "+ orderMap.size() + " orders in total, including:");
-        System.out.println( orderedIds.size() + " Ordered orders, " +progressingIds.size() + " Progressing orders " );
+        EventLog.info("orderMap initilized. {} orders in total, including:", orderCount);
+        EventLog.info("{} Ordered orders, {} Progressing orders", orderedIds.size(), progressingIds.size());
     }
 
     // Loads a list of order IDs from the specified directory.
@@ -216,7 +242,7 @@ public class OrderHub  {
                 List<Path> files = fileStream.filter(Files::isRegularFile).toList();
 
                 if (files.isEmpty()) {
-                    System.out.println(dir + " is empty");
+                    EventLog.debug("{} is empty", dir);
                 } else {
                     for (Path file : files) {
                         String fileName = file.getFileName().toString();
@@ -224,18 +250,18 @@ public class OrderHub  {
                             try {
                                 int orderId = Integer.parseInt(fileName.substring(0, fileName.lastIndexOf('.')));
                                 orderIds.add(orderId);
-                                System.out.println(orderId);
+                                EventLog.debug("{}", orderId);
                             } catch (NumberFormatException e) {
-                                System.out.println("Invalid file name: " + fileName);
+                                EventLog.warn("Invalid file name: {}", fileName);
                             }
                         }
                     }
                 }
             } catch (IOException e) {
-                System.out.println("Error reading " + dir + ", " + e.getMessage());
+                EventLog.warn("Error reading {}, {}", dir, e.getMessage());
             }
         } else {
-            System.out.println(dir + " does not exist.");
+            EventLog.warn("{} does not exist.", dir);
         }
         return orderIds;
     }
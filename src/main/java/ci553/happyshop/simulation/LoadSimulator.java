@@ -0,0 +1,197 @@
+package ci553.happyshop.simulation;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.orderManagement.OrderHub;
+import ci553.happyshop.storageAccess.DatabaseRW;
+import ci553.happyshop.storageAccess.DatabaseRWFactory;
+import ci553.happyshop.storageAccess.ProductQuery;
+import ci553.happyshop.storageAccess.StockReservationManager;
+import ci553.happyshop.utility.EventLog;
+import ci553.happyshop.utility.StorageLocation;
+
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The LoadSimulator class load-tests HappyShop without any window: it starts thousands of simulated customers
+ * (SimulatedCustomer) and a few simulated pickers (SimulatedPicker), each on its own virtual thread,
+ * against the same DatabaseRW, StockReservationManager and OrderHub the clients use,
+ * and prints throughput and latency percentiles per operation at the end.
+ *
+ * How it works:
+ * - Customers arrive one by one at random times, arrivalRate per second on average (a Poisson process),
+ *   or all at once when arrivalRate is 0. Each is given a behaviour drawn from the mix.
+ * - The pickers take the orders the customers place, in order, until every customer has left
+ *   and every order has been collected.
+ * - The arrival times, behaviours and each customer's choices come from Randoms seeded with seed,
+ *   so two runs with the same settings make the same requests (their timing still differs).
+ *
+ * Settings (system properties, defaults in brackets):
+ *     -Dhappyshop.sim.customers          number of customer visits (2000)
+ *     -Dhappyshop.sim.arrivalRate        customers arriving per second, 0 for all at once (100)
+ *     -Dhappyshop.sim.mix                weights of the behaviours (browse:50,buy:40,abandon:10)
+ *     -Dhappyshop.sim.searchesPerVisit   searches per visit, at least one per trolley item (3)
+ *     -Dhappyshop.sim.maxTrolleyItems    a buying customer adds 1 to this many products (3)
+ *     -Dhappyshop.sim.maxQuantity        each product is added 1 to this many units at a time (2)
+ *     -Dhappyshop.sim.idSearchPercent    share of searches by product ID instead of by name (30)
+ *     -Dhappyshop.sim.thinkMillis        mean pause between two steps of a customer (100)
+ *     -Dhappyshop.sim.pickers            number of pickers (4)
+ *     -Dhappyshop.sim.pickMillis         time a picker spends preparing an order (20)
+ *     -Dhappyshop.sim.restock            if above 0, every product's stock is set to this before the run (0)
+ *     -Dhappyshop.sim.seed               seed of every random choice (553)
+ *
+ * The simulation buys stock and writes order files for real. Run it on a copy of the data, eg with
+ *     -Dhappyshop.storage=memory -Dhappyshop.ordersFolder=target/sim-orders
+ * (after running SetOrderFileSystem with the same ordersFolder), or run SetDatabase and SetOrderFileSystem
+ * again afterwards.
+ */
+
+public class LoadSimulator {
+
+    /**
+     * The settings of one run, read from the system properties listed above.
+     */
+    public static class Settings {
+        public final int customers = Integer.getInteger("happyshop.sim.customers", 2000);
+        public final double arrivalRate = Double.parseDouble(System.getProperty("happyshop.sim.arrivalRate", "100"));
+        public final Map<SimulatedCustomer.Behaviour, Integer> mix =
+                parseMix(System.getProperty("happyshop.sim.mix", "browse:50,buy:40,abandon:10"));
+        public final int searchesPerVisit = Integer.getInteger("happyshop.sim.searchesPerVisit", 3);
+        public final int maxTrolleyItems = Math.max(1, Integer.getInteger("happyshop.sim.maxTrolleyItems", 3));
+        public final int maxQuantity = Math.max(1, Integer.getInteger("happyshop.sim.maxQuantity", 2));
+        public final int idSearchPercent = Integer.getInteger("happyshop.sim.idSearchPercent", 30);
+        public final long thinkMillis = Long.getLong("happyshop.sim.thinkMillis", 100);
+        public final int pickers = Integer.getInteger("happyshop.sim.pickers", 4);
+        public final long pickMillis = Long.getLong("happyshop.sim.pickMillis", 20);
+        public final int restock = Integer.getInteger("happyshop.sim.restock", 0);
+        public final long seed = Long.getLong("happyshop.sim.seed", 553);
+
+        // "browse:50,buy:40,abandon:10" -> {BROWSE=50, BUY=40, ABANDON=10}
+        private static Map<SimulatedCustomer.Behaviour, Integer> parseMix(String text) {
+            Map<SimulatedCustomer.Behaviour, Integer> weights = new EnumMap<>(SimulatedCustomer.Behaviour.class);
+            for (String part : text.split(",")) {
+                String[] nameAndWeight = part.trim().split(":");
+                if (nameAndWeight.length != 2) {
+                    throw new IllegalArgumentException("happyshop.sim.mix: expected behaviour:weight, got " + part);
+                }
+                weights.put(SimulatedCustomer.Behaviour.valueOf(nameAndWeight[0].trim().toUpperCase(Locale.ROOT)),
+                        Integer.parseInt(nameAndWeight[1].trim()));
+            }
+            if (weights.values().stream().mapToInt(Integer::intValue).sum() <= 0) {
+                throw new IllegalArgumentException("happyshop.sim.mix: the weights must add up to more than 0");
+            }
+            return weights;
+        }
+
+        SimulatedCustomer.Behaviour pickBehaviour(Random random) {
+            int total = mix.values().stream().mapToInt(Integer::intValue).sum();
+            int choice = random.nextInt(total);
+            for (Map.Entry<SimulatedCustomer.Behaviour, Integer> weight : mix.entrySet()) {
+                choice -= weight.getValue();
+                if (choice < 0) {
+                    return weight.getKey();
+                }
+            }
+            return SimulatedCustomer.Behaviour.BROWSE; // not reached
+        }
+
+        @Override
+        public String toString() {
+            return String.format("customers=%d, arrivalRate=%s/s, mix=%s, searchesPerVisit=%d, maxTrolleyItems=%d, "
+                            + "maxQuantity=%d, idSearchPercent=%d, thinkMillis=%d, pickers=%d, pickMillis=%d, "
+                            + "restock=%d, seed=%d",
+                    customers, arrivalRate > 0 ? arrivalRate : "all at once", mix, searchesPerVisit, maxTrolleyItems,
+                    maxQuantity, idSearchPercent, thinkMillis, pickers, pickMillis, restock, seed);
+        }
+    }
+
+    public static void main(String[] args) throws SQLException, InterruptedException {
+        Settings settings = new Settings();
+        if (!Files.isDirectory(StorageLocation.orderedPath) || !Files.exists(StorageLocation.orderCounterPath)) {
+            System.out.println(StorageLocation.ordersPath + " is not set up, run SetOrderFileSystem first.");
+            return;
+        }
+
+        DatabaseRW databaseRW = DatabaseRWFactory.createDatabaseRW();
+        StockReservationManager reservationManager = DatabaseRWFactory.getStockReservationManager();
+        List<Product> catalogue = databaseRW.searchProducts(new ProductQuery.Builder().build());
+        if (catalogue.isEmpty()) {
+            System.out.println("ProductTable is empty, run SetDatabase first.");
+            return;
+        }
+        if (settings.restock > 0) {
+            for (Product product : catalogue) {
+                databaseRW.updateProduct(product.getProductId(), product.getProductDescription(),
+                        product.getUnitPrice(), product.getProductImageName(), settings.restock);
+            }
+        }
+
+        // customers search for the words of the product descriptions and for the product IDs
+        TreeSet<String> words = new TreeSet<>();
+        List<String> productIds = new ArrayList<>();
+        for (Product product : catalogue) {
+            productIds.add(product.getProductId());
+            for (String word : product.getProductDescription().split("\\s+")) {
+                if (word.length() >= 3) {
+                    words.add(word.toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+        List<String> searchWords = new ArrayList<>(words);
+
+        OrderHub.getOrderHub(); // created before the customers start, not by the first of them
+        SimulationStats stats = new SimulationStats();
+        LinkedBlockingQueue<Integer> placedOrders = new LinkedBlockingQueue<>();
+        AtomicBoolean customersDone = new AtomicBoolean(false);
+
+        System.out.println("Load simulation: " + settings);
+        System.out.println(catalogue.size() + " products, " + searchWords.size() + " search words");
+        long start = System.nanoTime();
+
+        List<Thread> pickers = new ArrayList<>();
+        for (int i = 0; i < settings.pickers; i++) {
+            pickers.add(Thread.ofVirtual().name("sim-picker-" + i).start(
+                    new SimulatedPicker(placedOrders, settings.pickMillis, customersDone::get, stats)));
+        }
+
+        Random arrivals = new Random(settings.seed);
+        try (ExecutorService customers =
+                     Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("sim-customer-", 0).factory())) {
+            long nextArrival = System.nanoTime();
+            for (int i = 0; i < settings.customers; i++) {
+                if (settings.arrivalRate > 0) {
+                    // exponentially distributed gaps give a Poisson arrival process
+                    nextArrival += (long) (-Math.log(1 - arrivals.nextDouble()) / settings.arrivalRate * 1e9);
+                    long wait;
+                    while ((wait = nextArrival - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                customers.submit(new SimulatedCustomer(settings.pickBehaviour(arrivals), settings.seed + i + 1,
+                        settings, databaseRW, searchWords, productIds, reservationManager, placedOrders, stats));
+            }
+        } // close() waits until every customer has left
+        customersDone.set(true);
+        for (Thread picker : pickers) {
+            picker.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        EventLog.flush(); // so the report is not interleaved with log lines
+        System.out.printf("%nFinished in %.1f s%n%n", elapsed / 1e9);
+        System.out.println(stats.report(elapsed));
+        System.exit(0); // OrderHub's scheduler thread would keep the JVM alive
+    }
+}
@@ -0,0 +1,203 @@
+package ci553.happyshop.simulation;
+
+import ci553.happyshop.catalogue.Order;
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.client.customer.FlexibleSearchEngine;
+import ci553.happyshop.client.customer.OrganizedTrolley;
+import ci553.happyshop.orderManagement.OrderHub;
+import ci553.happyshop.storageAccess.DatabaseRW;
+import ci553.happyshop.storageAccess.StockReservationManager;
+import ci553.happyshop.utility.EventLog;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The SimulatedCustomer class is one customer visit of a LoadSimulator run, doing what CustomerModel does
+ * for a real customer, without the window:
+ * - searches by name or by product ID through its own FlexibleSearchEngine,
+ * - adds a product from the results by reserving one unit with the shared StockReservationManager,
+ *   then putting it into its OrganizedTrolley,
+ * - checks out with StockReservationManager.purchaseReserved (ie DatabaseRW.purchaseStocks) and,
+ *   if nothing is short, places the order with OrderHub.newOrder and hands the order ID to the pickers.
+ * Payment is skipped, PaymentProcessor only exists as a dialog.
+ *
+ * What the customer does is chosen by its Behaviour: BROWSE only searches, BUY fills a trolley and checks out,
+ * ABANDON fills a trolley and cancels it. Between two steps the customer "thinks" for a random time
+ * (exponentially distributed around thinkMillis), on a virtual thread this costs no platform thread.
+ */
+
+public class SimulatedCustomer implements Runnable {
+
+    public enum Behaviour {
+        BROWSE,
+        BUY,
+        ABANDON
+    }
+
+    private final Behaviour behaviour;
+    private final Random random;
+    private final LoadSimulator.Settings settings;
+    private final List<String> searchWords;
+    private final List<String> productIds;
+    private final StockReservationManager reservationManager;
+    private final BlockingQueue<Integer> placedOrders;
+    private final SimulationStats stats;
+
+    private final String sessionId = UUID.randomUUID().toString();
+    private final FlexibleSearchEngine searchEngine;
+    private final OrganizedTrolley trolley = new OrganizedTrolley();
+
+    public SimulatedCustomer(Behaviour behaviour, long seed, LoadSimulator.Settings settings, DatabaseRW databaseRW,
+                             List<String> searchWords, List<String> productIds,
+                             StockReservationManager reservationManager, BlockingQueue<Integer> placedOrders,
+                             SimulationStats stats) {
+        this.behaviour = behaviour;
+        this.random = new Random(seed);
+        this.settings = settings;
+        this.searchWords = searchWords;
+        this.productIds = productIds;
+        this.reservationManager = reservationManager;
+        this.placedOrders = placedOrders;
+        this.stats = stats;
+        this.searchEngine = new FlexibleSearchEngine(databaseRW);
+    }
+
+    @Override
+    public void run() {
+        long visitStart = System.nanoTime();
+        try {
+            visit();
+            stats.record(SimulationStats.Operation.CUSTOMER_VISIT, visitStart);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // the run was stopped
+        } catch (RuntimeException e) {
+            stats.recordError(SimulationStats.Operation.CUSTOMER_VISIT);
+            EventLog.warn("Simulated customer failed: {}", e);
+        }
+    }
+
+    private void visit() throws InterruptedException {
+        int wantedItems = behaviour == Behaviour.BROWSE ? 0 : 1 + random.nextInt(settings.maxTrolleyItems);
+        int searches = Math.max(settings.searchesPerVisit, wantedItems);
+        for (int i = 0; i < searches; i++) {
+            think();
+            List<Product> results = search();
+            if (results == null) {
+                continue; // the search failed, counted as an error
+            }
+            if (results.isEmpty()) {
+                stats.count(SimulationStats.Outcome.NOTHING_FOUND);
+                continue;
+            }
+            if (wantedItems > 0) {
+                think();
+                addToTrolley(results.get(random.nextInt(results.size())));
+                wantedItems--;
+            }
+        }
+
+        if (behaviour == Behaviour.BROWSE || trolley.isEmpty()) {
+            stats.count(SimulationStats.Outcome.BROWSED);
+        } else if (behaviour == Behaviour.ABANDON) {
+            think();
+            cancel();
+        } else {
+            think();
+            checkOut();
+        }
+    }
+
+    // Searches by product ID for settings.idSearchPercent of the searches, by a word of a description otherwise
+    private List<Product> search() {
+        FlexibleSearchEngine.SearchCriteria.Builder builder = new FlexibleSearchEngine.SearchCriteria.Builder();
+        if (random.nextInt(100) < settings.idSearchPercent) {
+            builder.productId(productIds.get(random.nextInt(productIds.size())));
+            builder.searchType(FlexibleSearchEngine.SearchType.EXACT_ID);
+        } else {
+            builder.productName(searchWords.get(random.nextInt(searchWords.size())));
+            builder.searchType(FlexibleSearchEngine.SearchType.PARTIAL_NAME);
+        }
+        long start = System.nanoTime();
+        try {
+            List<Product> results = searchEngine.search(builder.build());
+            stats.record(SimulationStats.Operation.SEARCH, start);
+            return results;
+        } catch (SQLException e) {
+            stats.recordError(SimulationStats.Operation.SEARCH);
+            return null;
+        }
+    }
+
+    // As CustomerModel.addToTrolley: the units are reserved first, the product is only added if that succeeds.
+    // The reservation is for the quantity added, so it always covers what is in the trolley
+    private void addToTrolley(Product product) {
+        int quantity = 1 + random.nextInt(settings.maxQuantity);
+        long start = System.nanoTime();
+        try {
+            StockReservationManager.ReservationResult result =
+                    reservationManager.reserve(sessionId, product.getProductId(), quantity);
+            stats.record(SimulationStats.Operation.ADD_TO_TROLLEY, start);
+            if (result.reserved()) {
+                product.setOrderedQuantity(quantity);
+                trolley.addProduct(product);
+            } else {
+                stats.count(SimulationStats.Outcome.RESERVATION_REFUSED);
+            }
+        } catch (SQLException e) {
+            stats.recordError(SimulationStats.Operation.ADD_TO_TROLLEY);
+        }
+    }
+
+    private void cancel() {
+        long start = System.nanoTime();
+        trolley.clear();
+        reservationManager.releaseAll(sessionId);
+        stats.record(SimulationStats.Operation.CANCEL, start);
+        stats.count(SimulationStats.Outcome.ABANDONED);
+    }
+
+    // As CustomerModel.checkOut: buy the reserved trolley, then place the order if nothing was short
+    private void checkOut() {
+        ArrayList<Product> trolleyItems = new ArrayList<>(trolley.getOrganizedTrolley());
+        long start = System.nanoTime();
+        ArrayList<Product> insufficientProducts;
+        try {
+            insufficientProducts = reservationManager.purchaseReserved(sessionId, trolleyItems);
+            stats.record(SimulationStats.Operation.CHECKOUT, start);
+        } catch (SQLException e) {
+            stats.recordError(SimulationStats.Operation.CHECKOUT);
+            reservationManager.releaseAll(sessionId);
+            return;
+        }
+        if (!insufficientProducts.isEmpty()) {
+            stats.count(SimulationStats.Outcome.CHECKOUT_SHORT);
+            reservationManager.releaseAll(sessionId); // the customer gives up rather than adjusting the trolley
+            return;
+        }
+
+        start = System.nanoTime();
+        try {
+            Order order = OrderHub.getOrderHub().newOrder(trolleyItems);
+            stats.record(SimulationStats.Operation.NEW_ORDER, start);
+            stats.count(SimulationStats.Outcome.ORDERED);
+            trolley.clear();
+            placedOrders.add(order.getOrderId());
+        } catch (IOException | SQLException e) {
+            stats.recordError(SimulationStats.Operation.NEW_ORDER);
+        }
+    }
+
+    private void think() throws InterruptedException {
+        if (settings.thinkMillis > 0) {
+            // exponentially distributed around thinkMillis
+            long millis = (long) (-settings.thinkMillis * Math.log(1 - random.nextDouble()));
+            Thread.sleep(millis);
+        }
+    }
+}
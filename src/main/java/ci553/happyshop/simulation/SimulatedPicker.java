@@ -0,0 +1,78 @@
+package ci553.happyshop.simulation;
+
+import ci553.happyshop.orderManagement.OrderHub;
+import ci553.happyshop.orderManagement.OrderState;
+import ci553.happyshop.utility.EventLog;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * The SimulatedPicker class is one picker of a LoadSimulator run, doing what PickerModel does for a real picker:
+ * it takes the next placed order, moves it to Progressing with OrderHub.changeOrderStateMoveFile, spends
+ * pickMillis preparing it, then moves it to Collected.
+ *
+ * Orders are handed out through a shared queue that the simulated customers fill, so no two pickers
+ * ever take the same order (the job PickerModel's locked order set does for the windows).
+ * A picker stops once customersDone says no more orders will come and the queue is empty.
+ */
+
+public class SimulatedPicker implements Runnable {
+
+    private final BlockingQueue<Integer> placedOrders;
+    private final long pickMillis;
+    private final BooleanSupplier customersDone;
+    private final SimulationStats stats;
+
+    public SimulatedPicker(BlockingQueue<Integer> placedOrders, long pickMillis, BooleanSupplier customersDone,
+                           SimulationStats stats) {
+        this.placedOrders = placedOrders;
+        this.pickMillis = pickMillis;
+        this.customersDone = customersDone;
+        this.stats = stats;
+    }
+
+    @Override
+    public void run() {
+        OrderHub orderHub = OrderHub.getOrderHub();
+        try {
+            while (true) {
+                Integer orderId = placedOrders.poll(50, TimeUnit.MILLISECONDS);
+                if (orderId == null) {
+                    if (customersDone.getAsBoolean() && placedOrders.isEmpty()) {
+                        return;
+                    }
+                    continue;
+                }
+                if (!changeState(orderHub, orderId, OrderState.Progressing, SimulationStats.Operation.PICK)) {
+                    continue;
+                }
+                stats.count(SimulationStats.Outcome.ORDER_PICKED);
+                if (pickMillis > 0) {
+                    Thread.sleep(pickMillis); // preparing the order
+                }
+                if (changeState(orderHub, orderId, OrderState.Collected, SimulationStats.Operation.COLLECT)) {
+                    stats.count(SimulationStats.Outcome.ORDER_COLLECTED);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // the run was stopped
+        }
+    }
+
+    private boolean changeState(OrderHub orderHub, int orderId, OrderState newState,
+                                SimulationStats.Operation operation) {
+        long start = System.nanoTime();
+        try {
+            orderHub.changeOrderStateMoveFile(orderId, newState);
+            stats.record(operation, start);
+            return true;
+        } catch (IOException e) {
+            stats.recordError(operation);
+            EventLog.warn("Simulated picker could not move order {} to {}: {}", orderId, newState, e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package ci553.happyshop.simulation;
+
+import ci553.happyshop.utility.LatencyHistogram;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The SimulationStats class collects what the simulated customers and pickers did during a LoadSimulator run:
+ * a LatencyHistogram (in microseconds) and an error count per operation, and a counter per outcome.
+ * Every method is safe to call from many threads at once.
+ *
+ * Example Usage:
+ *     long start = System.nanoTime();
+ *     searchEngine.search(criteria);
+ *     stats.record(SimulationStats.Operation.SEARCH, start);
+ */
+
+public class SimulationStats {
+
+    // the calls that are timed, in the order they are reported
+    public enum Operation {
+        SEARCH,
+        ADD_TO_TROLLEY,  // reserving one unit, as CustomerModel.addToTrolley does
+        CHECKOUT,        // StockReservationManager.purchaseReserved, ie DatabaseRW.purchaseStocks
+        NEW_ORDER,       // OrderHub.newOrder
+        CANCEL,          // releasing the reservations of an abandoned trolley
+        PICK,            // OrderHub.changeOrderStateMoveFile to Progressing
+        COLLECT,         // OrderHub.changeOrderStateMoveFile to Collected
+        CUSTOMER_VISIT   // a whole customer visit, think time included
+    }
+
+    // what became of a customer or a trolley item
+    public enum Outcome {
+        BROWSED,              // left after searching
+        ORDERED,              // checked out and placed an order
+        ABANDONED,            // filled a trolley, then cancelled it
+        CHECKOUT_SHORT,       // checkout refused, some product was short of stock
+        NOTHING_FOUND,        // a search with no result
+        RESERVATION_REFUSED,  // no unreserved stock left for the product
+        ORDER_PICKED,
+        ORDER_COLLECTED
+    }
+
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+    private final Map<Outcome, LongAdder> outcomes = new EnumMap<>(Outcome.class);
+
+    public SimulationStats() {
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            errors.put(operation, new LongAdder());
+        }
+        for (Outcome outcome : Outcome.values()) {
+            outcomes.put(outcome, new LongAdder());
+        }
+    }
+
+    /**
+     * Records one successful call of the operation that started at startNanos (a System.nanoTime() value).
+     */
+    public void record(Operation operation, long startNanos) {
+        latencies.get(operation).record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    public void recordError(Operation operation) {
+        errors.get(operation).increment();
+    }
+
+    public void count(Outcome outcome) {
+        outcomes.get(outcome).increment();
+    }
+
+    public long getCount(Operation operation) {
+        return latencies.get(operation).getCount();
+    }
+
+    public long getCount(Outcome outcome) {
+        return outcomes.get(outcome).sum();
+    }
+
+    /**
+     * Formats the report printed at the end of a run: per operation the number of calls, errors, throughput
+     * over the whole run and latency percentiles in milliseconds, then the outcome counts.
+     */
+    public String report(long elapsedNanos) {
+        double seconds = Math.max(elapsedNanos, 1) / 1e9;
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-15s %8s %7s %9s %9s %9s %9s %9s %9s%n",
+                "operation", "calls", "errors", "ops/s", "mean ms", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram histogram = latencies.get(operation);
+            long failed = errors.get(operation).sum();
+            if (histogram.getCount() == 0 && failed == 0) {
+                continue;
+            }
+            sb.append(String.format("%-15s %8d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                    operation, histogram.getCount(), failed, histogram.getCount() / seconds,
+                    histogram.getMean() / 1000.0, histogram.valueAtPercentile(50) / 1000.0,
+                    histogram.valueAtPercentile(90) / 1000.0, histogram.valueAtPercentile(99) / 1000.0,
+                    histogram.getMax() / 1000.0));
+        }
+        sb.append(System.lineSeparator());
+        for (Outcome outcome : Outcome.values()) {
+            sb.append(String.format("%-20s %8d%n", outcome, outcomes.get(outcome).sum()));
+        }
+        return sb.toString();
+    }
+}
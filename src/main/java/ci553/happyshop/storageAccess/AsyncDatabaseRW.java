@@ -0,0 +1,169 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+import javafx.application.Platform;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * The AsyncDatabaseRW class runs DatabaseRW calls off the JavaFX application thread,
+ * so that no window freezes while Derby is working.
+ *
+ * How it works:
+ * - Every method of DatabaseRW has an asynchronous twin that returns a CompletableFuture straight away.
+ *   The call itself runs on a shared executor that starts one virtual thread per task,
+ *   so a slow query (or a wait for a pooled connection) never holds up other callers.
+ * - submit(call) runs any other blocking work the same way, eg a FlexibleSearchEngine search.
+ * - submitLatest(key, call) is for searches the user can supersede by searching again:
+ *   starting a new call under the same key cancels the previous one, whose result is then never delivered.
+ * - onFxThread(future, onResult, onError) hands the outcome back to the JavaFX application thread
+ *   with Platform.runLater, which is where the models update their views. Cancelled calls are ignored.
+ *
+ * Example Usage:
+ *     AsyncDatabaseRW asyncDb = new AsyncDatabaseRW(databaseRW);
+ *     AsyncDatabaseRW.onFxThread(asyncDb.submitLatest("search", () -> databaseRW.searchProduct(keyword)),
+ *             products -> view.updateObservableProductList(products),
+ *             error -> EventLog.warn("Search failed: {}", error.getMessage()));
+ *
+ * SQLExceptions are passed to onError unwrapped (not as a CompletionException).
+ */
+
+public class AsyncDatabaseRW {
+
+    /**
+     * A blocking database call, allowed to throw checked exceptions such as SQLException or IOException.
+     */
+    @FunctionalInterface
+    public interface DbCall<T> {
+        T call() throws Exception;
+    }
+
+    // one virtual thread per call, shared by every AsyncDatabaseRW
+    private static final ExecutorService executor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("happyshop-db-", 0).factory());
+
+    private final DatabaseRW databaseRW;
+    private final ConcurrentHashMap<String, CompletableFuture<?>> latestCalls = new ConcurrentHashMap<>();
+
+    public AsyncDatabaseRW(DatabaseRW databaseRW) {
+        this.databaseRW = databaseRW;
+    }
+
+    public DatabaseRW getDatabaseRW() {
+        return databaseRW;
+    }
+
+    // the asynchronous twins of the DatabaseRW methods
+    public CompletableFuture<ArrayList<Product>> searchProduct(String keyword) {
+        return submit(() -> databaseRW.searchProduct(keyword));
+    }
+
+    public CompletableFuture<Product> searchByProductId(String productId) {
+        return submit(() -> databaseRW.searchByProductId(productId));
+    }
+
+    public CompletableFuture<ArrayList<Product>> searchProducts(ProductQuery query) {
+        return submit(() -> databaseRW.searchProducts(query));
+    }
+
+    public CompletableFuture<ArrayList<Product>> purchaseStocks(ArrayList<Product> proList) {
+        return submit(() -> databaseRW.purchaseStocks(proList));
+    }
+
+    public CompletableFuture<Void> updateProduct(String id, String des, double price, String imageName, int stock) {
+        return submit(() -> {
+            databaseRW.updateProduct(id, des, price, imageName, stock);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> deleteProduct(String id) {
+        return submit(() -> {
+            databaseRW.deleteProduct(id);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> insertNewProduct(String id, String des, double price, String image, int stock) {
+        return submit(() -> {
+            databaseRW.insertNewProduct(id, des, price, image, stock);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Boolean> isProIdAvailable(String productId) {
+        return submit(() -> databaseRW.isProIdAvailable(productId));
+    }
+
+    /**
+     * Runs a blocking call on a virtual thread.
+     * Cancelling the returned future interrupts the call if it is still running.
+     */
+    public <T> CompletableFuture<T> submit(DbCall<T> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> task = executor.submit(() -> {
+            try {
+                result.complete(call.call());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        result.whenComplete((value, error) -> {
+            if (error instanceof CancellationException) {
+                task.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Runs a blocking call on a virtual thread and cancels the call previously started under the same key,
+     * eg a search the user has already replaced with a new one.
+     */
+    public <T> CompletableFuture<T> submitLatest(String key, DbCall<T> call) {
+        CompletableFuture<T> result = submit(call);
+        CompletableFuture<?> superseded = latestCalls.put(key, result);
+        if (superseded != null) {
+            superseded.cancel(true);
+        }
+        result.whenComplete((value, error) -> latestCalls.remove(key, result));
+        return result;
+    }
+
+    /**
+     * Delivers the outcome of a future on the JavaFX application thread.
+     * A cancelled (superseded) future delivers nothing.
+     */
+    public static <T> void onFxThread(CompletableFuture<T> future, Consumer<? super T> onResult,
+                                      Consumer<Throwable> onError) {
+        future.whenComplete((value, error) -> {
+            if (error == null) {
+                Platform.runLater(() -> onResult.accept(value));
+                return;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (!(cause instanceof CancellationException)) {
+                Platform.runLater(() -> onError.accept(cause));
+            }
+        });
+    }
+
+    /**
+     * Turns a failure delivered to onError back into a readable message for the user.
+     */
+    public static String describe(Throwable error) {
+        if (error instanceof SQLException) {
+            return "Database error: " + error.getMessage();
+        }
+        return error.getClass().getSimpleName() + ": " + error.getMessage();
+    }
+}
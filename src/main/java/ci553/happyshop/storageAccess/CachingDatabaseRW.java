@@ -0,0 +1,236 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * The CachingDatabaseRW class is a decorator around another DatabaseRW (normally DerbyRW).
+ * It keeps an in-memory read-through cache of products by product ID, so that repeated
+ * searchByProductId/searchProduct calls from the customer and warehouse clients do not hit the database.
+ *
+ * How it works:
+ * - Reads: a product found in the cache is returned straight away (a hit). Otherwise the call is passed
+ *   to the wrapped DatabaseRW and the products it returns are added to the cache (a miss).
+ * - Writes: updateProduct, deleteProduct, insertNewProduct and purchaseStocks are passed to the wrapped
+ *   DatabaseRW first, then the cache entries of every product they touched are invalidated,
+ *   so the next read fetches the new values from the database.
+ * - Size: the cache holds at most maxSize products; when it grows beyond that, entries are evicted.
+ *   A search returning more than maxSize / 2 products does not fill the cache, so it cannot flush it.
+ *
+ * Coherence:
+ * DatabaseRWFactory hands the same CachingDatabaseRW to all clients, so a write made by the warehouse
+ * invalidates the entry that a customer client would otherwise read.
+ * A read that races with a write never leaves a stale entry behind: every write bumps a generation counter,
+ * and a read only keeps the entry it added if no write happened while it was loading.
+ *
+ * Product objects are mutable (orderedQuantity), so the cache only ever hands out copies.
+ */
+
+public class CachingDatabaseRW implements DatabaseRW {
+    private final DatabaseRW delegate;
+    private final int maxSize;
+    private final ConcurrentHashMap<String, Product> cache = new ConcurrentHashMap<>();
+    private final AtomicLong writeGeneration = new AtomicLong(); // incremented by every write
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public CachingDatabaseRW(DatabaseRW delegate, int maxSize) {
+        this.delegate = delegate;
+        this.maxSize = maxSize;
+    }
+
+    public ArrayList<Product> searchProduct(String keyword) throws SQLException {
+        Product cached = cache.get(keyword);
+        if (cached != null) {
+            hits.increment();
+            ArrayList<Product> productList = new ArrayList<>();
+            productList.add(copyOf(cached));
+            return productList;
+        }
+        misses.increment();
+        long generation = writeGeneration.get();
+        ArrayList<Product> productList = delegate.searchProduct(keyword);
+        cacheSearchResult(productList, generation);
+        return productList;
+    }
+
+    // Filtered queries always go to the database, the rows they return are fresh so they refresh the cache.
+    public ArrayList<Product> searchProducts(ProductQuery query) throws SQLException {
+        long generation = writeGeneration.get();
+        ArrayList<Product> productList = delegate.searchProducts(query);
+        cacheSearchResult(productList, generation);
+        return productList;
+    }
+
+    // A result of more than half the cache is not cached: it would only evict the products read by ID
+    // (and evicting one entry per product makes a search matching the whole catalogue take seconds)
+    private void cacheSearchResult(List<Product> productList, long generation) {
+        if (productList.size() > maxSize / 2) {
+            return;
+        }
+        for (Product product : productList) {
+            cacheIfUnchanged(product, generation);
+        }
+    }
+
+    public Product searchByProductId(String productId) throws SQLException {
+        Product cached = cache.get(productId);
+        if (cached != null) {
+            hits.increment();
+            return copyOf(cached);
+        }
+        misses.increment();
+        long generation = writeGeneration.get();
+        Product product = delegate.searchByProductId(productId);
+        if (product != null) {
+            cacheIfUnchanged(product, generation);
+        }
+        return product;
+    }
+
+    public ArrayList<Product> purchaseStocks(ArrayList<Product> proList) throws SQLException {
+        try {
+            return delegate.purchaseStocks(proList);
+        } finally {
+            // even when nothing was bought, the shortage means our cached stock may be out of date
+            writeGeneration.incrementAndGet();
+            for (Product product : proList) {
+                cache.remove(product.getProductId());
+            }
+        }
+    }
+
+    public void updateProduct(String id, String des, double price, String imageName, int stock) throws SQLException {
+        try {
+            delegate.updateProduct(id, des, price, imageName, stock);
+        } finally {
+            invalidate(id);
+        }
+    }
+
+    public void deleteProduct(String id) throws SQLException {
+        try {
+            delegate.deleteProduct(id);
+        } finally {
+            invalidate(id);
+        }
+    }
+
+    public void insertNewProduct(String id, String des, double price, String image, int stock) throws SQLException {
+        try {
+            delegate.insertNewProduct(id, des, price, image, stock);
+        } finally {
+            invalidate(id);
+        }
+    }
+
+    public boolean isProIdAvailable(String productId) throws SQLException {
+        if (cache.containsKey(productId)) {
+            hits.increment();
+            return false; // a cached product certainly exists
+        }
+        return delegate.isProIdAvailable(productId);
+    }
+
+    public void setHotProduct(String productId, boolean hot) throws SQLException {
+        try {
+            delegate.setHotProduct(productId, hot);
+        } finally {
+            invalidate(productId);
+        }
+    }
+
+    public boolean isHotProduct(String productId) {
+        return delegate.isHotProduct(productId);
+    }
+
+    // Full scans are passed straight through, caching every product of a scan would only evict the hot ones
+    public Stream<Product> scanProducts(int fetchSize) throws SQLException {
+        return delegate.scanProducts(fetchSize);
+    }
+
+    /**
+     * Fills the cache with products known to match the database (eg from a CatalogueSnapshot at start-up),
+     * up to maxSize of them, so the first reads are hits. Returns the number of products cached.
+     */
+    public int preload(Collection<Product> products) {
+        long generation = writeGeneration.get();
+        int loaded = 0;
+        for (Product product : products) {
+            if (cache.size() >= maxSize) {
+                break; // the rest would only evict what was just loaded
+            }
+            cacheIfUnchanged(product, generation);
+            loaded++;
+        }
+        return loaded;
+    }
+
+    private void invalidate(String productId) {
+        writeGeneration.incrementAndGet();
+        cache.remove(productId);
+    }
+
+    /**
+     * Adds a product loaded from the database to the cache, unless a write happened since the
+     * load started (the loaded value might then be stale).
+     * The entry is put first and the generation checked afterwards, so that a write running
+     * at the same time either sees and removes the entry, or is seen here and the entry is removed.
+     */
+    private void cacheIfUnchanged(Product product, long generation) {
+        if (maxSize <= 0 || writeGeneration.get() != generation) {
+            return;
+        }
+        Product entry = copyOf(product);
+        cache.put(product.getProductId(), entry);
+        if (writeGeneration.get() != generation) {
+            cache.remove(product.getProductId(), entry);
+            return;
+        }
+        evictIfFull();
+    }
+
+    // Removes entries until the cache is back within maxSize.
+    // ConcurrentHashMap iterates in hash order, so this evicts effectively arbitrary entries.
+    private void evictIfFull() {
+        if (cache.size() <= maxSize) {
+            return;
+        }
+        Iterator<String> it = cache.keySet().iterator();
+        while (cache.size() > maxSize && it.hasNext()) {
+            it.next();
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    // Makes a copy of a product, so callers cannot change the cached object (eg its orderedQuantity).
+    private static Product copyOf(Product product) {
+        return new Product(product.getProductId(), product.getProductDescription(),
+                product.getProductImageName(), product.getUnitPrice(), product.getStockQuantity());
+    }
+
+    // a set of getter methods for cache metrics
+    public int getSize() { return cache.size(); }
+    public int getMaxSize() { return maxSize; }
+    public long getHitCount() { return hits.sum(); }
+    public long getMissCount() { return misses.sum(); }
+    public long getEvictionCount() { return evictions.sum(); }
+
+    @Override
+    public String toString() {
+        return String.format("CachingDatabaseRW[size=%d/%d, hits=%d, misses=%d, evictions=%d]",
+                getSize(), maxSize, getHitCount(), getMissCount(), getEvictionCount());
+    }
+}
@@ -0,0 +1,281 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.utility.EventLog;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The CatalogueSnapshot class keeps a binary copy of the whole ProductTable on disk, so that a new start of the
+ * system can fill the product cache and the name index from one file instead of faulting every product in from
+ * Derby on first use.
+ *
+ * How it works:
+ * - The table CatalogueVersion holds one number, the table version. It is created on first use.
+ * - At start-up, readIfCurrent() reads the snapshot file and returns its products only if the file is intact and was
+ *   written for the current table version. Otherwise it returns null and the caller starts cold from Derby.
+ * - markTableChanging() then increases the table version, because this process may now change products:
+ *   if it stops without writing a new snapshot (eg it crashes), the old file no longer matches and is ignored.
+ * - At shutdown, save() scans the table and writes a new snapshot stamped with the current version.
+ *   The scan is thrown away if a product changed while it ran (changes are counted through ProductChangeNotifier).
+ * Embedded Derby lets only one JVM open happyShopDB, so no other process can change the table in between.
+ * Changes made to the table directly (eg with ij) do not change the version: delete the snapshot file after them.
+ *
+ * File format (big-endian, as written by DataOutputStream):
+ *     int magic "HSCS", int format version, long table version, int product count,
+ *     per product: string productID, string description, string image, double unitPrice, int inStock,
+ *     long CRC32 of everything before it.
+ * A string is a short length followed by that many bytes of UTF-8, or the length -1 for null
+ * (a missing description or image reads back as null, not as "").
+ * The file is written to a temporary file first and then moved into place, so it is never seen half written.
+ * It is read into a heap buffer rather than memory-mapped: a mapping would keep the file open until the buffer is
+ * garbage collected, and on Windows the next save could then not replace it.
+ *
+ * Example Usage:
+ *     CatalogueSnapshot snapshot = new CatalogueSnapshot(connectionPool, StorageLocation.catalogueSnapshotPath);
+ *     List<Product> products = snapshot.readIfCurrent(); // null when stale or missing
+ *     snapshot.markTableChanging();
+ *     ...
+ *     snapshot.save(databaseRW); // at shutdown
+ */
+
+public class CatalogueSnapshot implements ProductChangeListener {
+
+    private static final int MAGIC = 0x48534353; // "HSCS"
+    private static final int FORMAT_VERSION = 2; // 2: null strings are written as length -1
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4;
+    private static final int CHECKSUM_BYTES = 8;
+
+    private static final String CREATE_VERSION_SQL =
+            "CREATE TABLE CatalogueVersion(id INT PRIMARY KEY, version BIGINT NOT NULL)";
+    private static final String SELECT_VERSION_SQL = "SELECT version FROM CatalogueVersion WHERE id = 1";
+    private static final String BUMP_VERSION_SQL = "UPDATE CatalogueVersion SET version = version + 1 WHERE id = 1";
+
+    private final ConnectionPool connectionPool;
+    private final Path snapshotPath;
+    private final AtomicLong changeCount = new AtomicLong(); // product changes notified since start-up
+
+    public CatalogueSnapshot(ConnectionPool connectionPool, Path snapshotPath) {
+        this.connectionPool = connectionPool;
+        this.snapshotPath = snapshotPath;
+    }
+
+    /**
+     * Returns the products of the snapshot file if it matches the current table version,
+     * or null if there is no file or it is stale, damaged or from another format version.
+     * @throws SQLException if the table version cannot be read
+     */
+    public List<Product> readIfCurrent() throws SQLException {
+        long tableVersion = readTableVersion();
+        try {
+            return decode(ByteBuffer.wrap(Files.readAllBytes(snapshotPath)), tableVersion);
+        } catch (NoSuchFileException e) {
+            EventLog.info("No catalogue snapshot at {}, starting cold", snapshotPath);
+            return null;
+        } catch (IOException e) {
+            EventLog.warn("Could not read catalogue snapshot {}: {}", snapshotPath, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Increases the table version, so the snapshot file on disk is stale until save() writes a new one.
+     * Call it once the snapshot has been read, before this process changes any product.
+     * @throws SQLException if the version cannot be updated
+     */
+    public void markTableChanging() throws SQLException {
+        readTableVersion(); // creates the table if needed
+        try (Connection conn = connectionPool.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate(BUMP_VERSION_SQL);
+        }
+    }
+
+    /**
+     * Writes a snapshot of every product scanned from the DatabaseRW, stamped with the current table version.
+     * Nothing is written if a product changed during the scan.
+     * @return true if the snapshot was written
+     */
+    public boolean save(DatabaseRW databaseRW) throws SQLException, IOException {
+        long start = System.nanoTime();
+        long changesBefore = changeCount.get();
+        long tableVersion = readTableVersion();
+        List<Product> products;
+        try (Stream<Product> scan = databaseRW.scanProducts(500)) {
+            products = scan.toList();
+        }
+        if (changeCount.get() != changesBefore) {
+            EventLog.info("Catalogue snapshot skipped, products changed while it was taken");
+            return false;
+        }
+        write(snapshotPath, tableVersion, products);
+        EventLog.info("Catalogue snapshot of {} products written to {} in {} ms",
+                products.size(), snapshotPath, (System.nanoTime() - start) / 1_000_000);
+        return true;
+    }
+
+    /**
+     * Deletes the snapshot file, for when the table version could not be increased and the file
+     * would otherwise still look current after this process changed products.
+     */
+    public void delete() {
+        try {
+            Files.deleteIfExists(snapshotPath);
+        } catch (IOException e) {
+            EventLog.warn("Could not delete catalogue snapshot {}: {}", snapshotPath, e.getMessage());
+        }
+    }
+
+    // Creates CatalogueVersion on first use and returns the table version
+    private long readTableVersion() throws SQLException {
+        try (Connection conn = connectionPool.getConnection();
+             Statement stmt = conn.createStatement()) {
+            try {
+                stmt.executeUpdate(CREATE_VERSION_SQL);
+                // start from the clock, so a recreated table never reuses the version of an old snapshot
+                stmt.executeUpdate("INSERT INTO CatalogueVersion VALUES (1, " + System.currentTimeMillis() + ")");
+            } catch (SQLException e) {
+                if (!"X0Y32".equals(e.getSQLState())) { // X0Y32 = table already exists
+                    throw e;
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery(SELECT_VERSION_SQL)) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    @Override
+    public void productSaved(Product product) {
+        changeCount.incrementAndGet();
+    }
+
+    @Override
+    public void productDeleted(String productId) {
+        changeCount.incrementAndGet();
+    }
+
+    @Override
+    public void stockPurchased(String productId, int quantity) {
+        changeCount.incrementAndGet();
+    }
+
+    /**
+     * Writes the products to the file in the snapshot format, replacing it atomically.
+     */
+    static void write(Path path, long tableVersion, List<Product> products) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tempPath = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+        try {
+            CRC32 crc = new CRC32();
+            try (OutputStream file = Files.newOutputStream(tempPath);
+                 DataOutputStream out = new DataOutputStream(
+                         new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), crc))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(tableVersion);
+                out.writeInt(products.size());
+                for (Product product : products) {
+                    writeString(out, product.getProductId());
+                    writeString(out, product.getProductDescription());
+                    writeString(out, product.getProductImageName());
+                    out.writeDouble(product.getUnitPrice());
+                    out.writeInt(product.getStockQuantity());
+                }
+                out.flush();
+                new DataOutputStream(file).writeLong(crc.getValue()); // the checksum itself is not checksummed
+            }
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    /**
+     * Decodes a snapshot, or returns null if it is damaged, from another format version or stale.
+     */
+    static List<Product> decode(ByteBuffer buffer, long expectedTableVersion) {
+        if (buffer.remaining() < HEADER_BYTES + CHECKSUM_BYTES) {
+            EventLog.warn("Catalogue snapshot is truncated, starting cold");
+            return null;
+        }
+        int bodyLength = buffer.remaining() - CHECKSUM_BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(buffer.position(), bodyLength));
+        if (crc.getValue() != buffer.getLong(buffer.position() + bodyLength)) {
+            EventLog.warn("Catalogue snapshot checksum does not match, starting cold");
+            return null;
+        }
+        ByteBuffer body = buffer.slice(buffer.position(), bodyLength);
+        if (body.getInt() != MAGIC || body.getInt() != FORMAT_VERSION) {
+            EventLog.warn("Catalogue snapshot has an unknown format, starting cold");
+            return null;
+        }
+        long tableVersion = body.getLong();
+        if (tableVersion != expectedTableVersion) {
+            EventLog.info("Catalogue snapshot is stale (version {}, table is at {}), starting cold",
+                    tableVersion, expectedTableVersion);
+            return null;
+        }
+        try {
+            int count = body.getInt();
+            List<Product> products = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String id = readString(body);
+                String description = readString(body);
+                String image = readString(body);
+                double price = body.getDouble();
+                int stock = body.getInt();
+                products.add(new Product(id, description, image, price, stock));
+            }
+            return products;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            EventLog.warn("Catalogue snapshot is damaged ({}), starting cold", e.toString());
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeShort(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length); // columns are at most 100 characters, ie at most 400 bytes
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        short length = buffer.getShort();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0) {
+            throw new IllegalArgumentException("negative string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,260 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.utility.EventLog;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The CheckoutBatcher class applies the stock decrements of many concurrent checkouts in one transaction
+ * (a "group commit"), so that Derby forces its log once per batch instead of once per checkout.
+ *
+ * How it works:
+ * - purchase(trolley) queues the trolley and waits for its result.
+ * - A single batcher thread takes the first queued trolley, then keeps collecting for up to windowMillis
+ *   or until maxBatchSize trolleys are queued, whichever comes first.
+ * - The batch runs in one transaction. Each trolley gets its own savepoint: its products are decremented
+ *   with DerbyRW.decrementStocks (conditional UPDATEs in productID order), and if any product is short,
+ *   the transaction is rolled back to that savepoint. So every trolley is still all-or-nothing on its own,
+ *   and a short trolley does not affect the others in the batch.
+ * - One commit at the end makes every successful trolley durable, then each caller is given its shortage list.
+ * - If the batch itself fails (eg Derby picks it as a deadlock victim), it is rolled back and every trolley
+ *   is retried in its own transaction, so one bad trolley cannot fail the rest.
+ *
+ * Example Usage:
+ *     CheckoutBatcher batcher = new CheckoutBatcher(pool, 5, 32);
+ *     ArrayList<Product> insufficientProducts = batcher.purchase(trolley); // blocks until the batch commits
+ *
+ * Used by DerbyRW in PurchaseMode.BATCHED. A waiting caller is not interrupted (the purchase may already be
+ * committed), so the result of every purchase reaches its caller. If no result comes within
+ * -Dhappyshop.checkout.batchResultTimeoutMillis (default 30000), purchase throws an SQLException instead of
+ * waiting for ever. A batch that fails with an unexpected exception fails its own trolleys, and the batcher
+ * thread carries on with the next batch.
+ */
+
+public class CheckoutBatcher {
+    private static final long RESULT_TIMEOUT_MILLIS =
+            Long.getLong("happyshop.checkout.batchResultTimeoutMillis", 30_000);
+
+    private final ConnectionPool connectionPool;
+    private final long windowMillis;
+    private final int maxBatchSize;
+    private final ProductChangeNotifier changeNotifier = ProductChangeNotifier.getNotifier();
+
+    private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Thread batcherThread;
+    private volatile boolean closed = false;
+
+    // metrics
+    private final LongAdder batchCount = new LongAdder();
+    private final LongAdder trolleyCount = new LongAdder();
+    private final LongAdder retriedBatchCount = new LongAdder();
+
+    // one queued trolley and the future its caller waits on
+    private record Request(ArrayList<Product> proList, CompletableFuture<ArrayList<Product>> result) {}
+
+    public CheckoutBatcher(ConnectionPool connectionPool, long windowMillis, int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Invalid batch size: " + maxBatchSize);
+        }
+        this.connectionPool = connectionPool;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+        batcherThread = new Thread(this::runBatches, "CheckoutBatcher");
+        batcherThread.setDaemon(true); // must not keep the JVM alive
+        batcherThread.start();
+    }
+
+    /**
+     * Buys the trolley as part of the next batch.
+     * @return the products that are short of stock (the caller's own objects), empty if the purchase succeeded
+     * @throws SQLException if the trolley could not be applied at all
+     */
+    public ArrayList<Product> purchase(ArrayList<Product> proList) throws SQLException {
+        if (closed) {
+            throw new SQLException("Checkout batcher is closed");
+        }
+        Request request = new Request(proList, new CompletableFuture<>());
+        queue.add(request);
+        if (closed) {
+            failQueued(); // closed while we were queueing, nobody else will answer the request
+        }
+        return awaitResult(request);
+    }
+
+    // Waits up to RESULT_TIMEOUT_MILLIS for the batcher thread to answer, without giving up when interrupted
+    private static ArrayList<Product> awaitResult(Request request) throws SQLException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RESULT_TIMEOUT_MILLIS);
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return request.result().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true; // keep waiting, the purchase may already be committed
+                } catch (TimeoutException e) {
+                    throw new SQLException("Timed out after " + RESULT_TIMEOUT_MILLIS
+                            + "ms waiting for the checkout batch, the purchase may or may not have been applied");
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof SQLException sqlException) {
+                        throw sqlException;
+                    }
+                    throw new SQLException("Checkout batch failed: " + e.getCause(), e.getCause());
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void runBatches() {
+        while (!closed) {
+            List<Request> batch = new ArrayList<>();
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMillis);
+                while (batch.size() < maxBatchSize) {
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= maxBatchSize || remaining <= 0) {
+                        break;
+                    }
+                    Request next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+            } catch (InterruptedException e) {
+                closed = true; // close() interrupts us, the batch collected so far is still applied
+            }
+            if (!batch.isEmpty()) {
+                try {
+                    applyBatch(batch);
+                } catch (RuntimeException e) {
+                    // fail the trolleys of this batch that have no result yet, but keep the batcher thread alive
+                    EventLog.error("Checkout batch of {} failed: {}", batch.size(), e);
+                    for (Request request : batch) {
+                        request.result().completeExceptionally(
+                                new SQLException("Checkout batch failed: " + e.getMessage(), e));
+                    }
+                }
+            }
+        }
+        failQueued();
+    }
+
+    // Applies a batch in one transaction, falling back to one transaction per trolley if that fails.
+    private void applyBatch(List<Request> batch) {
+        batchCount.increment();
+        trolleyCount.add(batch.size());
+        List<ArrayList<Product>> results = new ArrayList<>();
+        try (Connection conn = connectionPool.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                for (Request request : batch) {
+                    Savepoint savepoint = conn.setSavepoint();
+                    ArrayList<Product> insufficientProducts = DerbyRW.decrementStocks(conn, request.proList());
+                    if (insufficientProducts.isEmpty()) {
+                        conn.releaseSavepoint(savepoint);
+                    } else {
+                        conn.rollback(savepoint); // undo this trolley only
+                    }
+                    results.add(insufficientProducts);
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            EventLog.warn("Checkout batch of {} failed, retrying one by one: {}", batch.size(), e.getMessage());
+            retriedBatchCount.increment();
+            for (Request request : batch) {
+                applySingle(request);
+            }
+            return;
+        }
+        if (EventLog.isDebugEnabled()) {
+            EventLog.debug("Checkout batch committed: {} trolleys", batch.size());
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            complete(batch.get(i), results.get(i));
+        }
+    }
+
+    private void applySingle(Request request) {
+        try (Connection conn = connectionPool.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                ArrayList<Product> insufficientProducts = DerbyRW.decrementStocks(conn, request.proList());
+                if (insufficientProducts.isEmpty()) {
+                    conn.commit();
+                } else {
+                    conn.rollback();
+                }
+                complete(request, insufficientProducts);
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            request.result().completeExceptionally(e);
+        }
+    }
+
+    // The purchase is committed by now, so a failing listener is only logged and the caller still gets its result
+    private void complete(Request request, ArrayList<Product> insufficientProducts) {
+        try {
+            if (insufficientProducts.isEmpty()) {
+                changeNotifier.notifyStockPurchased(request.proList());
+            }
+        } catch (RuntimeException e) {
+            EventLog.error("Stock purchase listener failed: {}", e);
+        } finally {
+            request.result().complete(insufficientProducts);
+        }
+    }
+
+    private void failQueued() {
+        Request request;
+        while ((request = queue.poll()) != null) {
+            request.result().completeExceptionally(new SQLException("Checkout batcher is closed"));
+        }
+    }
+
+    /**
+     * Stops the batcher thread once the current batch is applied. Trolleys still queued fail with an SQLException.
+     */
+    public void close() {
+        closed = true;
+        batcherThread.interrupt();
+    }
+
+    // a set of getter methods for batching metrics
+    public long getBatchCount() { return batchCount.sum(); }
+    public long getTrolleyCount() { return trolleyCount.sum(); }
+    public long getRetriedBatchCount() { return retriedBatchCount.sum(); }
+
+    public double getAverageBatchSize() {
+        long batches = batchCount.sum();
+        return batches == 0 ? 0 : (double) trolleyCount.sum() / batches;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CheckoutBatcher[window=%dms, maxBatch=%d, batches=%d, trolleys=%d, avgBatch=%.1f, retried=%d]",
+                windowMillis, maxBatchSize, getBatchCount(), getTrolleyCount(), getAverageBatchSize(), getRetriedBatchCount());
+    }
+}
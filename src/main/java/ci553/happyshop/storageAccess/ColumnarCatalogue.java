@@ -0,0 +1,531 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.utility.EventLog;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * The ColumnarCatalogue class is an in-memory copy of ProductTable stored column by column:
+ * parallel arrays of interned product IDs, descriptions and image names, a double[] of prices and an int[] of stock.
+ * It answers ProductQuery searches (price range, in stock, product IDs) for catalogues of hundreds of thousands
+ * of products without a table scan or a Product object per row.
+ *
+ * How a search works:
+ * - A price range is found in the price index (the live rows sorted by price then product ID) with a binary search
+ *   for each end, the rows in between are the matches.
+ * - Every other filter is a tight loop over one primitive column that clears the bit of each row that fails it,
+ *   or a BitSet of rows that is ANDed in (product IDs).
+ * - Description filters run last: the rows left are checked directly if there are few of them,
+ *   otherwise the ProductNameIndex's matching IDs become a row BitSet.
+ * - A search sorted by price walks the price index in order and checks the other filters row by row,
+ *   so "the N cheapest products in stock" stops after N matches instead of scanning the catalogue.
+ * - Product objects are only made for the rows returned.
+ *
+ * Maintenance:
+ * Like ProductNameIndex, the catalogue registers with ProductChangeNotifier. An edited product is overwritten in its
+ * row, an inserted product gets a new row, a deleted product's row is marked dead, and a purchase reduces the stock
+ * column. An edit, insert or delete also moves the row within the price index (a binary search and an array
+ * copy). When more than half of the rows are dead, the catalogue is compacted (back into product ID order).
+ * While the rows are in product ID order, a search sorted by ID does not sort at all.
+ *
+ * Building:
+ * Stock is kept by applying purchases to it, so a purchase must be counted exactly once: either it is already in
+ * the scanned rows, or it is applied afterwards. ColumnarSearchRW therefore reports every write it passes on
+ * (beginWrite/endWrite), and build(DatabaseRW) only keeps its scan if no write ran while it was taken.
+ */
+
+public class ColumnarCatalogue implements ProductChangeListener {
+
+    // up to this many rows, a description filter is checked row by row rather than through the name index
+    private static final int DIRECT_DESCRIPTION_CHECK_LIMIT = 2048;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private boolean built = false;
+
+    private final AtomicLong writeGeneration = new AtomicLong(); // moved on at the start and end of every write
+    private final AtomicInteger writesInFlight = new AtomicInteger();
+
+    // one entry per row, row numbers are positions in these arrays
+    private final Columns columns = new Columns();
+    private final BitSet liveRows = new BitSet();
+    private final HashMap<String, Integer> rowOfId = new HashMap<>();
+    private final PriceIndex priceIndex = new PriceIndex();
+
+    // the columns, grown together
+    private static class Columns {
+        String[] ids = new String[1024];
+        String[] descriptions = new String[1024];
+        String[] images = new String[1024];
+        double[] prices = new double[1024];
+        int[] stock = new int[1024];
+        int rowCount = 0;
+        boolean idOrdered = true; // rows are in product ID order, as a build from a scan leaves them
+
+        int add(Product product) {
+            if (rowCount == ids.length) {
+                int capacity = rowCount * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                descriptions = Arrays.copyOf(descriptions, capacity);
+                images = Arrays.copyOf(images, capacity);
+                prices = Arrays.copyOf(prices, capacity);
+                stock = Arrays.copyOf(stock, capacity);
+            }
+            int row = rowCount++;
+            set(row, product);
+            if (row > 0 && ids[row].compareTo(ids[row - 1]) <= 0) {
+                idOrdered = false;
+            }
+            return row;
+        }
+
+        void set(int row, Product product) {
+            ids[row] = product.getProductId().intern();
+            descriptions[row] = intern(product.getProductDescription());
+            images[row] = intern(product.getProductImageName());
+            prices[row] = product.getUnitPrice();
+            stock[row] = product.getStockQuantity();
+        }
+
+        void clear() {
+            Arrays.fill(ids, 0, rowCount, null);
+            Arrays.fill(descriptions, 0, rowCount, null);
+            Arrays.fill(images, 0, rowCount, null);
+            rowCount = 0;
+            idOrdered = true;
+        }
+
+        private static String intern(String text) {
+            return text == null ? null : text.intern();
+        }
+    }
+
+    // The live rows sorted by price then product ID (the order of ORDER BY unitPrice, productID),
+    // so a price range is a binary search for each end and the rows in between
+    private static class PriceIndex {
+        int[] rows = new int[0];
+        int size = 0;
+
+        void rebuild(Columns columns, BitSet liveRows) {
+            rows = liveRows.stream().boxed()
+                    .sorted(Comparator.<Integer>comparingDouble(row -> columns.prices[row])
+                            .thenComparing(row -> columns.ids[row]))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+            size = rows.length;
+        }
+
+        void insert(Columns columns, int row) {
+            int position = positionOf(columns, columns.prices[row], columns.ids[row]);
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, Math.max(16, size * 2));
+            }
+            System.arraycopy(rows, position, rows, position + 1, size - position);
+            rows[position] = row;
+            size++;
+        }
+
+        // Call before the row's price changes, its position is found from the current price
+        void remove(Columns columns, int row) {
+            int position = positionOf(columns, columns.prices[row], columns.ids[row]);
+            if (position < size && rows[position] == row) {
+                System.arraycopy(rows, position + 1, rows, position, size - position - 1);
+                size--;
+            }
+        }
+
+        // The first position whose (price, ID) is not below the given one
+        int positionOf(Columns columns, double price, String id) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                int row = rows[mid];
+                int cmp = Double.compare(columns.prices[row], price);
+                if (cmp < 0 || (cmp == 0 && columns.ids[row].compareTo(id) < 0)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // The first position whose price is >= price (atLeast) or > price (!atLeast)
+        int firstPriceFrom(Columns columns, double price, boolean atLeast) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                double midPrice = columns.prices[rows[mid]];
+                if (atLeast ? midPrice < price : midPrice <= price) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    public boolean isBuilt() {
+        lock.readLock().lock();
+        try {
+            return built;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * (Re)builds the catalogue from products known to match the table, eg a CatalogueSnapshot at start-up
+     * before any client runs.
+     */
+    public void build(Collection<Product> allProducts) {
+        lock.writeLock().lock();
+        try {
+            fill(allProducts.stream());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Builds the catalogue from a full scan of the source, unless a write ran during the scan.
+     * @return true if the catalogue is built, false if the scan was thrown away
+     */
+    public boolean build(DatabaseRW source) throws SQLException {
+        long generation = writeGeneration.get();
+        if (writesInFlight.get() > 0) {
+            return false;
+        }
+        List<Product> products;
+        try (Stream<Product> scan = source.scanProducts(500)) {
+            products = scan.toList();
+        }
+        lock.writeLock().lock();
+        try {
+            // a write that committed during the scan may or may not be in it, its notification would be ambiguous
+            if (writeGeneration.get() != generation || writesInFlight.get() > 0) {
+                return false;
+            }
+            fill(products.stream());
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void fill(Stream<Product> allProducts) {
+        columns.clear();
+        liveRows.clear();
+        rowOfId.clear();
+        allProducts.forEach(this::addRow);
+        priceIndex.rebuild(columns, liveRows);
+        built = true;
+        EventLog.info("Columnar catalogue built: {} products", columns.rowCount);
+    }
+
+    // Called by ColumnarSearchRW around every write it passes on
+    void beginWrite() {
+        writesInFlight.incrementAndGet();
+        writeGeneration.incrementAndGet();
+    }
+
+    void endWrite() {
+        writeGeneration.incrementAndGet();
+        writesInFlight.decrementAndGet();
+    }
+
+    /**
+     * Returns the products matching the query, sorted and limited as it asks,
+     * or null if the catalogue cannot answer it
+     * (not built yet, or a description filter on many rows while the name index is not built).
+     */
+    public ArrayList<Product> search(ProductQuery query, ProductNameIndex nameIndex) {
+        lock.readLock().lock();
+        try {
+            if (!built) {
+                return null;
+            }
+            BitSet idRows = null;
+            if (query.getProductId() != null) {
+                idRows = rowsOfIdIgnoringCase(query.getProductId());
+            }
+            if (query.getProductIdIn() != null) {
+                BitSet inRows = rowsOf(query.getProductIdIn());
+                if (idRows == null) {
+                    idRows = inRows;
+                } else {
+                    idRows.and(inRows);
+                }
+            }
+            // the price range as positions in the price index
+            int from = query.getMinPrice() == null ? 0 : priceIndex.firstPriceFrom(columns, query.getMinPrice(), true);
+            int to = query.getMaxPrice() == null ? priceIndex.size
+                    : priceIndex.firstPriceFrom(columns, query.getMaxPrice(), false);
+            if (query.getOrderBy() != ProductQuery.OrderBy.PRODUCT_ID) {
+                return searchInPriceOrder(query, idRows, from, to);
+            }
+
+            BitSet rows;
+            if (query.getMinPrice() != null || query.getMaxPrice() != null) {
+                rows = new BitSet(columns.rowCount);
+                for (int i = from; i < to; i++) {
+                    rows.set(priceIndex.rows[i]);
+                }
+            } else {
+                rows = (BitSet) liveRows.clone();
+            }
+            if (idRows != null) {
+                rows.and(idRows);
+            }
+            if (query.isInStockOnly()) {
+                retainRowsInStock(rows);
+            }
+            // descriptions last: the few rows left are checked directly, many rows are matched with the name index
+            for (List<String> texts : query.getDescriptionContains()) {
+                if (rows.cardinality() <= DIRECT_DESCRIPTION_CHECK_LIMIT) {
+                    retainRowsContaining(rows, lowerCase(texts));
+                } else if (nameIndex != null && nameIndex.isBuilt()) {
+                    BitSet matches = new BitSet();
+                    for (String text : texts) {
+                        matches.or(rowsOf(nameIndex.findIdsContaining(text)));
+                    }
+                    rows.and(matches);
+                } else {
+                    return null;
+                }
+            }
+            return toProducts(rows, query.getLimit());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Answers a query sorted by price by walking the price index between from and to in that order,
+     * checking the other filters row by row, so a limited query (eg the 10 cheapest products in stock)
+     * stops as soon as it has enough rows.
+     */
+    private ArrayList<Product> searchInPriceOrder(ProductQuery query, BitSet idRows, int from, int to) {
+        int size = query.getLimit() == null ? Integer.MAX_VALUE : Math.max(query.getLimit(), 0);
+        List<List<String>> lowerTexts = query.getDescriptionContains().stream()
+                .map(ColumnarCatalogue::lowerCase)
+                .toList();
+        ArrayList<Product> products = new ArrayList<>();
+        if (query.getOrderBy() == ProductQuery.OrderBy.PRICE_ASC) {
+            for (int i = from; i < to && products.size() < size; i++) {
+                addIfMatching(products, priceIndex.rows[i], idRows, query.isInStockOnly(), lowerTexts);
+            }
+            return products;
+        }
+        // PRICE_DESC: the highest price first, but products with the same price still in product ID order
+        int end = to;
+        while (end > from && products.size() < size) {
+            double price = columns.prices[priceIndex.rows[end - 1]];
+            int start = Math.max(from, priceIndex.firstPriceFrom(columns, price, true));
+            for (int i = start; i < end && products.size() < size; i++) {
+                addIfMatching(products, priceIndex.rows[i], idRows, query.isInStockOnly(), lowerTexts);
+            }
+            end = start;
+        }
+        return products;
+    }
+
+    private void addIfMatching(List<Product> products, int row, BitSet idRows, boolean inStockOnly,
+                               List<List<String>> lowerTexts) {
+        if ((idRows != null && !idRows.get(row)) || (inStockOnly && columns.stock[row] <= 0)) {
+            return;
+        }
+        for (List<String> anyOf : lowerTexts) {
+            if (!containsAny(columns.descriptions[row], anyOf)) {
+                return;
+            }
+        }
+        products.add(productAt(row));
+    }
+
+    // Keeps the rows whose description contains one of the lower-cased texts
+    private void retainRowsContaining(BitSet rows, List<String> lowerTexts) {
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            if (!containsAny(columns.descriptions[row], lowerTexts)) {
+                rows.clear(row);
+            }
+        }
+    }
+
+    private static boolean containsAny(String description, List<String> lowerTexts) {
+        if (description == null) {
+            return false;
+        }
+        String lowerDescription = description.toLowerCase();
+        for (String lowerText : lowerTexts) {
+            if (lowerDescription.contains(lowerText)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> lowerCase(List<String> texts) {
+        return texts.stream().map(String::toLowerCase).toList();
+    }
+
+    // Keeps the rows with stock greater than 0
+    private void retainRowsInStock(BitSet rows) {
+        int[] stock = columns.stock;
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+            if (stock[row] <= 0) {
+                rows.clear(row);
+            }
+        }
+    }
+
+    private BitSet rowsOf(Collection<String> productIds) {
+        BitSet matches = new BitSet();
+        for (String id : productIds) {
+            Integer row = rowOfId.get(id.trim());
+            if (row != null) {
+                matches.set(row);
+            }
+        }
+        return matches;
+    }
+
+    // The row of the product ID compared ignoring case, as UPPER(productID) = UPPER(?) in ProductQuery.toSql()
+    private BitSet rowsOfIdIgnoringCase(String productId) {
+        BitSet matches = rowsOf(List.of(productId));
+        if (matches.isEmpty()) { // not typed in the stored case, look through the IDs
+            String id = productId.trim();
+            for (Map.Entry<String, Integer> entry : rowOfId.entrySet()) {
+                if (entry.getKey().equalsIgnoreCase(id)) {
+                    matches.set(entry.getValue());
+                }
+            }
+        }
+        return matches;
+    }
+
+    // Makes Products for the first limit of the matching rows, in product ID order
+    private ArrayList<Product> toProducts(BitSet rows, Integer limit) {
+        int size = limit == null ? Integer.MAX_VALUE : Math.max(limit, 0);
+        ArrayList<Product> products = new ArrayList<>();
+        if (columns.idOrdered) {
+            // already in order, so only the rows returned are visited
+            for (int row = rows.nextSetBit(0); row >= 0 && products.size() < size; row = rows.nextSetBit(row + 1)) {
+                products.add(productAt(row));
+            }
+            return products;
+        }
+        Integer[] matches = rows.stream().boxed().toArray(Integer[]::new);
+        Arrays.sort(matches, Comparator.comparing(row -> columns.ids[row]));
+        for (int i = 0; i < matches.length && products.size() < size; i++) {
+            products.add(productAt(matches[i]));
+        }
+        return products;
+    }
+
+    private Product productAt(int row) {
+        return new Product(columns.ids[row], columns.descriptions[row], columns.images[row],
+                columns.prices[row], columns.stock[row]);
+    }
+
+    @Override
+    public void productSaved(Product product) {
+        lock.writeLock().lock();
+        try {
+            if (built) {
+                Integer row = rowOfId.get(product.getProductId().trim());
+                if (row != null) {
+                    priceIndex.remove(columns, row); // the price may have changed
+                    columns.set(row, product); // an edit keeps its row, so the rows stay in product ID order
+                    priceIndex.insert(columns, row);
+                } else {
+                    priceIndex.insert(columns, addRow(product));
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void productDeleted(String productId) {
+        lock.writeLock().lock();
+        try {
+            if (built) {
+                removeRow(productId);
+                compactIfMostlyDead();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void stockPurchased(String productId, int quantity) {
+        lock.writeLock().lock();
+        try {
+            Integer row = built ? rowOfId.get(productId.trim()) : null;
+            if (row != null) {
+                columns.stock[row] = Math.max(0, columns.stock[row] - quantity);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int addRow(Product product) {
+        int row = columns.add(product);
+        liveRows.set(row);
+        rowOfId.put(product.getProductId().trim(), row);
+        return row;
+    }
+
+    private void removeRow(String productId) {
+        Integer row = rowOfId.remove(productId.trim());
+        if (row != null) {
+            liveRows.clear(row);
+            priceIndex.remove(columns, row);
+        }
+    }
+
+    // Rebuilds the columns from the live rows, in product ID order, once more than half of the rows are dead
+    private void compactIfMostlyDead() {
+        if (columns.rowCount < 1024 || liveRows.cardinality() * 2 >= columns.rowCount) {
+            return;
+        }
+        List<Product> live = new ArrayList<>(liveRows.cardinality());
+        for (int row = liveRows.nextSetBit(0); row >= 0; row = liveRows.nextSetBit(row + 1)) {
+            live.add(productAt(row));
+        }
+        live.sort(Comparator.comparing(Product::getProductId));
+        columns.clear();
+        liveRows.clear();
+        rowOfId.clear();
+        live.forEach(this::addRow);
+        priceIndex.rebuild(columns, liveRows);
+    }
+
+    public int getSize() {
+        lock.readLock().lock();
+        try {
+            return liveRows.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
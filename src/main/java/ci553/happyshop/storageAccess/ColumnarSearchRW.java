@@ -0,0 +1,133 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.utility.EventLog;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * The ColumnarSearchRW class is a decorator around another DatabaseRW (normally HotStockRW or JournaledRW)
+ * that answers searchProducts from the shared ColumnarCatalogue instead of a SQL query,
+ * so price range, in-stock and combined searches run as loops over primitive arrays.
+ *
+ * How it works:
+ * - The first searchProducts call builds the catalogue from a full scan of the wrapped DatabaseRW (so it sees
+ *   hot stock and journal counters), unless DatabaseRWFactory already built it from the catalogue snapshot.
+ * - A query the catalogue cannot answer (its description filter needs the name index, which is not built yet)
+ *   and every other call are passed to the wrapped DatabaseRW.
+ * - Writes are passed on between catalogue.beginWrite() and endWrite(), so that a build never keeps a scan
+ *   that a write may have overlapped. If a build is thrown away, the search is passed on and the build is tried
+ *   again after RETRY_BUILD_MILLIS.
+ */
+
+public class ColumnarSearchRW implements DatabaseRW {
+    private static final long RETRY_BUILD_MILLIS = 1000;
+
+    private final DatabaseRW delegate;
+    private final ColumnarCatalogue catalogue; // shared by all instances
+    private final ProductNameIndex nameIndex; // shared, null when name search uses LIKE only
+    private volatile long nextBuildNanos = System.nanoTime();
+
+    public ColumnarSearchRW(DatabaseRW delegate, ColumnarCatalogue catalogue, ProductNameIndex nameIndex) {
+        this.delegate = delegate;
+        this.catalogue = catalogue;
+        this.nameIndex = nameIndex;
+    }
+
+    public ArrayList<Product> searchProducts(ProductQuery query) throws SQLException {
+        if (ensureCatalogueBuilt()) {
+            ArrayList<Product> products = catalogue.search(query, nameIndex);
+            if (products != null) {
+                if (EventLog.isDebugEnabled()) {
+                    EventLog.debug("{} products found in the columnar catalogue for query: {}", products.size(), query);
+                }
+                return products;
+            }
+        }
+        return delegate.searchProducts(query);
+    }
+
+    // Builds the shared catalogue the first time any instance needs it, returns false if it is not built
+    private boolean ensureCatalogueBuilt() throws SQLException {
+        if (catalogue.isBuilt()) {
+            return true;
+        }
+        synchronized (catalogue) {
+            if (catalogue.isBuilt()) {
+                return true;
+            }
+            if (System.nanoTime() - nextBuildNanos < 0) {
+                return false; // the last attempt was thrown away a moment ago
+            }
+            if (catalogue.build(delegate)) {
+                return true;
+            }
+            EventLog.info("Columnar catalogue build overlapped a write, retrying in {} ms", RETRY_BUILD_MILLIS);
+            nextBuildNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RETRY_BUILD_MILLIS);
+            return false;
+        }
+    }
+
+    public ArrayList<Product> searchProduct(String keyword) throws SQLException {
+        return delegate.searchProduct(keyword);
+    }
+
+    public Product searchByProductId(String productId) throws SQLException {
+        return delegate.searchByProductId(productId);
+    }
+
+    public ArrayList<Product> purchaseStocks(ArrayList<Product> proList) throws SQLException {
+        catalogue.beginWrite();
+        try {
+            return delegate.purchaseStocks(proList);
+        } finally {
+            catalogue.endWrite();
+        }
+    }
+
+    public void updateProduct(String id, String des, double price, String imageName, int stock) throws SQLException {
+        catalogue.beginWrite();
+        try {
+            delegate.updateProduct(id, des, price, imageName, stock);
+        } finally {
+            catalogue.endWrite();
+        }
+    }
+
+    public void deleteProduct(String id) throws SQLException {
+        catalogue.beginWrite();
+        try {
+            delegate.deleteProduct(id);
+        } finally {
+            catalogue.endWrite();
+        }
+    }
+
+    public void insertNewProduct(String id, String des, double price, String image, int stock) throws SQLException {
+        catalogue.beginWrite();
+        try {
+            delegate.insertNewProduct(id, des, price, image, stock);
+        } finally {
+            catalogue.endWrite();
+        }
+    }
+
+    public boolean isProIdAvailable(String productId) throws SQLException {
+        return delegate.isProIdAvailable(productId);
+    }
+
+    public void setHotProduct(String productId, boolean hot) throws SQLException {
+        delegate.setHotProduct(productId, hot); // the stock stays the same, it only moves into counters
+    }
+
+    public boolean isHotProduct(String productId) {
+        return delegate.isHotProduct(productId);
+    }
+
+    public Stream<Product> scanProducts(int fetchSize) throws SQLException {
+        return delegate.scanProducts(fetchSize);
+    }
+}
@@ -0,0 +1,336 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.utility.EventLog;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The ConnectionPool class keeps a bounded set of open JDBC connections that are reused
+ * by every DerbyRW instance, instead of opening and closing a connection on each method call.
+ *
+ * How it works:
+ * - getConnection() borrows an idle connection (or opens a new one while fewer than maxSize exist).
+ *   If all maxSize connections are in use, the caller waits up to borrowTimeoutMillis.
+ * - The returned Connection is a proxy: calling close() hands the real connection back to the pool
+ *   instead of closing it, so existing try-with-resources code keeps working unchanged.
+ * - Idle connections are validated (Connection.isValid) before being handed out again.
+ * - Each connection has its own StatementCache: prepareStatement(sql) on a pooled connection
+ *   reuses an already prepared statement for the same SQL text (LRU, at most statementCacheSize per connection).
+ * - A background evictor closes connections that have been idle for longer than idleTimeoutMillis,
+ *   but always keeps at least minSize connections open.
+ * - Every new connection, whether opened for a borrower or by the evictor, first reserves one of the maxSize
+ *   slots counted by openConnections, so there are never more than maxSize connections open.
+ *
+ * Metrics (borrow count, connections created, wait time, timeouts, statement cache hits/misses) can be read through the getters
+ * and are summarised by toString().
+ *
+ * Example Usage:
+ *     try (Connection conn = pool.getConnection()) {
+ *         ... // use the connection as normal, close() returns it to the pool
+ *     }
+ */
+
+public class ConnectionPool {
+    private final String dbURL;
+    private final int minSize;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final int statementCacheSize; // 0 disables statement caching
+
+    private final LinkedBlockingDeque<IdleConnection> idleConnections = new LinkedBlockingDeque<>();
+    private final Semaphore permits; // one permit per connection that may be lent out
+    private final AtomicInteger openConnections = new AtomicInteger(); // idle + borrowed
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed = false;
+
+    // pool-wait metrics
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder createdCount = new LongAdder();
+    private final LongAdder invalidCount = new LongAdder();
+    private final LongAdder evictedCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    // statement cache metrics, shared by the caches of all connections
+    private final LongAdder statementHits = new LongAdder();
+    private final LongAdder statementMisses = new LongAdder();
+    private final LongAdder statementEvictions = new LongAdder();
+
+    // a real connection together with its statement cache
+    private record PooledEntry(Connection connection, StatementCache statementCache) {}
+
+    // an idle connection and the time it was returned to the pool
+    private record IdleConnection(PooledEntry entry, long idleSinceNanos) {}
+
+    public ConnectionPool(String dbURL, int minSize, int maxSize, long borrowTimeoutMillis, long idleTimeoutMillis,
+                          int statementCacheSize) {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+        }
+        this.dbURL = dbURL;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true); // fair, so waiting callers are served in order
+
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ConnectionPool-evictor");
+            t.setDaemon(true); // must not keep the JVM alive
+            return t;
+        });
+        long period = Math.max(1000, idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdleConnections, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection from the pool. The caller must close() it to return it.
+     * @throws SQLException if no connection becomes available within the borrow timeout,
+     *                      or a new connection cannot be opened
+     */
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeoutCount.increment();
+                throw new SQLException("Timed out after " + borrowTimeoutMillis + "ms waiting for a database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        long waited = System.nanoTime() - start;
+        totalWaitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        borrowCount.increment();
+
+        try {
+            PooledEntry entry;
+            while ((entry = takeValidIdleConnection()) == null && (entry = openConnection(maxSize)) == null) {
+                // every slot is taken, but as we hold a permit one of those connections is on its way
+                // back to the idle deque (or being closed), so try again
+                Thread.yield();
+            }
+            return wrap(entry);
+        } catch (SQLException | RuntimeException e) {
+            permits.release(); // nothing was lent out, give the permit back
+            throw e;
+        }
+    }
+
+    // Takes idle connections (most recently used first) until a valid one is found.
+    private PooledEntry takeValidIdleConnection() {
+        IdleConnection idle;
+        while ((idle = idleConnections.pollFirst()) != null) {
+            if (isValid(idle.entry().connection())) {
+                return idle.entry();
+            }
+            invalidCount.increment();
+            closeQuietly(idle.entry());
+        }
+        return null;
+    }
+
+    // Opens a connection if fewer than limit are open, reserving its slot before opening it.
+    // Returns null if limit connections are already open.
+    private PooledEntry openConnection(int limit) throws SQLException {
+        int open;
+        do {
+            open = openConnections.get();
+            if (open >= limit) {
+                return null;
+            }
+        } while (!openConnections.compareAndSet(open, open + 1));
+        Connection conn;
+        try {
+            conn = DriverManager.getConnection(dbURL);
+        } catch (SQLException | RuntimeException e) {
+            openConnections.decrementAndGet(); // give the slot back
+            throw e;
+        }
+        createdCount.increment();
+        StatementCache cache = statementCacheSize > 0
+                ? new StatementCache(conn, statementCacheSize, statementHits, statementMisses, statementEvictions)
+                : null;
+        return new PooledEntry(conn, cache);
+    }
+
+    private boolean isValid(Connection conn) {
+        try {
+            return !conn.isClosed() && conn.isValid(2);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    // Called by the proxy when the borrower closes its connection.
+    private void release(PooledEntry entry) {
+        Connection real = entry.connection();
+        try {
+            if (!closed && !real.isClosed()) {
+                // reset any state left by the borrower, eg purchaseStocks turns auto-commit off
+                if (!real.getAutoCommit()) {
+                    real.rollback();
+                    real.setAutoCommit(true);
+                }
+                idleConnections.offerFirst(new IdleConnection(entry, System.nanoTime()));
+            } else {
+                closeQuietly(entry);
+            }
+        } catch (SQLException e) {
+            closeQuietly(entry); // a connection we cannot reset is not worth keeping
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Closes connections that have been idle longer than idleTimeoutMillis while more than minSize are open,
+     * then tops the pool back up to minSize.
+     */
+    private void evictIdleConnections() {
+        long now = System.nanoTime();
+        long idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        // the least recently used connections sit at the tail of the deque
+        IdleConnection oldest;
+        while (openConnections.get() > minSize && (oldest = idleConnections.peekLast()) != null
+                && now - oldest.idleSinceNanos() > idleTimeoutNanos) {
+            if (idleConnections.removeLastOccurrence(oldest)) {
+                evictedCount.increment();
+                closeQuietly(oldest.entry());
+            }
+        }
+        try {
+            PooledEntry entry;
+            while (!closed && (entry = openConnection(minSize)) != null) {
+                idleConnections.offerLast(new IdleConnection(entry, System.nanoTime()));
+            }
+        } catch (SQLException e) {
+            EventLog.warn("Connection pool could not open a connection: {}", e.getMessage());
+        }
+    }
+
+    private void closeQuietly(PooledEntry entry) {
+        openConnections.decrementAndGet();
+        try {
+            if (entry.statementCache() != null) {
+                entry.statementCache().closeAll();
+            }
+            entry.connection().close();
+        } catch (SQLException ignored) {
+            // nothing useful to do, the connection is being discarded anyway
+        }
+    }
+
+    /**
+     * Closes all idle connections and stops the evictor.
+     * Connections still borrowed are closed when they are returned.
+     */
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        IdleConnection idle;
+        while ((idle = idleConnections.pollFirst()) != null) {
+            closeQuietly(idle.entry());
+        }
+    }
+
+    // Wraps the real connection so that close() returns it to this pool,
+    // and prepareStatement(sql) goes through the connection's statement cache.
+    private Connection wrap(PooledEntry entry) {
+        Connection real = entry.connection();
+        InvocationHandler handler = new InvocationHandler() {
+            private boolean returned = false;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close":
+                        if (!returned) {
+                            returned = true;
+                            release(entry);
+                        }
+                        return null;
+                    case "isClosed":
+                        return returned || real.isClosed();
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return "Pooled" + real;
+                }
+                if (returned) {
+                    throw new SQLException("Connection has already been returned to the pool");
+                }
+                if (method.getName().equals("prepareStatement")) {
+                    SqlTrace.record((String) args[0]); // for the slow-query log of InstrumentedDatabaseRW
+                }
+                if (method.getName().equals("prepareStatement") && args.length == 1 && entry.statementCache() != null) {
+                    return entry.statementCache().prepare((String) args[0]);
+                }
+                try {
+                    return method.invoke(real, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        };
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, handler);
+    }
+
+    // a set of getter methods for pool metrics
+    public int getMinSize() { return minSize; }
+    public int getMaxSize() { return maxSize; }
+    public int getOpenConnections() { return openConnections.get(); }
+    public int getIdleConnections() { return idleConnections.size(); }
+    public int getBorrowedConnections() { return maxSize - permits.availablePermits(); }
+    public int getWaitingThreads() { return permits.getQueueLength(); }
+    public long getBorrowCount() { return borrowCount.sum(); }
+    public long getCreatedCount() { return createdCount.sum(); }
+    public long getInvalidCount() { return invalidCount.sum(); }
+    public long getEvictedCount() { return evictedCount.sum(); }
+    public long getTimeoutCount() { return timeoutCount.sum(); }
+    public long getMaxWaitMicros() { return maxWaitNanos.get() / 1000; }
+    public long getStatementCacheHits() { return statementHits.sum(); }
+    public long getStatementCacheMisses() { return statementMisses.sum(); }
+    public long getStatementCacheEvictions() { return statementEvictions.sum(); }
+
+    public double getAverageWaitMicros() {
+        long borrows = borrowCount.sum();
+        return borrows == 0 ? 0 : totalWaitNanos.sum() / 1000.0 / borrows;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ConnectionPool[open=%d, idle=%d, borrowed=%d, waiting=%d, borrows=%d, created=%d, " +
+                        "invalid=%d, evicted=%d, timeouts=%d, avgWait=%.1fus, maxWait=%dus, " +
+                        "stmtHits=%d, stmtMisses=%d, stmtEvictions=%d]",
+                getOpenConnections(), getIdleConnections(), getBorrowedConnections(), getWaitingThreads(),
+                getBorrowCount(), getCreatedCount(), getInvalidCount(), getEvictedCount(), getTimeoutCount(),
+                getAverageWaitMicros(), getMaxWaitMicros(),
+                getStatementCacheHits(), getStatementCacheMisses(), getStatementCacheEvictions());
+    }
+
+}
@@ -4,6 +4,7 @@ import ci553.happyshop.catalogue.Product;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.stream.Stream;
 
 /**
  * The DatabaseRW interface defines the contract for interacting with the product database.
@@ -37,6 +38,15 @@ public interface DatabaseRW {
      */
     ArrayList<Product> searchProduct(String keyword) throws SQLException;
 
+    /**
+     * Searches for products matching a ProductQuery (filters, sort order and limit).
+     * The whole query is executed by the database, so only the matching rows are returned.
+     *
+     * @param query the query to run
+     * @return the matching products, in the query's sort order
+     */
+    ArrayList<Product> searchProducts(ProductQuery query) throws SQLException;
+
     /**
      * Searches for a product by its unique product ID.
      * @param productId the product ID
@@ -86,6 +96,34 @@ public interface DatabaseRW {
      * @return true if the ID is available, false if it already exists in the database
      */
     boolean isProIdAvailable(String productId) throws SQLException;
-}
 
+    /**
+     * Streams every product in the catalogue, ordered by product ID, without loading them all into memory.
+     * Products are fetched from the database in chunks of fetchSize rows as the stream is consumed.
+     *
+     * The stream holds a database connection until it is exhausted or closed,
+     * so always use it in a try-with-resources block:
+     *     try (Stream<Product> products = databaseRW.scanProducts(500)) { ... }
+     *
+     * @param fetchSize the number of rows to fetch per round trip
+     * @return a lazily populated stream of all products
+     */
+    Stream<Product> scanProducts(int fetchSize) throws SQLException;
 
+    /**
+     * Marks a product as hot (or not) for a flash sale, see HotStockRW.
+     * Implementations without striped stock counters do not support it.
+     *
+     * @param productId the product ID
+     * @param hot       true to split its stock across striped counters, false to go back to the database row
+     * @throws SQLException if the product does not exist or hot products are not supported
+     */
+    default void setHotProduct(String productId, boolean hot) throws SQLException {
+        throw new SQLException("Hot products are not supported by " + getClass().getSimpleName());
+    }
+
+    // Returns true if the product is currently hot
+    default boolean isHotProduct(String productId) {
+        return false;
+    }
+}
@@ -1,5 +1,15 @@
 package ci553.happyshop.storageAccess;
 
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.systemSetup.SetDatabase;
+import ci553.happyshop.utility.EventLog;
+import ci553.happyshop.utility.StorageLocation;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 /**
  * The DatabaseRWFactory class centralizes database configuration and object creation.
  * It acts as a factory pattern to provide flexible instantiation of the DatabaseRW interface.
@@ -18,17 +28,308 @@ package ci553.happyshop.storageAccess;
  *     DatabaseRW db = DatabaseRWFactory.createDatabaseRW();
  *
  * This hides the actual implementation (e.g., DerbyRW) from the rest of the system.
+ *
+ * Connection pooling:
+ * The factory also owns one ConnectionPool that is shared by every DerbyRW it creates,
+ * so all clients reuse the same bounded set of database connections.
+ * The pool is created on first use and can be tuned with system properties, eg:
+ *     -Dhappyshop.pool.minSize=2 -Dhappyshop.pool.maxSize=10
+ * Each pooled connection also caches its prepared statements (happyshop.pool.statementCacheSize, 0 to disable).
+ *
+ * Product cache:
+ * createDatabaseRW() returns one shared CachingDatabaseRW wrapped around DerbyRW, so that the customer
+ * and warehouse clients read from (and invalidate) the same in-memory product cache.
+ * Its size is set with -Dhappyshop.cache.maxSize (0 turns the cache off and a plain DerbyRW is returned).
+ *
+ * Checkout:
+ * -Dhappyshop.checkout.mode chooses how DerbyRW.purchaseStocks reduces stock (see DerbyRW.PurchaseMode),
+ * the default is CONDITIONAL (lock-free conditional UPDATEs), SET_CHECKED adds a single up-front stock read,
+ * LOCKED restores the original behaviour.
+ * BATCHED groups concurrent checkouts into one transaction through a shared CheckoutBatcher, tuned with
+ * -Dhappyshop.checkout.batchWindowMillis (how long to collect a batch) and -Dhappyshop.checkout.batchMaxSize.
+ *
+ * Name search:
+ * DerbyRW answers name searches from one shared ProductNameIndex (a trigram index kept up to date through
+ * ProductChangeNotifier) instead of a LIKE '%...%' table scan. -Dhappyshop.search.nameIndex=false turns it off.
+ *
+ * Columnar search:
+ * Filtered searches (searchProducts, ie price range, in-stock and combined searches) are answered by one shared
+ * ColumnarCatalogue, a copy of ProductTable in primitive arrays kept up to date through ProductChangeNotifier,
+ * reached through a ColumnarSearchRW on top of the storage. -Dhappyshop.search.columnar=false turns it off.
+ *
+ * Search suggestions:
+ * getSearchSuggestionIndex() returns the one SearchSuggestionIndex (a prefix trie over the description words and
+ * product IDs, ranked by units sold) that FlexibleSearchEngine completes customer input from.
+ * FUZZY searches use the same trie to find the description words within a few typos of what was typed.
+ *
+ * Stock reservations:
+ * getStockReservationManager() returns the one StockReservationManager shared by all customer clients.
+ * Reservations expire after -Dhappyshop.reservation.ttlSeconds (default 900).
+ *
+ * Hot products:
+ * DerbyRW is wrapped in one shared HotStockRW, so the warehouse can mark a product as hot for a flash sale.
+ * Its stock is then split over -Dhappyshop.hotStock.stripes counters (default 8) in memory and written back
+ * to the table every -Dhappyshop.hotStock.flushMillis (default 500). -Dhappyshop.hotStock.enabled=false turns it off.
+ *
+ * Instrumentation:
+ * Every DatabaseRW call is timed by one shared InstrumentedDatabaseRW (latency histograms per method, visible in
+ * jconsole as ci553.happyshop:type=DatabaseRWStats). Calls slower than -Dhappyshop.instrument.slowQueryMillis
+ * (default 200) go to logs/slowQueries.log. -Dhappyshop.instrument.enabled=false turns it off.
+ *
+ * Journal storage:
+ * -Dhappyshop.storage=journal wraps DerbyRW in one shared JournaledRW: purchases reduce in-memory counters and are
+ * made durable in orders/stockJournal.log (one fsync per -Dhappyshop.journal.fsyncWindowMillis, default 2),
+ * then written to ProductTable every -Dhappyshop.journal.flushMillis (default 1000). The cache still sits on top.
+ *
+ * Catalogue snapshot:
+ * When the product cache is on, the shared CachingDatabaseRW starts warm: the CatalogueSnapshot file
+ * (happyShopDB.snapshot) written at the last clean shutdown fills the cache, the name index, the columnar
+ * catalogue and the search suggestions, unless ProductTable changed since (the table version in CatalogueVersion
+ * no longer matches), in which case products come from Derby as before. A new snapshot is written at shutdown.
+ * -Dhappyshop.snapshot.enabled=false turns it off.
+ *
+ * In-memory storage:
+ * -Dhappyshop.storage=memory makes createDatabaseRW() return one shared InMemoryRW seeded with
+ * SetDatabase.initialProducts() instead of DerbyRW, so benchmarks can run without booting happyShopDB.
+ * Nothing is written to disk in this mode, and the pool and product cache are not used.
  */
 
 public class DatabaseRWFactory {
 
     public static String dbURL = "jdbc:derby:happyShopDB"; //or other database URL in the future (eg MySQLRW or SQLiteRW)
 
+    // Storage behind DatabaseRW: "derby" (default), "journal" for JournaledRW or "memory" for InMemoryRW
+    public static String storage = System.getProperty("happyshop.storage", "derby");
+
+    // Connection pool settings, read once when the pool is created
+    public static int poolMinSize = Integer.getInteger("happyshop.pool.minSize", 2);
+    public static int poolMaxSize = Integer.getInteger("happyshop.pool.maxSize", 10);
+    public static long poolBorrowTimeoutMillis = Long.getLong("happyshop.pool.borrowTimeoutMillis", 5000);
+    public static long poolIdleTimeoutMillis = Long.getLong("happyshop.pool.idleTimeoutMillis", 60000);
+    public static int statementCacheSize = Integer.getInteger("happyshop.pool.statementCacheSize", 32); // per connection
+
+    // How DerbyRW.purchaseStocks reduces stock
+    public static DerbyRW.PurchaseMode purchaseMode =
+            DerbyRW.PurchaseMode.valueOf(System.getProperty("happyshop.checkout.mode", "CONDITIONAL").toUpperCase());
+
+    // Group commit settings for the BATCHED purchase mode
+    public static long checkoutBatchWindowMillis = Long.getLong("happyshop.checkout.batchWindowMillis", 5);
+    public static int checkoutBatchMaxSize = Integer.getInteger("happyshop.checkout.batchMaxSize", 32);
+
+    // How long a trolley reservation is held after it was last changed
+    public static long reservationTtlSeconds = Long.getLong("happyshop.reservation.ttlSeconds", 900);
+
+    // Product cache size, 0 disables the cache
+    public static int productCacheMaxSize = Integer.getInteger("happyshop.cache.maxSize", 10000);
+
+    // Product name index for name searches, false makes DerbyRW use LIKE queries only
+    public static boolean nameIndexEnabled =
+            Boolean.parseBoolean(System.getProperty("happyshop.search.nameIndex", "true"));
+
+    // Striped stock counters for products the warehouse marks as hot, see HotStockRW
+    public static boolean hotStockEnabled =
+            Boolean.parseBoolean(System.getProperty("happyshop.hotStock.enabled", "true"));
+    public static int hotStockStripes = Integer.getInteger("happyshop.hotStock.stripes", 8);
+    public static long hotStockFlushMillis = Long.getLong("happyshop.hotStock.flushMillis", 500);
+
+    // Stock journal settings for the "journal" storage
+    public static long journalFsyncWindowMillis = Long.getLong("happyshop.journal.fsyncWindowMillis", 2);
+    public static long journalFlushMillis = Long.getLong("happyshop.journal.flushMillis", 1000);
+
+    // Latency statistics and slow-query log for every DatabaseRW call, see InstrumentedDatabaseRW
+    public static boolean instrumentationEnabled =
+            Boolean.parseBoolean(System.getProperty("happyshop.instrument.enabled", "true"));
+    public static long slowQueryThresholdMillis = Long.getLong("happyshop.instrument.slowQueryMillis", 200);
+
+    // Columnar catalogue for filtered searches, false sends them to the database as SQL
+    public static boolean columnarSearchEnabled =
+            Boolean.parseBoolean(System.getProperty("happyshop.search.columnar", "true"));
+
+    // Warm start of the product cache and name index from the catalogue snapshot, see CatalogueSnapshot
+    public static boolean snapshotEnabled =
+            Boolean.parseBoolean(System.getProperty("happyshop.snapshot.enabled", "true"));
+
+    private static ConnectionPool connectionPool; // shared by all DerbyRW instances
+    private static ProductNameIndex productNameIndex; // shared by all DerbyRW instances
+    private static ColumnarCatalogue columnarCatalogue; // shared by all ColumnarSearchRW instances
+    private static SearchSuggestionIndex searchSuggestionIndex; // shared by all customer clients
+    private static CheckoutBatcher checkoutBatcher; // shared by all DerbyRW instances in BATCHED mode
+    private static StockReservationManager stockReservationManager; // shared by all customer clients
+    private static CachingDatabaseRW sharedCachingRW; // shared by all clients
+    private static JournaledRW journaledRW; // shared by all clients when storage is "journal"
+    private static HotStockRW hotStockRW; // shared by all clients, so they all see the same hot products
+    private static InMemoryRW sharedInMemoryRW; // shared by all clients when storage is "memory"
+    private static InstrumentedDatabaseRW instrumentedRW; // shared by all clients, wraps whichever storage is used
+
     /**
      * Creates an instance of DatabaseRW (currently returning DerbyRW, but can be modified to return other implementations).
+     * When the product cache is enabled, all callers get the same caching instance so the cache stays coherent.
+     * With instrumentation on, all callers share one InstrumentedDatabaseRW (registered with JMX) around it.
      */
-    public static DatabaseRW createDatabaseRW() {
-        return new DerbyRW(); // or other database implementations in the future (eg MySQLRW or SQLiteRW)
+    public static synchronized DatabaseRW createDatabaseRW() {
+        if (!instrumentationEnabled) {
+            return createStorageRW();
+        }
+        if (instrumentedRW == null) {
+            instrumentedRW = new InstrumentedDatabaseRW(createStorageRW(), slowQueryThresholdMillis,
+                    StorageLocation.slowQueryLogPath);
+            instrumentedRW.registerMBean();
+        }
+        return instrumentedRW;
+    }
+
+    private static DatabaseRW createStorageRW() {
+        if (storage.equalsIgnoreCase("memory")) {
+            if (sharedInMemoryRW == null) {
+                sharedInMemoryRW = new InMemoryRW(SetDatabase.initialProducts());
+            }
+            return sharedInMemoryRW;
+        }
+        if (productCacheMaxSize <= 0) {
+            return withColumnarSearch(createDerbyRW()); // or other database implementations in the future
+        }
+        if (sharedCachingRW == null) {
+            sharedCachingRW = new CachingDatabaseRW(
+                    withColumnarSearch(createDerbyRW()), productCacheMaxSize);
+            if (snapshotEnabled) {
+                warmStartFromSnapshot(sharedCachingRW);
+            }
+        }
+        return sharedCachingRW;
     }
-}
 
+    // Fills the cache and the in-memory search structures from the catalogue snapshot if it is current,
+    // then marks the table as changing and saves a new snapshot at shutdown
+    private static void warmStartFromSnapshot(CachingDatabaseRW cachingRW) {
+        long start = System.nanoTime();
+        CatalogueSnapshot snapshot = new CatalogueSnapshot(getConnectionPool(), StorageLocation.catalogueSnapshotPath);
+        ProductChangeNotifier.getNotifier().register(snapshot);
+        try {
+            List<Product> products = snapshot.readIfCurrent();
+            if (products != null) {
+                int cached = cachingRW.preload(products);
+                if (columnarSearchEnabled) {
+                    getColumnarCatalogue().build(products);
+                }
+                getSearchSuggestionIndex().build(products.stream());
+                ProductNameIndex nameIndex = getProductNameIndex();
+                if (nameIndex != null) {
+                    nameIndex.ensureBuilt(products::stream);
+                }
+                EventLog.info("Warm start from catalogue snapshot: {} products, {} cached, in {} ms",
+                        products.size(), cached, (System.nanoTime() - start) / 1_000_000);
+            }
+            snapshot.markTableChanging();
+        } catch (SQLException e) {
+            EventLog.warn("Catalogue snapshot not used: {}", e.getMessage());
+            snapshot.delete(); // its version may not have been moved on, it must not be trusted next time
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                snapshot.save(cachingRW); // its scan sees the hot stock and journal counters
+            } catch (SQLException | IOException e) {
+                EventLog.warn("Could not write catalogue snapshot: {}", e.getMessage());
+            }
+        }, "CatalogueSnapshot-save"));
+    }
+
+    private static DatabaseRW withColumnarSearch(DatabaseRW storageRW) {
+        if (!columnarSearchEnabled) {
+            return storageRW;
+        }
+        return new ColumnarSearchRW(storageRW, getColumnarCatalogue(), getProductNameIndex());
+    }
+
+    private static DatabaseRW createDerbyRW() {
+        if (journaledRW != null) {
+            return journaledRW;
+        }
+        if (hotStockRW != null) {
+            return hotStockRW;
+        }
+        DerbyRW derbyRW = new DerbyRW(getConnectionPool(), purchaseMode, getProductNameIndex(), getCheckoutBatcher());
+        if (storage.equalsIgnoreCase("journal")) {
+            try {
+                journaledRW = new JournaledRW(derbyRW, getConnectionPool(), StorageLocation.stockJournalPath,
+                        journalFsyncWindowMillis, journalFlushMillis);
+            } catch (SQLException e) {
+                throw new IllegalStateException("Could not start the stock journal: " + e.getMessage(), e);
+            }
+            return journaledRW; // its counters are in memory already, so products cannot be marked hot
+        }
+        if (!hotStockEnabled) {
+            return derbyRW;
+        }
+        hotStockRW = new HotStockRW(derbyRW, getConnectionPool(), hotStockStripes, hotStockFlushMillis);
+        return hotStockRW;
+    }
+
+    /**
+     * Returns the shared connection pool, creating it on first use.
+     */
+    public static synchronized ConnectionPool getConnectionPool() {
+        if (connectionPool == null) {
+            connectionPool = new ConnectionPool(dbURL, poolMinSize, poolMaxSize,
+                    poolBorrowTimeoutMillis, poolIdleTimeoutMillis, statementCacheSize);
+        }
+        return connectionPool;
+    }
+
+    /**
+     * Returns the shared product name index (registered for product change events), or null when it is disabled.
+     * The index itself is filled by DerbyRW on the first name search.
+     */
+    public static synchronized ProductNameIndex getProductNameIndex() {
+        if (nameIndexEnabled && productNameIndex == null) {
+            productNameIndex = new ProductNameIndex();
+            ProductChangeNotifier.getNotifier().register(productNameIndex);
+        }
+        return productNameIndex;
+    }
+
+    /**
+     * Returns the shared columnar catalogue (registered for product change events), creating it on first use.
+     * It is filled from the catalogue snapshot at start-up, or by ColumnarSearchRW on the first filtered search.
+     */
+    public static synchronized ColumnarCatalogue getColumnarCatalogue() {
+        if (columnarCatalogue == null) {
+            columnarCatalogue = new ColumnarCatalogue();
+            ProductChangeNotifier.getNotifier().register(columnarCatalogue);
+        }
+        return columnarCatalogue;
+    }
+
+    /**
+     * Returns the shared search suggestion index (registered for product change events), creating it on first use.
+     * It is filled from the catalogue snapshot at start-up, or from a scan when the first suggestion is asked for.
+     */
+    public static synchronized SearchSuggestionIndex getSearchSuggestionIndex() {
+        if (searchSuggestionIndex == null) {
+            searchSuggestionIndex = new SearchSuggestionIndex();
+            ProductChangeNotifier.getNotifier().register(searchSuggestionIndex);
+        }
+        return searchSuggestionIndex;
+    }
+
+    /**
+     * Returns the shared checkout batcher in BATCHED purchase mode (creating it on first use), otherwise null.
+     */
+    public static synchronized CheckoutBatcher getCheckoutBatcher() {
+        if (purchaseMode == DerbyRW.PurchaseMode.BATCHED && checkoutBatcher == null) {
+            checkoutBatcher = new CheckoutBatcher(getConnectionPool(), checkoutBatchWindowMillis, checkoutBatchMaxSize);
+        }
+        return checkoutBatcher;
+    }
+
+    /**
+     * Returns the shared stock reservation manager, creating it on first use.
+     */
+    public static synchronized StockReservationManager getStockReservationManager() {
+        if (stockReservationManager == null) {
+            stockReservationManager = new StockReservationManager(createDatabaseRW(),
+                    TimeUnit.SECONDS.toMillis(reservationTtlSeconds), 1000);
+        }
+        return stockReservationManager;
+    }
+}
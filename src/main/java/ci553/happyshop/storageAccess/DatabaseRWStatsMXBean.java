@@ -0,0 +1,23 @@
+package ci553.happyshop.storageAccess;
+
+import java.util.List;
+
+/**
+ * The management interface of InstrumentedDatabaseRW, registered with the platform MBean server as
+ * "ci553.happyshop:type=DatabaseRWStats" so that jconsole or VisualVM can read the latency snapshots.
+ */
+
+public interface DatabaseRWStatsMXBean {
+
+    // One latency snapshot per DatabaseRW method that has been called
+    List<InstrumentedDatabaseRW.MethodLatency> getMethodLatencies();
+
+    long getSlowCallCount();
+
+    long getSlowQueryThresholdMillis();
+
+    void setSlowQueryThresholdMillis(long millis);
+
+    // Clears every histogram and counter
+    void reset();
+}
@@ -1,9 +1,24 @@
 package ci553.happyshop.storageAccess;
 
 import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.utility.EventLog;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -19,9 +34,58 @@ import java.util.concurrent.locks.ReentrantLock;
  */
 
 public class DerbyRW implements DatabaseRW {
-    private static final String dbURL = DatabaseRWFactory.dbURL; // Shared by all instances
+    /**
+     * How purchaseStocks reduces stock:
+     * - LOCKED: the original approach, takes this instance's lock, SELECTs the stock of each product,
+     *   then runs a batch of UPDATEs if every product has enough.
+     * - CONDITIONAL: no JVM lock and no SELECTs. Each product is decremented with a conditional
+     *   UPDATE ... WHERE inStock >= ?, and an update count of 0 means that product is short.
+     *   Derby's row locks are the only synchronisation, so checkouts of different products run in parallel.
+     * - SET_CHECKED: first reads the stock of every trolley product in a single query and returns the
+     *   shortage list from that one read without writing anything. Only if everything is available does it
+     *   run the CONDITIONAL decrements (which still catch stock taken by another checkout in between).
+     * - BATCHED: the CONDITIONAL decrements, but applied by the shared CheckoutBatcher, which groups
+     *   concurrent checkouts into one transaction and one commit (each trolley is still all-or-nothing).
+     */
+    public enum PurchaseMode {
+        LOCKED,
+        CONDITIONAL,
+        SET_CHECKED,
+        BATCHED
+    }
+
+    // Decrements stock only if there is enough, the update count tells whether it happened
+    static final String CONDITIONAL_DECREMENT_SQL =
+            "UPDATE ProductTable SET inStock = inStock - ? WHERE productID = ? AND inStock >= ?";
+
+    // Trolleys up to this many distinct products are read with an IN-list, larger ones through a temporary table
+    static final int IN_LIST_LIMIT = 64;
+    private static final String DECLARE_ID_TABLE_SQL =
+            "DECLARE GLOBAL TEMPORARY TABLE SESSION.CheckoutIds (productID CHAR(4)) ON COMMIT DELETE ROWS NOT LOGGED";
+    private static final String TEMP_TABLE_EXISTS = "X0Y32"; // SQLState: table already exists in the schema
+
+    // Name searches matching more products than this are answered by the LIKE query instead of the index,
+    // a long IN-list of candidates would cost more than the table scan it replaces
+    static final int NAME_INDEX_CANDIDATE_LIMIT = 512;
+
+    private final ConnectionPool connectionPool; // Shared by all instances, owned by DatabaseRWFactory
+    private final PurchaseMode purchaseMode;
+    private final ProductNameIndex nameIndex; // Shared by all instances, null to always use LIKE
+    private final CheckoutBatcher checkoutBatcher; // Shared by all instances, only used in BATCHED mode
+    private final ProductChangeNotifier changeNotifier = ProductChangeNotifier.getNotifier();
     private final Lock lock = new ReentrantLock(); // Each instance has its own lock
 
+    public DerbyRW(ConnectionPool connectionPool, PurchaseMode purchaseMode, ProductNameIndex nameIndex,
+                   CheckoutBatcher checkoutBatcher) {
+        if (purchaseMode == PurchaseMode.BATCHED && checkoutBatcher == null) {
+            throw new IllegalArgumentException("BATCHED purchase mode needs a CheckoutBatcher");
+        }
+        this.connectionPool = connectionPool;
+        this.purchaseMode = purchaseMode;
+        this.nameIndex = nameIndex;
+        this.checkoutBatcher = checkoutBatcher;
+    }
+
     //search product by product Id or name, return a list of products or null
     //search by Id at first, if get null, search by product name
     //currently used by warehouseModel.
@@ -39,7 +103,7 @@ public class DerbyRW implements DatabaseRW {
 
         // If still no products found, print a message
         if (productList.isEmpty()) {
-            System.out.println("Product " + keyword + " not found.");
+            EventLog.debug("Product {} not found.", keyword);
         }
         return productList;
     }
@@ -49,7 +113,7 @@ public class DerbyRW implements DatabaseRW {
         Product product = null;
         String query = "SELECT * FROM ProductTable WHERE productID = ?";
 
-        try (Connection conn = DriverManager.getConnection(dbURL);
+        try (Connection conn = connectionPool.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(query)) {
             // Set the productId parameter
             pstmt.setString(1, proId);
@@ -57,25 +121,48 @@ public class DerbyRW implements DatabaseRW {
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()){
                     product= makeProObjFromDbRecord(rs);
-                    System.out.println("Product " + proId + " found.");
+                    EventLog.debug("Product {} found.", proId);
                 }else{
-                    System.out.println("Product " + proId + " not found.");
+                    EventLog.debug("Product {} not found.", proId);
                 }
 
             }
         } catch (SQLException e) {
-            e.printStackTrace();
+            EventLog.warn("Database query error, search by ID: {} {}", proId, e.getMessage());
         }
         return product;
     }
 
     //helper method
-    //search  by product name, return a List of products or null
-    private ArrayList<Product> searchByProName(String name) {
+    //search by product name using the ProductNameIndex, return a List of products or an empty list
+    //falls back to the LIKE query when there is no index or the name matches too many products
+    private ArrayList<Product> searchByProName(String name) throws SQLException {
+        if (nameIndex == null) {
+            return searchByProNameLike(name);
+        }
+        ensureNameIndexBuilt();
+        List<String> matchingIds = nameIndex.findIdsContaining(name);
+        if (matchingIds.size() > NAME_INDEX_CANDIDATE_LIMIT) {
+            return searchByProNameLike(name);
+        }
+        if (matchingIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return searchProducts(new ProductQuery.Builder().productIdIn(matchingIds).build());
+    }
+
+    // Builds the shared name index from a full scan the first time any instance needs it
+    private void ensureNameIndexBuilt() throws SQLException {
+        nameIndex.ensureBuilt(() -> scanProducts(500));
+    }
+
+    //search by product name with a LIKE table scan, return a List of products or an empty list
+    //the original implementation, kept as the fallback and to verify the index against
+    ArrayList<Product> searchByProNameLike(String name) {
         ArrayList<Product> productList = new ArrayList<>();
         String query = "SELECT * FROM ProductTable WHERE LOWER(description) LIKE LOWER(?)";
 
-        try (Connection conn = DriverManager.getConnection(dbURL);
+        try (Connection conn = connectionPool.getConnection();
              PreparedStatement stmt = conn.prepareStatement(query)) {
 
             stmt.setString(1, "%" + name.toLowerCase() + "%");
@@ -86,49 +173,103 @@ public class DerbyRW implements DatabaseRW {
                 }
 
                 if (productList.isEmpty()) {
-                    System.out.println("Product " + name + " not found.");
+                    EventLog.debug("Product {} not found.", name);
                 }
             }
 
         } catch (SQLException e) {
-            System.out.println("Database query error, search by name: " + name + " " + e.getMessage());
+            EventLog.warn("Database query error, search by name: {} {}", name, e.getMessage());
         }
 
         return productList; // could be empty if no matches
     }
 
-    //make a Product object from the database record
-    private Product makeProObjFromDbRecord(ResultSet rs) throws SQLException {
-        Product product = null;
+    //search with filters, sort order and limit, all executed by Derby
+    //used by FlexibleSearchEngine, so that only the matching rows are read
+    public ArrayList<Product> searchProducts(ProductQuery query) throws SQLException {
+        ArrayList<Product> productList = new ArrayList<>();
+        // let the name index narrow a description search down to a few primary key lookups
+        if (nameIndex != null && query.getProductIdIn() == null && !query.getDescriptionContains().isEmpty()) {
+            ensureNameIndexBuilt();
+            List<String> candidateIds = idsContainingAny(query.getDescriptionContains().get(0));
+            if (candidateIds.isEmpty()) {
+                return productList;
+            }
+            if (candidateIds.size() <= NAME_INDEX_CANDIDATE_LIMIT) {
+                query = query.restrictedTo(candidateIds); // LIKE still applies, but only to the candidate rows
+            }
+        }
+        try (Connection conn = connectionPool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(query.toSql())) {
+            query.bindParameters(stmt);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    productList.add(readProduct(rs));
+                }
+            }
+        }
+        if (EventLog.isDebugEnabled()) {
+            EventLog.debug("{} products found for query: {}", productList.size(), query);
+        }
+        return productList;
+    }
+
+    //the IDs of the products whose description contains one of the texts, from the name index, in product ID order
+    private List<String> idsContainingAny(List<String> texts) {
+        if (texts.size() == 1) {
+            return nameIndex.findIdsContaining(texts.get(0));
+        }
+        TreeSet<String> ids = new TreeSet<>();
+        for (String text : texts) {
+            ids.addAll(nameIndex.findIdsContaining(text));
+        }
+        return new ArrayList<>(ids);
+    }
+
+    //make a Product object from the database record, without printing anything
+    private static Product readProduct(ResultSet rs) throws SQLException {
         String productId = rs.getString("productID");
         String description = rs.getString("description");
         String imagePath = rs.getString("image");
         double unitPrice = rs.getDouble("unitPrice");
         int inStock = rs.getInt("inStock");
-        product =new Product(productId,description,imagePath,unitPrice,inStock);
+        return new Product(productId,description,imagePath,unitPrice,inStock);
+    }
+
+    //make a Product object from the database record, logging its details at debug level
+    private Product makeProObjFromDbRecord(ResultSet rs) throws SQLException {
+        Product product = readProduct(rs);
+        if (!EventLog.isDebugEnabled()) {
+            return product;
+        }
+        String productId = product.getProductId();
+        int inStock = product.getStockQuantity();
 
         // Show product details
-        System.out.println("Product ID: " + productId);
-        System.out.println("Description: " + description);
-        System.out.println("Image: " + imagePath);
-        System.out.println("unitPrice: " + unitPrice);
+        EventLog.debug("Product ID: {}, Description: {}, Image: {}", productId, product.getProductDescription(),
+                product.getProductImageName());
+        EventLog.debug("unitPrice: {}", product.getUnitPrice());
 
         // Check availability and display message
         if(inStock <= 0){
-            System.out.println("Product " + productId+ " is NOT in stock");
+            EventLog.debug("Product {} is NOT in stock", productId);
         }
         else if(inStock < 10) {
-            System.out.println("Product " + productId+ "low stock warning!" + inStock + " units left.");
+            EventLog.debug("Product {} low stock warning! {} units left.", productId, inStock);
         }
         else {
-            System.out.println("Product " + productId+ " is available");
+            EventLog.debug("Product {} is available", productId);
         }
-
-        System.out.println("-----"); // Divider for readability
         return product;
     }
 
     public ArrayList<Product> purchaseStocks(ArrayList<Product> proList) throws SQLException {
+        if (purchaseMode == PurchaseMode.BATCHED) {
+            return checkoutBatcher.purchase(proList);
+        }
+        if (purchaseMode == PurchaseMode.CONDITIONAL || purchaseMode == PurchaseMode.SET_CHECKED) {
+            return purchaseStocksConditionally(proList);
+        }
         lock.lock();  // Lock the critical section to prevent concurrent access
         ArrayList<Product> insufficientProducts = new ArrayList<>();
 
@@ -136,7 +277,7 @@ public class DerbyRW implements DatabaseRW {
         String updateSql = "UPDATE ProductTable SET inStock = inStock - ? WHERE productId = ?";
 
         // Use try-with-resources for Connection and PreparedStatements
-        try (Connection conn = DriverManager.getConnection(dbURL)) {
+        try (Connection conn = connectionPool.getConnection()) {
             conn.setAutoCommit(false); // Turn off auto-commit for transaction
 
             // Use a second try-with-resources for the PreparedStatements
@@ -153,25 +294,25 @@ public class DerbyRW implements DatabaseRW {
                         int currentStock = rs.getInt("inStock");
                         int newStock = currentStock - product.getOrderedQuantity();
 
-                        // Debugging: Print values before update
-                        System.out.println("Product ID: " + product.getProductId());
-                        System.out.println("Before change: " + currentStock);
-                        System.out.println("Quantity Ordered: " + product.getOrderedQuantity());
+                        if (EventLog.isDebugEnabled()) { // Debugging: values before update
+                            EventLog.debug("Product ID: {}, Before change: {}, Quantity Ordered: {}",
+                                    product.getProductId(), currentStock, product.getOrderedQuantity());
+                        }
 
                         if (newStock >= 0) { // Ensure stock doesn't go negative
                             updateStmt.setInt(1, product.getOrderedQuantity());
                             updateStmt.setString(2, product.getProductId());
                             updateStmt.addBatch();
 
-                            // Debugging: Print values after update
-                            System.out.println("After change: " + newStock);
-                            System.out.println("Update successful for Product ID: " + product.getProductId());
+                            if (EventLog.isDebugEnabled()) { // Debugging: values after update
+                                EventLog.debug("After change: {}, Update successful for Product ID: {}",
+                                        newStock, product.getProductId());
+                            }
                         } else {
                             insufficientProducts.add(product);
                             allSufficient = false; // Mark that there's at least one insufficient product
-                            System.out.println("Not enough stock for Product ID: " + product.getProductId());
+                            EventLog.debug("Not enough stock for Product ID: {}", product.getProductId());
                         }
-                        System.out.println("--------------------------------");
                     }
                 }
 
@@ -179,16 +320,17 @@ public class DerbyRW implements DatabaseRW {
                     // If all products have sufficient stock, execute the batch and commit
                     updateStmt.executeBatch();
                     conn.commit();  // Commit all updates if all updates succeed
-                    System.out.println("Database update successful.");
+                    EventLog.debug("Database update successful.");
+                    changeNotifier.notifyStockPurchased(proList);
                 } else {
                     // If there's insufficient stock for any product, rollback the entire transaction
                     conn.rollback();
-                    System.out.println("Insufficient stock for some products, all updates rolled back.");
+                    EventLog.debug("Insufficient stock for some products, all updates rolled back.");
                 }
 
             } catch (SQLException e) {
                 conn.rollback();  // Rollback if anything failed inside
-                System.out.println("Database update error, update failed");
+                EventLog.warn("Database update error, update failed: {}", e.getMessage());
             }
         } finally {
             lock.unlock(); // Always release the lock after the operation
@@ -197,6 +339,236 @@ public class DerbyRW implements DatabaseRW {
         return insufficientProducts;
     }
 
+    /**
+     * purchaseStocks in CONDITIONAL and SET_CHECKED modes: one transaction of conditional decrements, no JVM lock.
+     * In SET_CHECKED mode a single read of all stock levels comes first, and a trolley with shortages
+     * is answered from that read alone.
+     * If any product is short the whole transaction is rolled back, so the purchase stays all-or-nothing.
+     */
+    private ArrayList<Product> purchaseStocksConditionally(ArrayList<Product> proList) throws SQLException {
+        try (Connection conn = connectionPool.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                ArrayList<Product> insufficientProducts = new ArrayList<>();
+                if (purchaseMode == PurchaseMode.SET_CHECKED) {
+                    insufficientProducts = checkStocks(conn, proList);
+                }
+                if (insufficientProducts.isEmpty()) {
+                    insufficientProducts = decrementStocks(conn, proList);
+                }
+                if (insufficientProducts.isEmpty()) {
+                    conn.commit();
+                    EventLog.debug("Database update successful.");
+                    changeNotifier.notifyStockPurchased(proList);
+                } else {
+                    conn.rollback();
+                    EventLog.debug("Insufficient stock for some products, all updates rolled back.");
+                }
+                return insufficientProducts;
+            } catch (SQLException e) {
+                conn.rollback();
+                EventLog.warn("Database update error, update failed: {}", e.getMessage());
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Runs the conditional decrement for every product as one JDBC batch on the given connection,
+     * without committing, and returns the products whose stock was not enough (or that no longer exist).
+     * The caller decides whether to commit or roll back.
+     *
+     * Rows are updated in productID order, so two transactions always lock shared rows in the same order
+     * and cannot deadlock each other.
+     */
+    static ArrayList<Product> decrementStocks(Connection conn, List<Product> proList) throws SQLException {
+        List<Product> ordered = new ArrayList<>(proList);
+        ordered.sort(Comparator.comparing(Product::getProductId));
+
+        int[] updateCounts;
+        try (PreparedStatement decrementStmt = conn.prepareStatement(CONDITIONAL_DECREMENT_SQL)) {
+            for (Product product : ordered) {
+                decrementStmt.setInt(1, product.getOrderedQuantity());
+                decrementStmt.setString(2, product.getProductId());
+                decrementStmt.setInt(3, product.getOrderedQuantity());
+                decrementStmt.addBatch();
+            }
+            updateCounts = decrementStmt.executeBatch();
+        }
+
+        Set<Product> shortProducts = new HashSet<>();
+        for (int i = 0; i < updateCounts.length; i++) {
+            if (updateCounts[i] == 0) { // the WHERE clause did not match: not enough stock
+                shortProducts.add(ordered.get(i));
+            }
+        }
+        // report shortages in the caller's order, using the caller's own Product objects
+        ArrayList<Product> insufficientProducts = new ArrayList<>();
+        for (Product product : proList) {
+            if (shortProducts.contains(product)) {
+                insufficientProducts.add(product);
+            }
+        }
+        return insufficientProducts;
+    }
+
+    /**
+     * Reads the stock of every product in the list with one query and returns the products that do not
+     * have enough (or no longer exist), using the caller's own Product objects in the caller's order.
+     * Quantities of repeated product IDs are added up before comparing.
+     */
+    static ArrayList<Product> checkStocks(Connection conn, List<Product> proList) throws SQLException {
+        Map<String, Integer> requested = new LinkedHashMap<>();
+        for (Product product : proList) {
+            requested.merge(product.getProductId(), product.getOrderedQuantity(), Integer::sum);
+        }
+        Map<String, Integer> stockLevels = readStockLevels(conn, requested.keySet());
+
+        ArrayList<Product> insufficientProducts = new ArrayList<>();
+        for (Product product : proList) {
+            Integer inStock = stockLevels.get(product.getProductId());
+            if (inStock == null || inStock < requested.get(product.getProductId())) {
+                insufficientProducts.add(product);
+            }
+        }
+        return insufficientProducts;
+    }
+
+    /**
+     * Returns the current stock of each given product ID in one round trip (IDs not in the table are absent).
+     * Small sets use "WHERE productID IN (?, ?, ...)". The list is padded to a power of two so that only a few
+     * distinct SQL strings exist and the statement cache can reuse them.
+     * Sets larger than IN_LIST_LIMIT are written into a temporary table with one batch and joined instead.
+     */
+    static Map<String, Integer> readStockLevels(Connection conn, Collection<String> productIds) throws SQLException {
+        Map<String, Integer> stockLevels = new HashMap<>();
+        if (productIds.isEmpty()) {
+            return stockLevels;
+        }
+        if (productIds.size() > IN_LIST_LIMIT) {
+            return readStockLevelsViaTempTable(conn, productIds);
+        }
+
+        List<String> ids = new ArrayList<>(productIds);
+        int paddedSize = Integer.highestOneBit(ids.size() - 1) << 1; // next power of two
+        paddedSize = Math.max(1, paddedSize);
+        String query = "SELECT productID, inStock FROM ProductTable WHERE productID IN ("
+                + "?, ".repeat(paddedSize - 1) + "?)";
+        try (PreparedStatement stmt = conn.prepareStatement(query)) {
+            for (int i = 0; i < paddedSize; i++) {
+                stmt.setString(i + 1, ids.get(Math.min(i, ids.size() - 1))); // pad by repeating the last ID
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    stockLevels.put(rs.getString(1).trim(), rs.getInt(2));
+                }
+            }
+        }
+        return stockLevels;
+    }
+
+    // Large trolleys: batch the IDs into SESSION.CheckoutIds and join it with ProductTable.
+    // Temporary tables only exist inside a transaction's connection, so auto-commit must be off.
+    private static Map<String, Integer> readStockLevelsViaTempTable(Connection conn, Collection<String> productIds)
+            throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate(DECLARE_ID_TABLE_SQL);
+        } catch (SQLException e) {
+            if (!TEMP_TABLE_EXISTS.equals(e.getSQLState())) {
+                throw e;
+            } // already declared earlier on this (pooled) connection
+        }
+
+        Map<String, Integer> stockLevels = new HashMap<>();
+        try (PreparedStatement clearStmt = conn.prepareStatement("DELETE FROM SESSION.CheckoutIds");
+             PreparedStatement insertStmt = conn.prepareStatement("INSERT INTO SESSION.CheckoutIds VALUES (?)");
+             PreparedStatement selectStmt = conn.prepareStatement(
+                     "SELECT p.productID, p.inStock FROM ProductTable p, SESSION.CheckoutIds t " +
+                             "WHERE p.productID = t.productID")) {
+            clearStmt.executeUpdate();
+            for (String id : productIds) {
+                insertStmt.setString(1, id);
+                insertStmt.addBatch();
+            }
+            insertStmt.executeBatch();
+            try (ResultSet rs = selectStmt.executeQuery()) {
+                while (rs.next()) {
+                    stockLevels.put(rs.getString(1).trim(), rs.getInt(2));
+                }
+            }
+            clearStmt.executeUpdate();
+        }
+        return stockLevels;
+    }
+
+    /**
+     * Streams the whole ProductTable with a forward-only, read-only result set.
+     * The connection, statement and result set stay open while the stream is consumed,
+     * and are released when the last row has been read or the stream is closed, whichever comes first.
+     */
+    public Stream<Product> scanProducts(int fetchSize) throws SQLException {
+        String query = "SELECT * FROM ProductTable ORDER BY productID";
+        Connection conn = connectionPool.getConnection();
+        PreparedStatement stmt = null;
+        try {
+            stmt = conn.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            stmt.setFetchSize(fetchSize);
+            ResultSet rs = stmt.executeQuery();
+            ProductScan scan = new ProductScan(conn, stmt, rs);
+            return StreamSupport.stream(scan, false).onClose(scan::close);
+        } catch (SQLException e) {
+            if (stmt != null) {
+                stmt.close();
+            }
+            conn.close(); // returns the connection to the pool
+            throw e;
+        }
+    }
+
+    // Reads one product per tryAdvance() call from an open result set, closing everything at the end.
+    private static class ProductScan extends Spliterators.AbstractSpliterator<Product> {
+        private final Connection conn;
+        private final PreparedStatement stmt;
+        private final ResultSet rs;
+        private boolean closed = false;
+
+        ProductScan(Connection conn, PreparedStatement stmt, ResultSet rs) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+            this.conn = conn;
+            this.stmt = stmt;
+            this.rs = rs;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Product> action) {
+            if (closed) {
+                return false;
+            }
+            try {
+                if (rs.next()) {
+                    action.accept(readProduct(rs));
+                    return true;
+                }
+            } catch (SQLException e) {
+                close();
+                throw new IllegalStateException("Product scan failed: " + e.getMessage(), e);
+            }
+            close(); // no more rows, release the connection straight away
+            return false;
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try (conn; stmt; rs) {
+                // try-with-resources closes rs, stmt and conn in that order
+            } catch (SQLException e) {
+                EventLog.warn("Error closing product scan: {}", e.getMessage());
+            }
+        }
+    }
 
     //warehouse edits an existing product
     public void updateProduct(String id, String des, double price, String iName, int stock) throws SQLException {
@@ -209,22 +581,17 @@ public class DerbyRW implements DatabaseRW {
                 "inStock = ? " +
                 "WHERE productID = ?";
 
-        try (Connection conn = DriverManager.getConnection(dbURL);
+        try (Connection conn = connectionPool.getConnection();
              PreparedStatement selectStmt = conn.prepareStatement(selectSql);
              PreparedStatement updateStmt = conn.prepareStatement(updateSql)) {
 
-            // Print Before Update
+            // Log Before Update
             selectStmt.setString(1, id);
             try (ResultSet rs = selectStmt.executeQuery()) {
                 if (rs.next()) {
-                    System.out.println("Before Update:");
-                    System.out.println("ID: " + rs.getString("productID"));
-                    System.out.println("Description: " + rs.getString("description"));
-                    System.out.println("Unit Price: " + rs.getDouble("unitPrice"));
-                    System.out.println("Stock: " + rs.getInt("inStock"));
-                    System.out.println("Image: " + rs.getString("image"));
+                    EventLog.info("Before Update: {}", readProduct(rs));
                 } else {
-                    System.out.println("Product not found: " + id);
+                    EventLog.warn("Product not found: {}", id);
                     return; // Exit if product doesn't exist
                 }
             }
@@ -236,16 +603,14 @@ public class DerbyRW implements DatabaseRW {
             updateStmt.setInt(4, stock);
             updateStmt.setString(5, id);
             updateStmt.executeUpdate();
+            changeNotifier.notifyProductSaved(new Product(id, des, iName, price, stock));
 
-            // Print After Update
-            try (ResultSet rs = selectStmt.executeQuery()) {
-                if (rs.next()) {
-                    System.out.println("After Update:");
-                    System.out.println("ID: " + rs.getString("productID"));
-                    System.out.println("Description: " + rs.getString("description"));
-                    System.out.println("Unit Price: " + rs.getDouble("unitPrice"));
-                    System.out.println("Stock: " + rs.getInt("inStock"));
-                    System.out.println("image: " + rs.getString("image"));
+            // Log After Update, read back only when debugging
+            if (EventLog.isDebugEnabled()) {
+                try (ResultSet rs = selectStmt.executeQuery()) {
+                    if (rs.next()) {
+                        EventLog.debug("After Update: {}", readProduct(rs));
+                    }
                 }
             }
         }
@@ -260,22 +625,18 @@ public class DerbyRW implements DatabaseRW {
         String selectSql = "SELECT * FROM ProductTable WHERE productID = ?";
         String deleteSql = "DELETE FROM ProductTable WHERE productID = ?";
 
-        try (Connection conn = DriverManager.getConnection(dbURL);
+        try (Connection conn = connectionPool.getConnection();
              PreparedStatement selectStmt = conn.prepareStatement(selectSql);
              PreparedStatement deleteStmt = conn.prepareStatement(deleteSql)) {
             conn.setAutoCommit(true); // Set auto-commit to true immediately
 
-            // print product details before deletion
+            // log product details before deletion
             selectStmt.setString(1, proId);
             try (ResultSet rs = selectStmt.executeQuery()) {
                 if (rs.next()) {
-                    System.out.println("Before delete:");
-                    System.out.println("ID: " + rs.getString("productID"));
-                    System.out.println("Description: " + rs.getString("description"));
-                    System.out.println("Unit Price: " + rs.getDouble("unitPrice"));
-                    System.out.println("Stock: " + rs.getInt("inStock"));
+                    EventLog.info("Before delete: {}", readProduct(rs));
                 } else {
-                    System.out.println("Product not found: " + proId);
+                    EventLog.warn("Product not found: {}", proId);
                     return; // Exit if product does not exist
                 }
             }
@@ -283,7 +644,8 @@ public class DerbyRW implements DatabaseRW {
             // delete from database
             deleteStmt.setString(1, proId);
             deleteStmt.executeUpdate();
-            System.out.println("Product " + proId + " deleted from database.");
+            changeNotifier.notifyProductDeleted(proId);
+            EventLog.info("Product {} deleted from database.", proId);
         }
 
         finally {
@@ -296,7 +658,7 @@ public class DerbyRW implements DatabaseRW {
     public boolean isProIdAvailable(String proId) throws SQLException {
         String query = "SELECT COUNT(*) FROM ProductTable WHERE productID = ?";
                              //the count of records that match the given proId.
-        try (Connection conn = DriverManager.getConnection(dbURL);
+        try (Connection conn = connectionPool.getConnection();
              PreparedStatement stmt = conn.prepareStatement(query)) {
             stmt.setString(1, proId);
             ResultSet rs = stmt.executeQuery();
@@ -317,7 +679,7 @@ public class DerbyRW implements DatabaseRW {
         lock.lock();
         String insertSql = "INSERT INTO ProductTable VALUES(?, ?, ?, ?, ?)";
         String selectSql = "SELECT * FROM ProductTable WHERE productID = ?";
-        try (Connection conn = DriverManager.getConnection(dbURL);
+        try (Connection conn = connectionPool.getConnection();
         PreparedStatement insertStmt = conn.prepareStatement(insertSql);
         PreparedStatement selectStmt = conn.prepareStatement(selectSql)) {
             conn.setAutoCommit(true); // Set auto-commit to true immediately
@@ -328,13 +690,14 @@ public class DerbyRW implements DatabaseRW {
             insertStmt.setInt(5, stock);
             selectStmt.setString(1, id);
             insertStmt.executeUpdate();
-            ResultSet rs = selectStmt.executeQuery();
-            if (rs.next()) { //print the inserted record
-                System.out.println("Insert successful for Product ID: \" + id");
-                System.out.println("ID: " + rs.getString("productID"));
-                System.out.println("Description: " + rs.getString("description"));
-                System.out.println("Unit Price: " + rs.getDouble("unitPrice"));
-                System.out.println("Stock: " + rs.getInt("inStock"));
+            changeNotifier.notifyProductSaved(new Product(id, des, image, price, stock));
+            EventLog.info("Insert successful for Product ID: {}", id);
+            if (EventLog.isDebugEnabled()) { //read back and log the inserted record
+                try (ResultSet rs = selectStmt.executeQuery()) {
+                    if (rs.next()) {
+                        EventLog.debug("Inserted: {}", readProduct(rs));
+                    }
+                }
             }
         }
         finally {
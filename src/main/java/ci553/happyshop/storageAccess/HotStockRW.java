@@ -0,0 +1,411 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.utility.EventLog;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * The HotStockRW class is a decorator around DerbyRW for flash sales: products the warehouse marks as "hot"
+ * have their stock held in memory, split across several striped counters, so that checkouts of a viral
+ * product no longer queue on its single ProductTable row lock.
+ *
+ * How it works:
+ * - setHotProduct(id, true) reads the product's stock and spreads it over N stripes (an AtomicIntegerArray).
+ * - purchaseStocks takes hot products from the stripes: each checkout starts at a random stripe and
+ *   compare-and-sets one with enough spare stock (or gathers the quantity from several stripes).
+ *   Cold products in the same trolley go to the wrapped DerbyRW as before. If anything is short,
+ *   the stock taken from the stripes is put back, so the purchase stays all-or-nothing.
+ * - Reads (search, scan) report the sum of the stripes as the stock of a hot product.
+ * - Write-behind: every flushMillis the stock taken since the last flush is subtracted from the
+ *   ProductTable row in one UPDATE per hot product (a delta, so other writers to the row are not overwritten).
+ * - A warehouse edit of a hot product is flushed first, then sets the stripes to the new stock.
+ * - setHotProduct(id, false) flushes and hands the product back to the database.
+ * - Switching a product between cold and hot holds the write lock of its switch lock (one of SWITCH_LOCKS,
+ *   chosen by product ID), and cold purchases and edits hold the read lock of theirs. So no cold purchase
+ *   can commit between setHotProduct reading the stock and publishing the hot product (which would be lost,
+ *   and the stripes would then hold more stock than the table).
+ *
+ * Hot products are remembered in memory only. Stock taken since the last flush is written by a shutdown hook,
+ * but would be lost if the JVM were killed, so the flush interval is kept short.
+ * A filter on stock inside a searchProducts query (inStockOnly) is applied to the last flushed value.
+ */
+
+public class HotStockRW implements DatabaseRW {
+
+    // Subtracts the stock taken from the stripes since the last flush
+    private static final String FLUSH_SQL = "UPDATE ProductTable SET inStock = inStock - ? WHERE productID = ?";
+
+    private static final int SWITCH_LOCKS = 64;
+
+    // the striped stock of one hot product
+    private static class HotProduct {
+        final AtomicIntegerArray stripes;
+        final AtomicInteger unflushed = new AtomicInteger(); // taken from the stripes, not yet written to the table
+        // purchases take the read lock (they run in parallel), resetting the stripes takes the write lock
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        HotProduct(int stripeCount, int stock) {
+            stripes = new AtomicIntegerArray(stripeCount);
+            spread(stock);
+        }
+
+        // Must be called with the write lock held (or before the product is published)
+        void spread(int stock) {
+            int n = stripes.length();
+            for (int i = 0; i < n; i++) {
+                stripes.set(i, stock / n + (i < stock % n ? 1 : 0));
+            }
+        }
+
+        int sum() {
+            int sum = 0;
+            for (int i = 0; i < stripes.length(); i++) {
+                sum += stripes.get(i);
+            }
+            return sum;
+        }
+
+        // Takes the quantity from the stripes, returns false (and takes nothing) if they hold less
+        boolean take(int quantity) {
+            int n = stripes.length();
+            int start = ThreadLocalRandom.current().nextInt(n);
+            // usually one stripe has enough
+            for (int i = 0; i < n; i++) {
+                int stripe = (start + i) % n;
+                int value;
+                while ((value = stripes.get(stripe)) >= quantity) {
+                    if (stripes.compareAndSet(stripe, value, value - quantity)) {
+                        unflushed.addAndGet(quantity);
+                        return true;
+                    }
+                }
+            }
+            // otherwise gather it from several stripes, and put it all back if the total is too small
+            int[] taken = new int[n];
+            int needed = quantity;
+            for (int i = 0; i < n && needed > 0; i++) {
+                int stripe = (start + i) % n;
+                int value;
+                while ((value = stripes.get(stripe)) > 0) {
+                    int part = Math.min(value, needed);
+                    if (stripes.compareAndSet(stripe, value, value - part)) {
+                        taken[stripe] = part;
+                        needed -= part;
+                        break;
+                    }
+                }
+            }
+            if (needed > 0) {
+                for (int stripe = 0; stripe < n; stripe++) {
+                    stripes.addAndGet(stripe, taken[stripe]);
+                }
+                return false;
+            }
+            unflushed.addAndGet(quantity);
+            return true;
+        }
+
+        void giveBack(int quantity) {
+            stripes.addAndGet(ThreadLocalRandom.current().nextInt(stripes.length()), quantity);
+            unflushed.addAndGet(-quantity);
+        }
+    }
+
+    private final DatabaseRW delegate;
+    private final ConnectionPool connectionPool;
+    private final int stripeCount;
+    private final ConcurrentHashMap<String, HotProduct> hotProducts = new ConcurrentHashMap<>();
+    private final ReentrantReadWriteLock[] switchLocks = new ReentrantReadWriteLock[SWITCH_LOCKS];
+    private final ProductChangeNotifier changeNotifier = ProductChangeNotifier.getNotifier();
+    private final ScheduledExecutorService flusher;
+
+    public HotStockRW(DatabaseRW delegate, ConnectionPool connectionPool, int stripeCount, long flushMillis) {
+        this.delegate = delegate;
+        this.connectionPool = connectionPool;
+        this.stripeCount = stripeCount;
+        for (int i = 0; i < SWITCH_LOCKS; i++) {
+            switchLocks[i] = new ReentrantReadWriteLock();
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "HotStock-flusher");
+            t.setDaemon(true); // must not keep the JVM alive
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushAll, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flushAll, "HotStock-final-flush"));
+    }
+
+    @Override
+    public void setHotProduct(String productId, boolean hot) throws SQLException {
+        ReentrantReadWriteLock switchLock = switchLockOf(productId);
+        switchLock.writeLock().lock(); // waits for cold purchases of the product, and keeps new ones out
+        try {
+            switchHotProduct(productId, hot);
+        } finally {
+            switchLock.writeLock().unlock();
+        }
+    }
+
+    // Must be called with the product's switch write lock held
+    private void switchHotProduct(String productId, boolean hot) throws SQLException {
+        if (hot) {
+            if (!hotProducts.containsKey(productId)) {
+                Product product = delegate.searchByProductId(productId);
+                if (product == null) {
+                    throw new SQLException("Product not found: " + productId);
+                }
+                hotProducts.put(productId, new HotProduct(stripeCount, product.getStockQuantity()));
+                EventLog.info("Product {} is hot, stock {} split over {} stripes", productId,
+                        product.getStockQuantity(), stripeCount);
+            }
+        } else {
+            HotProduct hotProduct = hotProducts.get(productId);
+            if (hotProduct != null) {
+                synchronized (hotProduct) {
+                    hotProduct.lock.writeLock().lock(); // no purchase may take from the stripes any more
+                    try {
+                        hotProducts.remove(productId);
+                        flush(productId, hotProduct);
+                    } finally {
+                        hotProduct.lock.writeLock().unlock();
+                    }
+                }
+                EventLog.info("Product {} is no longer hot", productId);
+            }
+        }
+    }
+
+    @Override
+    public boolean isHotProduct(String productId) {
+        return hotProducts.containsKey(productId);
+    }
+
+    private ReentrantReadWriteLock switchLockOf(String productId) {
+        return switchLocks[Math.floorMod(productId.hashCode(), SWITCH_LOCKS)];
+    }
+
+    public ArrayList<Product> purchaseStocks(ArrayList<Product> proList) throws SQLException {
+        // the switch locks are taken in index order, so two purchases and a waiting setHotProduct cannot deadlock
+        TreeSet<Integer> switchIndexes = new TreeSet<>();
+        for (Product product : proList) {
+            switchIndexes.add(Math.floorMod(product.getProductId().hashCode(), SWITCH_LOCKS));
+        }
+        List<ReentrantReadWriteLock> switchLocked = new ArrayList<>();
+        try {
+            for (int index : switchIndexes) {
+                switchLocks[index].readLock().lock();
+                switchLocked.add(switchLocks[index]);
+            }
+            return purchaseWithSwitchLocks(proList);
+        } finally {
+            for (ReentrantReadWriteLock switchLock : switchLocked) {
+                switchLock.readLock().unlock();
+            }
+        }
+    }
+
+    // Must be called with the switch read locks of every product in the trolley held
+    private ArrayList<Product> purchaseWithSwitchLocks(ArrayList<Product> proList) throws SQLException {
+        // total quantity per hot product; the rest of the trolley goes to the database
+        Map<String, Integer> hotQuantities = new TreeMap<>(); // product ID order, the order of the read locks
+        ArrayList<Product> coldList = new ArrayList<>();
+        for (Product product : proList) {
+            if (hotProducts.containsKey(product.getProductId())) {
+                hotQuantities.merge(product.getProductId(), product.getOrderedQuantity(), Integer::sum);
+            } else {
+                coldList.add(product);
+            }
+        }
+        if (hotQuantities.isEmpty()) {
+            return delegate.purchaseStocks(proList);
+        }
+
+        Map<HotProduct, Integer> taken = new HashMap<>();
+        List<String> shortIds = new ArrayList<>();
+        List<HotProduct> readLocked = new ArrayList<>();
+        try {
+            for (Map.Entry<String, Integer> entry : hotQuantities.entrySet()) {
+                HotProduct hotProduct = hotProducts.get(entry.getKey());
+                if (hotProduct == null) { // no longer hot, the database decides
+                    for (Product product : proList) {
+                        if (product.getProductId().equals(entry.getKey())) {
+                            coldList.add(product);
+                        }
+                    }
+                    continue;
+                }
+                hotProduct.lock.readLock().lock();
+                readLocked.add(hotProduct);
+                if (hotProduct.take(entry.getValue())) {
+                    taken.put(hotProduct, entry.getValue());
+                } else {
+                    shortIds.add(entry.getKey());
+                }
+            }
+
+            ArrayList<Product> insufficientProducts = new ArrayList<>();
+            if (shortIds.isEmpty()) {
+                if (!coldList.isEmpty()) {
+                    insufficientProducts = delegate.purchaseStocks(coldList);
+                }
+            } else {
+                // nothing is bought, but the cold products are still checked so every shortage is reported
+                for (Product product : coldList) {
+                    Product current = delegate.searchByProductId(product.getProductId());
+                    if (current == null || current.getStockQuantity() < product.getOrderedQuantity()) {
+                        insufficientProducts.add(product);
+                    }
+                }
+                for (Product product : proList) {
+                    if (shortIds.contains(product.getProductId())) {
+                        insufficientProducts.add(product);
+                    }
+                }
+            }
+
+            if (insufficientProducts.isEmpty()) {
+                taken.clear(); // keep what we took
+                changeNotifier.notifyStockPurchased(proList.stream()
+                        .filter(product -> !coldList.contains(product)).toList());
+                return insufficientProducts;
+            }
+            // report the shortages in the caller's order
+            ArrayList<Product> ordered = new ArrayList<>();
+            for (Product product : proList) {
+                if (insufficientProducts.contains(product)) {
+                    ordered.add(product);
+                }
+            }
+            return ordered;
+        } finally {
+            for (Map.Entry<HotProduct, Integer> entry : taken.entrySet()) {
+                entry.getKey().giveBack(entry.getValue()); // the purchase failed, put the stock back
+            }
+            for (HotProduct hotProduct : readLocked) {
+                hotProduct.lock.readLock().unlock();
+            }
+        }
+    }
+
+    public void updateProduct(String id, String des, double price, String imageName, int stock) throws SQLException {
+        ReentrantReadWriteLock switchLock = switchLockOf(id);
+        switchLock.readLock().lock(); // a cold edit must not land between setHotProduct's read and publish
+        try {
+            HotProduct hotProduct = hotProducts.get(id);
+            if (hotProduct == null) {
+                delegate.updateProduct(id, des, price, imageName, stock);
+                return;
+            }
+            synchronized (hotProduct) {
+                hotProduct.lock.writeLock().lock();
+                try {
+                    flush(id, hotProduct);
+                    delegate.updateProduct(id, des, price, imageName, stock);
+                    hotProduct.spread(stock);
+                } finally {
+                    hotProduct.lock.writeLock().unlock();
+                }
+            }
+        } finally {
+            switchLock.readLock().unlock();
+        }
+    }
+
+    public void deleteProduct(String id) throws SQLException {
+        setHotProduct(id, false);
+        delegate.deleteProduct(id);
+    }
+
+    public void insertNewProduct(String id, String des, double price, String image, int stock) throws SQLException {
+        delegate.insertNewProduct(id, des, price, image, stock);
+    }
+
+    public boolean isProIdAvailable(String productId) throws SQLException {
+        return delegate.isProIdAvailable(productId);
+    }
+
+    // Reads go to the database, then the stock of hot products is replaced by the sum of their stripes
+    public ArrayList<Product> searchProduct(String keyword) throws SQLException {
+        return withHotStock(delegate.searchProduct(keyword));
+    }
+
+    public ArrayList<Product> searchProducts(ProductQuery query) throws SQLException {
+        return withHotStock(delegate.searchProducts(query));
+    }
+
+    public Product searchByProductId(String productId) throws SQLException {
+        return withHotStock(delegate.searchByProductId(productId));
+    }
+
+    public Stream<Product> scanProducts(int fetchSize) throws SQLException {
+        return delegate.scanProducts(fetchSize).map(this::withHotStock);
+    }
+
+    private ArrayList<Product> withHotStock(ArrayList<Product> products) {
+        if (!hotProducts.isEmpty()) {
+            products.replaceAll(this::withHotStock);
+        }
+        return products;
+    }
+
+    private Product withHotStock(Product product) {
+        HotProduct hotProduct = product == null ? null : hotProducts.get(product.getProductId());
+        if (hotProduct == null) {
+            return product;
+        }
+        return new Product(product.getProductId(), product.getProductDescription(), product.getProductImageName(),
+                product.getUnitPrice(), hotProduct.sum());
+    }
+
+    // Runs on the flusher thread: writes the stock taken from every hot product to the table
+    private void flushAll() {
+        for (Map.Entry<String, HotProduct> entry : hotProducts.entrySet()) {
+            synchronized (entry.getValue()) {
+                try {
+                    flush(entry.getKey(), entry.getValue());
+                } catch (SQLException e) {
+                    EventLog.warn("Could not write back stock of hot product {}: {}", entry.getKey(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Must be called while synchronized on hotProduct, so two flushes never write the same delta
+    private void flush(String productId, HotProduct hotProduct) throws SQLException {
+        int delta = hotProduct.unflushed.getAndSet(0);
+        if (delta == 0) {
+            return;
+        }
+        try (Connection conn = connectionPool.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(FLUSH_SQL)) {
+            stmt.setInt(1, delta);
+            stmt.setString(2, productId);
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            hotProduct.unflushed.addAndGet(delta); // try again at the next flush
+            throw e;
+        }
+    }
+
+    public int getHotProductCount() {
+        return hotProducts.size();
+    }
+}
@@ -0,0 +1,280 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * The InMemoryRW class is a DatabaseRW that keeps the whole ProductTable in memory, with no database at all.
+ * It is meant for benchmarks and quick experiments, so that application overhead can be measured
+ * without Derby's start-up time and disk I/O in the numbers.
+ *
+ * It behaves like DerbyRW:
+ * - Products are kept sorted by product ID, so searches and scans return them in the same order.
+ * - purchaseStocks is all-or-nothing: either every product in the trolley is reduced, or none is,
+ *   and the products that are short (or no longer exist) are returned.
+ * - Stock can never go below 0, like the CHECK (inStock >= 0) constraint of ProductTable:
+ *   updateProduct/insertNewProduct with a negative stock throw an SQLException (SQLState 23513),
+ *   inserting an existing product ID throws one with SQLState 23505.
+ * - Changes are published through ProductChangeNotifier, so the name index and other listeners stay in step.
+ *
+ * Concurrency:
+ * Each product row has its own lock. purchaseStocks locks the rows of a trolley in product ID order,
+ * so two trolleys never wait for each other in a cycle, and checkouts of different products run in parallel.
+ * deleteProduct also takes the row lock and marks the row deleted, which purchases and updates check under the lock.
+ * Rows hold their values as primitives (double/int), products are copied out on every read.
+ *
+ * Example Usage:
+ *     DatabaseRW db = new InMemoryRW(SetDatabase.initialProducts());
+ *
+ * Selected from DatabaseRWFactory with -Dhappyshop.storage=memory.
+ */
+
+public class InMemoryRW implements DatabaseRW {
+
+    // one product record, guarded by its own lock
+    private static class Row {
+        final String productId;
+        final ReentrantLock lock = new ReentrantLock();
+        String description;
+        double unitPrice;
+        String imageName;
+        int inStock;
+        boolean deleted; // set under the lock when the row is removed, a row is never used again after that
+
+        Row(String productId, String description, double unitPrice, String imageName, int inStock) {
+            this.productId = productId;
+            this.description = description;
+            this.unitPrice = unitPrice;
+            this.imageName = imageName;
+            this.inStock = inStock;
+        }
+
+        // Reads the row under its lock, so a product never mixes values from before and after an update
+        Product toProduct() {
+            lock.lock();
+            try {
+                return new Product(productId, description, imageName, unitPrice, inStock);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private final ConcurrentSkipListMap<String, Row> rows = new ConcurrentSkipListMap<>(); // productID -> row
+    private final ProductChangeNotifier changeNotifier = ProductChangeNotifier.getNotifier();
+
+    public InMemoryRW() {
+    }
+
+    /**
+     * Creates the table already filled with the given products, eg SetDatabase.initialProducts().
+     */
+    public InMemoryRW(Collection<Product> initialProducts) {
+        for (Product product : initialProducts) {
+            rows.put(product.getProductId(), new Row(product.getProductId(), product.getProductDescription(),
+                    product.getUnitPrice(), product.getProductImageName(), product.getStockQuantity()));
+        }
+    }
+
+    public ArrayList<Product> searchProduct(String keyword) throws SQLException {
+        ArrayList<Product> productList = new ArrayList<>();
+        Product product = searchByProductId(keyword);
+        if (product != null) {
+            productList.add(product);
+            return productList;
+        }
+        String lowerKeyword = keyword.toLowerCase();
+        for (Row row : rows.values()) {
+            Product candidate = row.toProduct();
+            if (candidate.getProductDescription() != null
+                    && candidate.getProductDescription().toLowerCase().contains(lowerKeyword)) {
+                productList.add(candidate);
+            }
+        }
+        return productList;
+    }
+
+    public Product searchByProductId(String productId) throws SQLException {
+        Row row = rows.get(productId);
+        return row == null ? null : row.toProduct();
+    }
+
+    public ArrayList<Product> searchProducts(ProductQuery query) throws SQLException {
+        ArrayList<Product> productList = new ArrayList<>();
+        Set<String> allowedIds = query.getProductIdIn() == null ? null : new HashSet<>(query.getProductIdIn());
+        for (Row row : rows.values()) {
+            Product product = row.toProduct();
+            if (matches(query, allowedIds, product)) {
+                productList.add(product);
+            }
+        }
+        // rows come out in product ID order already, ties in the price orders are broken by product ID
+        switch (query.getOrderBy()) {
+            case PRICE_ASC:
+                productList.sort(Comparator.comparingDouble(Product::getUnitPrice));
+                break;
+            case PRICE_DESC:
+                productList.sort(Comparator.comparingDouble(Product::getUnitPrice).reversed());
+                break;
+            default:
+                break;
+        }
+        if (query.getLimit() != null && productList.size() > query.getLimit()) {
+            return new ArrayList<>(productList.subList(0, query.getLimit()));
+        }
+        return productList;
+    }
+
+    // The same filters as the WHERE clause built by ProductQuery.toSql()
+    private static boolean matches(ProductQuery query, Set<String> allowedIds, Product product) {
+        if (query.getProductId() != null && !query.getProductId().trim().equalsIgnoreCase(product.getProductId())) {
+            return false;
+        }
+        if (allowedIds != null && !allowedIds.contains(product.getProductId())) {
+            return false;
+        }
+        String description = product.getProductDescription() == null ? "" : product.getProductDescription().toLowerCase();
+        for (List<String> texts : query.getDescriptionContains()) {
+            if (texts.stream().noneMatch(text -> description.contains(text.toLowerCase()))) {
+                return false;
+            }
+        }
+        if (query.getMinPrice() != null && product.getUnitPrice() < query.getMinPrice()) {
+            return false;
+        }
+        if (query.getMaxPrice() != null && product.getUnitPrice() > query.getMaxPrice()) {
+            return false;
+        }
+        return !query.isInStockOnly() || product.getStockQuantity() > 0;
+    }
+
+    /**
+     * Reduces the stock of every product in the trolley, or of none of them.
+     * Returns the trolley products that are short of stock (or no longer exist), empty if the purchase succeeded.
+     */
+    public ArrayList<Product> purchaseStocks(ArrayList<Product> proList) throws SQLException {
+        // total quantity wanted per product, in product ID order (the lock order)
+        TreeMap<String, Integer> wanted = new TreeMap<>();
+        for (Product product : proList) {
+            wanted.merge(product.getProductId(), product.getOrderedQuantity(), Integer::sum);
+        }
+
+        List<Row> lockedRows = new ArrayList<>();
+        Set<String> shortIds = new HashSet<>();
+        try {
+            for (Map.Entry<String, Integer> entry : wanted.entrySet()) {
+                Row row = rows.get(entry.getKey());
+                if (row == null) {
+                    shortIds.add(entry.getKey());
+                    continue;
+                }
+                row.lock.lock();
+                lockedRows.add(row);
+                if (row.deleted || row.inStock < entry.getValue()) {
+                    shortIds.add(row.productId); // deleted while we waited for the lock, or not enough stock
+                }
+            }
+            if (shortIds.isEmpty()) {
+                for (Row row : lockedRows) {
+                    row.inStock -= wanted.get(row.productId);
+                }
+            }
+        } finally {
+            for (Row row : lockedRows) {
+                row.lock.unlock();
+            }
+        }
+
+        ArrayList<Product> insufficientProducts = new ArrayList<>();
+        for (Product product : proList) {
+            if (shortIds.contains(product.getProductId())) {
+                insufficientProducts.add(product);
+            }
+        }
+        if (insufficientProducts.isEmpty()) {
+            changeNotifier.notifyStockPurchased(proList);
+        }
+        return insufficientProducts;
+    }
+
+    public void updateProduct(String id, String des, double price, String imageName, int stock) throws SQLException {
+        checkStock(id, stock);
+        Row row = rows.get(id);
+        if (row == null) {
+            return; // like DerbyRW, updating a product that does not exist changes nothing
+        }
+        row.lock.lock();
+        try {
+            if (row.deleted) {
+                return; // deleted while we waited for the lock
+            }
+            row.description = des;
+            row.unitPrice = price;
+            row.imageName = imageName;
+            row.inStock = stock;
+        } finally {
+            row.lock.unlock();
+        }
+        changeNotifier.notifyProductSaved(new Product(id, des, imageName, price, stock));
+    }
+
+    // Removes the row under its lock, so a purchase or update holding the lock finishes first,
+    // and one waiting for it sees the row is deleted
+    public void deleteProduct(String id) throws SQLException {
+        Row row = rows.get(id);
+        if (row == null) {
+            return;
+        }
+        row.lock.lock();
+        try {
+            if (row.deleted) {
+                return; // another delete got here first
+            }
+            rows.remove(id, row);
+            row.deleted = true;
+        } finally {
+            row.lock.unlock();
+        }
+        changeNotifier.notifyProductDeleted(id);
+    }
+
+    public boolean isProIdAvailable(String productId) throws SQLException {
+        return !rows.containsKey(productId);
+    }
+
+    public void insertNewProduct(String id, String des, double price, String image, int stock) throws SQLException {
+        checkStock(id, stock);
+        if (rows.putIfAbsent(id, new Row(id, des, price, image, stock)) != null) {
+            throw new SQLException("Product ID " + id + " already exists", "23505");
+        }
+        changeNotifier.notifyProductSaved(new Product(id, des, image, price, stock));
+    }
+
+    // A scan sees every product present when it starts that is not deleted before it reaches it
+    public Stream<Product> scanProducts(int fetchSize) throws SQLException {
+        return rows.values().stream().map(Row::toProduct);
+    }
+
+    // The CHECK (inStock >= 0) constraint of ProductTable
+    private static void checkStock(String id, int stock) throws SQLException {
+        if (stock < 0) {
+            throw new SQLException("Stock of product " + id + " cannot be negative: " + stock, "23513");
+        }
+    }
+
+    public int size() {
+        return rows.size();
+    }
+}
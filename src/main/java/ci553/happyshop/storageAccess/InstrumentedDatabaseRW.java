@@ -0,0 +1,276 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.utility.EventLog;
+import ci553.happyshop.utility.LatencyHistogram;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
+import java.util.stream.Stream;
+
+/**
+ * The InstrumentedDatabaseRW class is a decorator that measures every call made to another DatabaseRW.
+ *
+ * How it works:
+ * - Each method has its own LatencyHistogram (in microseconds), plus counters for calls, errors
+ *   (calls that threw) and rows returned.
+ * - A call that takes longer than slowQueryThresholdMillis is appended to the slow-query log
+ *   (logs/slowQueries.log) with its time, duration, method, parameters and the SQL statements it prepared
+ *   (collected by SqlTrace from the pooled connections). The file is written on a background thread.
+ * - The snapshots are published through JMX (DatabaseRWStatsMXBean) and summarised by toString().
+ *
+ * Example Usage:
+ *     DatabaseRW db = new InstrumentedDatabaseRW(new DerbyRW(...), 100, StorageLocation.slowQueryLogPath);
+ *     db.searchByProductId("0001"); // recorded under "searchByProductId"
+ *
+ * DatabaseRWFactory wraps the DatabaseRW it hands out with one shared InstrumentedDatabaseRW.
+ * For scanProducts only opening the scan is timed, its rows are counted as the stream is consumed.
+ */
+
+public class InstrumentedDatabaseRW implements DatabaseRW, DatabaseRWStatsMXBean {
+
+    /**
+     * A snapshot of one method's statistics, latencies in microseconds.
+     */
+    public static class MethodLatency {
+        private final String method;
+        private final long calls;
+        private final long errors;
+        private final long rows;
+        private final double meanMicros;
+        private final long p50Micros;
+        private final long p90Micros;
+        private final long p99Micros;
+        private final long p999Micros;
+        private final long maxMicros;
+
+        MethodLatency(String method, MethodStats stats) {
+            this.method = method;
+            this.calls = stats.latency.getCount();
+            this.errors = stats.errors.sum();
+            this.rows = stats.rows.sum();
+            this.meanMicros = stats.latency.getMean();
+            this.p50Micros = stats.latency.valueAtPercentile(50);
+            this.p90Micros = stats.latency.valueAtPercentile(90);
+            this.p99Micros = stats.latency.valueAtPercentile(99);
+            this.p999Micros = stats.latency.valueAtPercentile(99.9);
+            this.maxMicros = stats.latency.getMax();
+        }
+
+        // getters, used by JMX to turn the snapshot into CompositeData
+        public String getMethod() { return method; }
+        public long getCalls() { return calls; }
+        public long getErrors() { return errors; }
+        public long getRows() { return rows; }
+        public double getMeanMicros() { return meanMicros; }
+        public long getP50Micros() { return p50Micros; }
+        public long getP90Micros() { return p90Micros; }
+        public long getP99Micros() { return p99Micros; }
+        public long getP999Micros() { return p999Micros; }
+        public long getMaxMicros() { return maxMicros; }
+
+        @Override
+        public String toString() {
+            return String.format("%s: calls=%d, errors=%d, rows=%d, mean=%.0fus, p50=%dus, p99=%dus, max=%dus",
+                    method, calls, errors, rows, meanMicros, p50Micros, p99Micros, maxMicros);
+        }
+    }
+
+    // the statistics of one method
+    private static class MethodStats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+        final LongAdder rows = new LongAdder();
+    }
+
+    // a DatabaseRW call, timed by measure()
+    @FunctionalInterface
+    private interface Call<T> {
+        T call() throws SQLException;
+    }
+
+    private final DatabaseRW delegate;
+    private volatile long slowQueryThresholdMillis;
+    private final Path slowQueryLogPath;
+    private final ConcurrentSkipListMap<String, MethodStats> statsByMethod = new ConcurrentSkipListMap<>();
+    private final LongAdder slowCallCount = new LongAdder();
+
+    // appends to the slow-query log off the caller's thread
+    private static final ExecutorService logWriter = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "SlowQueryLog-writer");
+        t.setDaemon(true); // must not keep the JVM alive
+        return t;
+    });
+
+    public InstrumentedDatabaseRW(DatabaseRW delegate, long slowQueryThresholdMillis, Path slowQueryLogPath) {
+        this.delegate = delegate;
+        this.slowQueryThresholdMillis = slowQueryThresholdMillis;
+        this.slowQueryLogPath = slowQueryLogPath;
+    }
+
+    /**
+     * Registers this instance with the platform MBean server under "ci553.happyshop:type=DatabaseRWStats".
+     */
+    public void registerMBean() {
+        try {
+            ObjectName name = new ObjectName("ci553.happyshop:type=DatabaseRWStats");
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            EventLog.warn("Could not register DatabaseRW statistics with JMX: {}", e.getMessage());
+        }
+    }
+
+    // Times the call, counts its rows (or its error) and logs it if it was slow
+    private <T> T measure(String method, Object[] params, Call<T> call, ToIntFunction<T> rowCount)
+            throws SQLException {
+        MethodStats stats = statsByMethod.computeIfAbsent(method, m -> new MethodStats());
+        SqlTrace.start();
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = call.call();
+            stats.rows.add(rowCount.applyAsInt(result));
+            failed = false;
+            return result;
+        } finally {
+            long micros = (System.nanoTime() - start) / 1000;
+            List<String> sql = SqlTrace.stop();
+            stats.latency.record(micros);
+            if (failed) {
+                stats.errors.increment();
+            }
+            if (micros >= slowQueryThresholdMillis * 1000) {
+                logSlowCall(method, params, sql, micros, failed);
+            }
+        }
+    }
+
+    private void logSlowCall(String method, Object[] params, List<String> sql, long micros, boolean failed) {
+        slowCallCount.increment();
+        String line = (LocalDateTime.now() + " " + (micros / 1000) + "ms " + method + Arrays.toString(params)
+                + (failed ? " FAILED" : "") + " sql=" + sql).replaceAll("\\s+", " ") + System.lineSeparator(); // one line per call
+        logWriter.execute(() -> {
+            try {
+                Files.createDirectories(slowQueryLogPath.toAbsolutePath().getParent());
+                Files.writeString(slowQueryLogPath, line, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                EventLog.warn("Could not write slow-query log: {}", e.getMessage());
+            }
+        });
+    }
+
+    public ArrayList<Product> searchProduct(String keyword) throws SQLException {
+        return measure("searchProduct", new Object[]{keyword}, () -> delegate.searchProduct(keyword), List::size);
+    }
+
+    public ArrayList<Product> searchProducts(ProductQuery query) throws SQLException {
+        return measure("searchProducts", new Object[]{query}, () -> delegate.searchProducts(query), List::size);
+    }
+
+    public Product searchByProductId(String productId) throws SQLException {
+        return measure("searchByProductId", new Object[]{productId}, () -> delegate.searchByProductId(productId),
+                product -> product == null ? 0 : 1);
+    }
+
+    public ArrayList<Product> purchaseStocks(ArrayList<Product> proList) throws SQLException {
+        // params: productID x quantity, rows: the products of the trolley that could not be bought
+        Object[] params = proList.stream().map(p -> p.getProductId() + " x " + p.getOrderedQuantity()).toArray();
+        return measure("purchaseStocks", params, () -> delegate.purchaseStocks(proList), List::size);
+    }
+
+    public void updateProduct(String id, String des, double price, String imageName, int stock) throws SQLException {
+        measure("updateProduct", new Object[]{id, des, price, imageName, stock}, () -> {
+            delegate.updateProduct(id, des, price, imageName, stock);
+            return null;
+        }, none -> 1);
+    }
+
+    public void deleteProduct(String id) throws SQLException {
+        measure("deleteProduct", new Object[]{id}, () -> {
+            delegate.deleteProduct(id);
+            return null;
+        }, none -> 1);
+    }
+
+    public void insertNewProduct(String id, String des, double price, String image, int stock) throws SQLException {
+        measure("insertNewProduct", new Object[]{id, des, price, image, stock}, () -> {
+            delegate.insertNewProduct(id, des, price, image, stock);
+            return null;
+        }, none -> 1);
+    }
+
+    public boolean isProIdAvailable(String productId) throws SQLException {
+        return measure("isProIdAvailable", new Object[]{productId}, () -> delegate.isProIdAvailable(productId),
+                available -> 0);
+    }
+
+    public Stream<Product> scanProducts(int fetchSize) throws SQLException {
+        MethodStats stats = statsByMethod.computeIfAbsent("scanProducts", m -> new MethodStats());
+        return measure("scanProducts", new Object[]{fetchSize}, () -> delegate.scanProducts(fetchSize), stream -> 0)
+                .peek(product -> stats.rows.increment());
+    }
+
+    public void setHotProduct(String productId, boolean hot) throws SQLException {
+        delegate.setHotProduct(productId, hot);
+    }
+
+    public boolean isHotProduct(String productId) {
+        return delegate.isHotProduct(productId);
+    }
+
+    // DatabaseRWStatsMXBean
+    public List<MethodLatency> getMethodLatencies() {
+        List<MethodLatency> snapshots = new ArrayList<>();
+        for (Map.Entry<String, MethodStats> entry : statsByMethod.entrySet()) {
+            snapshots.add(new MethodLatency(entry.getKey(), entry.getValue()));
+        }
+        return snapshots;
+    }
+
+    public long getSlowCallCount() {
+        return slowCallCount.sum();
+    }
+
+    public long getSlowQueryThresholdMillis() {
+        return slowQueryThresholdMillis;
+    }
+
+    public void setSlowQueryThresholdMillis(long millis) {
+        slowQueryThresholdMillis = millis;
+    }
+
+    public void reset() {
+        statsByMethod.clear();
+        slowCallCount.reset();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder summary = new StringBuilder("InstrumentedDatabaseRW[slow>=" + slowQueryThresholdMillis
+                + "ms, slowCalls=" + getSlowCallCount() + "]");
+        for (MethodLatency latency : getMethodLatencies()) {
+            summary.append(System.lineSeparator()).append("  ").append(latency);
+        }
+        return summary.toString();
+    }
+}
@@ -0,0 +1,343 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.utility.EventLog;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * The JournaledRW class is a decorator around DerbyRW for sale events: it takes Derby off the checkout path
+ * while keeping every sale durable.
+ *
+ * How it works:
+ * - At start-up the stock of every product is loaded into in-memory counters, which from then on are
+ *   the authoritative stock. purchaseStocks checks and reduces the counters (all-or-nothing, locking the
+ *   counters of a trolley in product ID order like InMemoryRW), then appends the purchase to a StockJournal
+ *   and returns once the journal is forced to disk. Many checkouts share one fsync.
+ * - Every flushMillis a flusher thread applies the journalled purchases to ProductTable in one transaction,
+ *   together with the sequence number of the last one applied (table StockJournalState).
+ *   When the table has caught up, the journal file is emptied.
+ * - At start-up, journal entries newer than StockJournalState.lastSeq are applied first, so purchases made
+ *   before a crash are never lost and never applied twice.
+ * - Reads go to the database, with the stock replaced by the counter values.
+ * - Warehouse writes (update, delete) wait for in-flight purchases, flush the journal, then write the row
+ *   and reset its counter.
+ *
+ * Selected from DatabaseRWFactory with -Dhappyshop.storage=journal.
+ * Only one JVM may use the journal at a time.
+ */
+
+public class JournaledRW implements DatabaseRW {
+
+    private static final String CREATE_STATE_SQL =
+            "CREATE TABLE StockJournalState(id INT PRIMARY KEY, lastSeq BIGINT NOT NULL)";
+    private static final String DECREMENT_SQL = "UPDATE ProductTable SET inStock = inStock - ? WHERE productID = ?";
+    private static final String SET_LAST_SEQ_SQL = "UPDATE StockJournalState SET lastSeq = ? WHERE id = 1";
+
+    // the authoritative stock of one product
+    private static class Counter {
+        final ReentrantLock lock = new ReentrantLock();
+        int stock;
+
+        Counter(int stock) {
+            this.stock = stock;
+        }
+    }
+
+    private final DatabaseRW delegate;
+    private final ConnectionPool connectionPool;
+    private final StockJournal journal;
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ProductChangeNotifier changeNotifier = ProductChangeNotifier.getNotifier();
+
+    // purchases (decrement + journal append) hold the read lock, warehouse writes the write lock,
+    // so no journalled purchase is still in flight when a row is overwritten
+    private final ReentrantReadWriteLock purchaseLock = new ReentrantReadWriteLock();
+    private final Object flushLock = new Object();
+    private final List<StockJournal.Entry> unappliedEntries = new ArrayList<>(); // guarded by flushLock
+    private long lastAppliedSeq; // guarded by flushLock
+    private final ScheduledExecutorService flusher;
+
+    public JournaledRW(DatabaseRW delegate, ConnectionPool connectionPool, Path journalPath,
+                       long fsyncWindowMillis, long flushMillis) throws SQLException {
+        this.delegate = delegate;
+        this.connectionPool = connectionPool;
+
+        long lastSeq = readLastSeq();
+        try {
+            journal = new StockJournal(journalPath, fsyncWindowMillis, lastSeq);
+        } catch (IOException e) {
+            throw new SQLException("Could not open stock journal " + journalPath, e);
+        }
+        List<StockJournal.Entry> replay = journal.getRecoveredEntries().stream()
+                .filter(entry -> entry.seq() > lastSeq).toList();
+        if (!replay.isEmpty()) {
+            applyToTable(replay);
+            EventLog.info("Stock journal: replayed {} purchases over ProductTable", replay.size());
+        }
+        lastAppliedSeq = journal.getLastSeq();
+        truncateJournal(lastAppliedSeq);
+
+        try (Stream<Product> products = delegate.scanProducts(500)) {
+            products.forEach(product -> counters.put(product.getProductId(), new Counter(product.getStockQuantity())));
+        }
+
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "StockJournal-flusher");
+            t.setDaemon(true); // must not keep the JVM alive
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flushQuietly, "StockJournal-final-flush"));
+    }
+
+    // Creates StockJournalState on first use and returns the sequence number of the last applied purchase
+    private long readLastSeq() throws SQLException {
+        try (Connection conn = connectionPool.getConnection();
+             Statement stmt = conn.createStatement()) {
+            try {
+                stmt.executeUpdate(CREATE_STATE_SQL);
+                stmt.executeUpdate("INSERT INTO StockJournalState VALUES (1, 0)");
+            } catch (SQLException e) {
+                if (!"X0Y32".equals(e.getSQLState())) { // X0Y32 = table already exists
+                    throw e;
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT lastSeq FROM StockJournalState WHERE id = 1")) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    /**
+     * Reduces the counters of every product in the trolley, or of none of them, and returns once the
+     * purchase is in the journal on disk.
+     * Returns the trolley products that are short of stock (or no longer exist), empty if the purchase succeeded.
+     * @throws SQLException if the journal cannot be written, nothing is bought then
+     */
+    public ArrayList<Product> purchaseStocks(ArrayList<Product> proList) throws SQLException {
+        // total quantity wanted per product, in product ID order (the lock order)
+        TreeMap<String, Integer> wanted = new TreeMap<>();
+        for (Product product : proList) {
+            wanted.merge(product.getProductId(), product.getOrderedQuantity(), Integer::sum);
+        }
+
+        purchaseLock.readLock().lock();
+        try {
+            Set<String> shortIds = takeFromCounters(wanted);
+            if (shortIds.isEmpty()) {
+                try {
+                    journal.append(wanted);
+                } catch (IOException e) {
+                    giveBackToCounters(wanted);
+                    throw new SQLException("Could not write stock journal: " + e.getMessage(), e);
+                }
+            }
+            ArrayList<Product> insufficientProducts = new ArrayList<>();
+            for (Product product : proList) {
+                if (shortIds.contains(product.getProductId())) {
+                    insufficientProducts.add(product);
+                }
+            }
+            if (insufficientProducts.isEmpty()) {
+                changeNotifier.notifyStockPurchased(proList);
+            }
+            return insufficientProducts;
+        } finally {
+            purchaseLock.readLock().unlock();
+        }
+    }
+
+    private Set<String> takeFromCounters(TreeMap<String, Integer> wanted) {
+        List<Counter> locked = new ArrayList<>();
+        Set<String> shortIds = new HashSet<>();
+        try {
+            for (Map.Entry<String, Integer> entry : wanted.entrySet()) {
+                Counter counter = counters.get(entry.getKey());
+                if (counter == null) {
+                    shortIds.add(entry.getKey());
+                    continue;
+                }
+                counter.lock.lock();
+                locked.add(counter);
+                if (counter.stock < entry.getValue()) {
+                    shortIds.add(entry.getKey());
+                }
+            }
+            if (shortIds.isEmpty()) {
+                for (Map.Entry<String, Integer> entry : wanted.entrySet()) {
+                    counters.get(entry.getKey()).stock -= entry.getValue();
+                }
+            }
+        } finally {
+            for (Counter counter : locked) {
+                counter.lock.unlock();
+            }
+        }
+        return shortIds;
+    }
+
+    private void giveBackToCounters(Map<String, Integer> taken) {
+        for (Map.Entry<String, Integer> entry : taken.entrySet()) {
+            Counter counter = counters.get(entry.getKey());
+            counter.lock.lock();
+            try {
+                counter.stock += entry.getValue();
+            } finally {
+                counter.lock.unlock();
+            }
+        }
+    }
+
+    public void updateProduct(String id, String des, double price, String imageName, int stock) throws SQLException {
+        purchaseLock.writeLock().lock();
+        try {
+            flush(); // the row must hold every journalled purchase before it is overwritten
+            delegate.updateProduct(id, des, price, imageName, stock);
+            Counter counter = counters.get(id);
+            if (counter != null) {
+                counter.stock = stock;
+            }
+        } finally {
+            purchaseLock.writeLock().unlock();
+        }
+    }
+
+    public void deleteProduct(String id) throws SQLException {
+        purchaseLock.writeLock().lock();
+        try {
+            flush();
+            delegate.deleteProduct(id);
+            counters.remove(id);
+        } finally {
+            purchaseLock.writeLock().unlock();
+        }
+    }
+
+    public void insertNewProduct(String id, String des, double price, String image, int stock) throws SQLException {
+        delegate.insertNewProduct(id, des, price, image, stock);
+        counters.put(id, new Counter(stock));
+    }
+
+    public boolean isProIdAvailable(String productId) throws SQLException {
+        return delegate.isProIdAvailable(productId);
+    }
+
+    // Reads go to the database, then the stock is replaced by the counter value
+    public ArrayList<Product> searchProduct(String keyword) throws SQLException {
+        ArrayList<Product> products = delegate.searchProduct(keyword);
+        products.replaceAll(this::withCounterStock);
+        return products;
+    }
+
+    public ArrayList<Product> searchProducts(ProductQuery query) throws SQLException {
+        ArrayList<Product> products = delegate.searchProducts(query);
+        products.replaceAll(this::withCounterStock);
+        if (query.isInStockOnly()) {
+            products.removeIf(product -> product.getStockQuantity() <= 0); // the row may not be flushed yet
+        }
+        return products;
+    }
+
+    public Product searchByProductId(String productId) throws SQLException {
+        return withCounterStock(delegate.searchByProductId(productId));
+    }
+
+    public Stream<Product> scanProducts(int fetchSize) throws SQLException {
+        return delegate.scanProducts(fetchSize).map(this::withCounterStock);
+    }
+
+    private Product withCounterStock(Product product) {
+        Counter counter = product == null ? null : counters.get(product.getProductId());
+        if (counter == null) {
+            return product;
+        }
+        int stock;
+        counter.lock.lock();
+        try {
+            stock = counter.stock;
+        } finally {
+            counter.lock.unlock();
+        }
+        return new Product(product.getProductId(), product.getProductDescription(), product.getProductImageName(),
+                product.getUnitPrice(), stock);
+    }
+
+    /**
+     * Applies every journalled purchase to ProductTable and empties the journal file if it has caught up.
+     */
+    public void flush() throws SQLException {
+        synchronized (flushLock) {
+            unappliedEntries.addAll(journal.drainWritten());
+            if (!unappliedEntries.isEmpty()) {
+                applyToTable(unappliedEntries); // on failure the entries stay, and are retried at the next flush
+                lastAppliedSeq = unappliedEntries.get(unappliedEntries.size() - 1).seq();
+                unappliedEntries.clear();
+            }
+            truncateJournal(lastAppliedSeq);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (SQLException e) {
+            EventLog.warn("Stock journal flush failed, retrying at the next flush: {}", e.getMessage());
+        }
+    }
+
+    // Applies the purchases (in sequence order) and records the last sequence number, in one transaction
+    private void applyToTable(List<StockJournal.Entry> entries) throws SQLException {
+        TreeMap<String, Integer> totals = new TreeMap<>(); // product ID order, the order DerbyRW locks rows in
+        for (StockJournal.Entry entry : entries) {
+            entry.quantities().forEach((id, quantity) -> totals.merge(id, quantity, Integer::sum));
+        }
+        try (Connection conn = connectionPool.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement decrement = conn.prepareStatement(DECREMENT_SQL);
+                 PreparedStatement setLastSeq = conn.prepareStatement(SET_LAST_SEQ_SQL)) {
+                for (Map.Entry<String, Integer> total : totals.entrySet()) {
+                    decrement.setInt(1, total.getValue());
+                    decrement.setString(2, total.getKey());
+                    decrement.addBatch();
+                }
+                decrement.executeBatch();
+                setLastSeq.setLong(1, entries.get(entries.size() - 1).seq());
+                setLastSeq.executeUpdate();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    private void truncateJournal(long flushedSeq) throws SQLException {
+        try {
+            journal.truncateIfFlushed(flushedSeq);
+        } catch (IOException e) {
+            throw new SQLException("Could not truncate stock journal: " + e.getMessage(), e);
+        }
+    }
+}
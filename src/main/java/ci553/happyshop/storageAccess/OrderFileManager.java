@@ -1,6 +1,7 @@
 package ci553.happyshop.storageAccess;
 
 import ci553.happyshop.orderManagement.OrderState;
+import ci553.happyshop.utility.EventLog;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
@@ -53,11 +54,11 @@ public class OrderFileManager {
             try (BufferedWriter writer = Files.newBufferedWriter(path)) {
                 writer.write(orderDetail);
                 writer.newLine();
-                System.out.println(path + " created");
+                EventLog.debug("{} created", path);
             }
         }
         else{
-            System.out.println(path + " already exists");
+            EventLog.warn("{} already exists", path);
         }
     }
 
@@ -76,7 +77,7 @@ public class OrderFileManager {
             return true;
         }
         else{
-            System.out.println(sourcePath + " not found in ");
+            EventLog.warn("{} not found", sourcePath);
             return false;
         }
     }
@@ -112,7 +113,7 @@ public class OrderFileManager {
         try {
             Files.move(tempFilePath, sourcePath, StandardCopyOption.REPLACE_EXISTING);
         } catch (IOException e) {
-            System.err.println("Move failed: " + e.getMessage());
+            EventLog.error("Move failed: {}", e.getMessage());
             Files.deleteIfExists(tempFilePath); // Delete temp file ONLY IF move failed and it still exists
         }
     }
@@ -0,0 +1,34 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+
+/**
+ * The ProductChangeListener interface is implemented by in-memory structures that mirror the ProductTable
+ * (eg the product name index) and must be kept up to date when products change.
+ *
+ * Listeners register with the ProductChangeNotifier, and the DatabaseRW implementations notify it
+ * after each successful write. Every method has an empty default, so a listener only overrides
+ * the changes it cares about.
+ */
+
+public interface ProductChangeListener {
+
+    /**
+     * A product was inserted, or its details (description, price, image or stock) were edited.
+     * @param product the product as it is now stored
+     */
+    default void productSaved(Product product) {}
+
+    /**
+     * A product was deleted.
+     * @param productId the ID of the deleted product
+     */
+    default void productDeleted(String productId) {}
+
+    /**
+     * Stock of a product was reduced by a committed purchase.
+     * @param productId the ID of the purchased product
+     * @param quantity  the number of units taken from stock
+     */
+    default void stockPurchased(String productId, int quantity) {}
+}
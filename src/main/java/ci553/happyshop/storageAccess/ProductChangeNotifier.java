@@ -0,0 +1,56 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The ProductChangeNotifier tells registered ProductChangeListeners about committed product changes.
+ * It is a singleton, so that all DatabaseRW instances (one per client) report to the same listeners.
+ *
+ * It follows the same Observer pattern as OrderHub: DatabaseRW implementations call the notify methods
+ * after a write has been committed, and every registered listener is called in turn.
+ * Listeners are called on the writing thread, so they must be quick and must not call back into the database.
+ */
+
+public class ProductChangeNotifier {
+    private static final ProductChangeNotifier notifier = new ProductChangeNotifier(); // singleton instance
+
+    // read on every write, changed only when a listener registers, so a copy-on-write list fits well
+    private final List<ProductChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    //Singleton pattern
+    private ProductChangeNotifier() {}
+    public static ProductChangeNotifier getNotifier() {
+        return notifier;
+    }
+
+    public void register(ProductChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void unregister(ProductChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    public void notifyProductSaved(Product product) {
+        for (ProductChangeListener listener : listeners) {
+            listener.productSaved(product);
+        }
+    }
+
+    public void notifyProductDeleted(String productId) {
+        for (ProductChangeListener listener : listeners) {
+            listener.productDeleted(productId);
+        }
+    }
+
+    public void notifyStockPurchased(List<Product> purchasedProducts) {
+        for (ProductChangeListener listener : listeners) {
+            for (Product product : purchasedProducts) {
+                listener.stockPurchased(product.getProductId(), product.getOrderedQuantity());
+            }
+        }
+    }
+}
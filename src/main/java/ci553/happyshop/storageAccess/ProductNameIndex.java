@@ -0,0 +1,289 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.utility.EventLog;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * The ProductNameIndex class is an in-memory inverted index over ProductTable.description,
+ * used to answer "description contains ..." searches without a LIKE '%...%' table scan.
+ *
+ * Why trigrams:
+ * Name searches have substring semantics (searching "sb dr" must find "USB drive"), which a word index
+ * cannot answer. So every lower-cased description is split into its overlapping 3-character grams
+ * ("usb drive" -> "usb", "sb ", "b d", " dr", ...) and each gram maps to the rows that contain it.
+ * The 1- and 2-character grams are kept as well, for searches too short to have a trigram.
+ *
+ * How a search works:
+ * - text of 3+ characters: take the posting lists of all the text's trigrams, intersect them starting from
+ *   the shortest one, then check the few remaining candidates with String.contains (so there are no false matches).
+ * - text of 1-2 characters: the text is a gram itself, so its posting list is the answer.
+ *
+ * Maintenance:
+ * The index registers with ProductChangeNotifier. An inserted or edited product gets a new row and its old row
+ * (if any) is marked dead; a deleted product's row is marked dead. When more than half of the rows are dead,
+ * the index is compacted. Row numbers only ever grow between compactions, so every posting list stays sorted.
+ *
+ * The index is built from a full catalogue scan the first time it is needed (ensureBuilt). The scan runs without
+ * the index lock, so writes are not held up by it; changes notified during the scan are recorded and applied
+ * on top of the scanned rows, so none is lost between the scan and the index going live.
+ */
+
+public class ProductNameIndex implements ProductChangeListener {
+    private static final int GRAM = 3;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ReentrantLock buildLock = new ReentrantLock(); // one ensureBuilt scan at a time
+    private volatile boolean built = false; // only set under the write lock
+    private boolean building = false; // guarded by lock, changes are recorded while true
+    // changes notified during the build scan, product ID -> product as saved, or null when deleted
+    private final LinkedHashMap<String, Product> changedDuringBuild = new LinkedHashMap<>();
+
+    // opens a stream of every product, eg DatabaseRW.scanProducts
+    public interface ProductSource {
+        Stream<Product> open() throws SQLException;
+    }
+
+    // one entry per row, row numbers are positions in these arrays
+    private String[] rowIds = new String[1024];
+    private String[] rowDescriptions = new String[1024]; // lower-cased
+    private int rowCount = 0;
+    private final BitSet liveRows = new BitSet();
+    private final HashMap<String, Integer> rowOfId = new HashMap<>();
+    private final HashMap<String, IntList> postings = new HashMap<>(); // trigram -> sorted row numbers
+
+    // a growable list of primitive ints, so posting lists do not box every row number
+    private static class IntList {
+        int[] values = new int[4];
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    public boolean isBuilt() {
+        return built;
+    }
+
+    /**
+     * Builds the index from the products of the source, unless it is already built.
+     * Only one caller scans, the others wait for its build. If the scan fails the index stays unbuilt.
+     */
+    public void ensureBuilt(ProductSource source) throws SQLException {
+        if (built) {
+            return;
+        }
+        buildLock.lock();
+        try {
+            if (built) {
+                return; // built by another caller while we waited
+            }
+            setBuilding(true);
+            List<Product> products;
+            try (Stream<Product> allProducts = source.open()) {
+                products = allProducts.toList();
+            } catch (SQLException | RuntimeException e) {
+                setBuilding(false);
+                throw e;
+            }
+
+            lock.writeLock().lock();
+            try {
+                clear();
+                products.forEach(this::addRow);
+                // replay what changed while we scanned, the scan may have read the rows before the change
+                for (Map.Entry<String, Product> change : changedDuringBuild.entrySet()) {
+                    removeRow(change.getKey());
+                    if (change.getValue() != null) {
+                        addRow(change.getValue());
+                    }
+                }
+                building = false;
+                changedDuringBuild.clear();
+                built = true;
+                EventLog.info("Product name index built: {} products, {} grams", rowCount, postings.size());
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            buildLock.unlock();
+        }
+    }
+
+    private void setBuilding(boolean building) {
+        lock.writeLock().lock();
+        try {
+            this.building = building;
+            changedDuringBuild.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the IDs of all products whose description contains the text (ignoring case), in product ID order.
+     */
+    public List<String> findIdsContaining(String text) {
+        String lowerText = text.toLowerCase();
+        List<String> ids = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            if (lowerText.length() < GRAM) {
+                IntList list = postings.get(lowerText); // the text is a gram itself, no need to check it
+                for (int i = 0; list != null && i < list.size; i++) {
+                    if (liveRows.get(list.values[i])) {
+                        ids.add(rowIds[list.values[i]]);
+                    }
+                }
+            } else {
+                for (int row : candidateRows(lowerText)) {
+                    if (liveRows.get(row) && rowDescriptions[row].contains(lowerText)) {
+                        ids.add(rowIds[row]);
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        ids.sort(Comparator.naturalOrder());
+        return ids;
+    }
+
+    // Intersects the posting lists of all trigrams of the text, shortest list first.
+    private int[] candidateRows(String lowerText) {
+        List<IntList> lists = new ArrayList<>();
+        for (String gram : gramsOf(lowerText, GRAM)) {
+            IntList list = postings.get(gram);
+            if (list == null) {
+                return new int[0]; // a trigram that no description contains
+            }
+            lists.add(list);
+        }
+        lists.sort(Comparator.comparingInt(list -> list.size));
+
+        int[] result = Arrays.copyOf(lists.get(0).values, lists.get(0).size);
+        int resultSize = result.length;
+        for (int i = 1; i < lists.size() && resultSize > 0; i++) {
+            IntList other = lists.get(i);
+            int kept = 0;
+            int j = 0;
+            for (int k = 0; k < resultSize; k++) { // both lists are sorted, so a merge walk is enough
+                while (j < other.size && other.values[j] < result[k]) {
+                    j++;
+                }
+                if (j < other.size && other.values[j] == result[k]) {
+                    result[kept++] = result[k];
+                }
+            }
+            resultSize = kept;
+        }
+        return Arrays.copyOf(result, resultSize);
+    }
+
+    private static Set<String> gramsOf(String lowerText, int length) {
+        Set<String> grams = new LinkedHashSet<>();
+        for (int i = 0; i + length <= lowerText.length(); i++) {
+            grams.add(lowerText.substring(i, i + length));
+        }
+        return grams;
+    }
+
+    @Override
+    public void productSaved(Product product) {
+        lock.writeLock().lock();
+        try {
+            if (building) {
+                changedDuringBuild.put(product.getProductId().trim(), product);
+            } else if (built) {
+                removeRow(product.getProductId());
+                addRow(product);
+                compactIfMostlyDead();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void productDeleted(String productId) {
+        lock.writeLock().lock();
+        try {
+            if (building) {
+                changedDuringBuild.put(productId.trim(), null);
+            } else if (built) {
+                removeRow(productId);
+                compactIfMostlyDead();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Appends a row for the product and adds it to the posting list of each of its 1, 2 and 3 character grams.
+    private void addRow(Product product) {
+        if (rowCount == rowIds.length) {
+            rowIds = Arrays.copyOf(rowIds, rowCount * 2);
+            rowDescriptions = Arrays.copyOf(rowDescriptions, rowCount * 2);
+        }
+        String id = product.getProductId().trim();
+        String description = product.getProductDescription() == null ? "" : product.getProductDescription().toLowerCase();
+        int row = rowCount++;
+        rowIds[row] = id;
+        rowDescriptions[row] = description;
+        liveRows.set(row);
+        rowOfId.put(id, row);
+        for (int length = 1; length <= GRAM; length++) {
+            for (String gram : gramsOf(description, length)) {
+                postings.computeIfAbsent(gram, g -> new IntList()).add(row);
+            }
+        }
+    }
+
+    // Marks the product's row dead, its postings are dropped at the next compaction.
+    private void removeRow(String productId) {
+        Integer row = rowOfId.remove(productId.trim());
+        if (row != null) {
+            liveRows.clear(row);
+        }
+    }
+
+    private void compactIfMostlyDead() {
+        int liveCount = liveRows.cardinality();
+        if (rowCount > 1024 && liveCount < rowCount / 2) {
+            String[] ids = Arrays.copyOf(rowIds, rowCount);
+            String[] descriptions = Arrays.copyOf(rowDescriptions, rowCount);
+            BitSet live = (BitSet) liveRows.clone();
+            clear();
+            for (int row = live.nextSetBit(0); row >= 0; row = live.nextSetBit(row + 1)) {
+                addRow(new Product(ids[row], descriptions[row], null, 0, 0));
+            }
+        }
+    }
+
+    private void clear() {
+        rowIds = new String[1024];
+        rowDescriptions = new String[1024];
+        rowCount = 0;
+        liveRows.clear();
+        rowOfId.clear();
+        postings.clear();
+    }
+}
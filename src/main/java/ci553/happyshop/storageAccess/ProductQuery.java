@@ -0,0 +1,231 @@
+package ci553.happyshop.storageAccess;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The ProductQuery class describes a filtered, sorted and optionally limited product search
+ * in a database-neutral way, and compiles itself into one parameterised SQL statement.
+ *
+ * Filters (all optional, combined with AND):
+ * - productId:            the product ID equals the given value, ignoring case
+ * - productIdIn:          the product ID is one of the given values (eg candidates from the ProductNameIndex)
+ * - descriptionContains:  the description contains each given text, ignoring case (may be given several times)
+ * - descriptionContainsAny: the description contains at least one of the given texts, ignoring case
+ *                         (eg the spellings of one typed word in a fuzzy search, may be given several times)
+ * - minPrice / maxPrice:  the unit price is within the range (inclusive)
+ * - inStockOnly:          the stock quantity is greater than 0
+ *
+ * Sorting and limiting:
+ * - orderBy:  PRODUCT_ID (default), PRICE_ASC or PRICE_DESC, ties are broken by product ID
+ * - limit:    at most this many rows are returned (FETCH FIRST ? ROWS ONLY), must be greater than 0
+ *
+ * Example Usage:
+ *     ProductQuery query = new ProductQuery.Builder()
+ *             .descriptionContains("usb")
+ *             .priceRange(5.0, 10.0)
+ *             .inStockOnly(true)
+ *             .build();
+ *     ArrayList<Product> products = databaseRW.searchProducts(query);
+ *
+ * Only the values are bound as parameters, so queries with the same shape produce the same SQL text
+ * and can share a cached prepared statement.
+ */
+
+public class ProductQuery {
+    public enum OrderBy {
+        PRODUCT_ID("productID"),
+        PRICE_ASC("unitPrice, productID"),
+        PRICE_DESC("unitPrice DESC, productID");
+
+        private final String sql;
+
+        OrderBy(String sql) {
+            this.sql = sql;
+        }
+    }
+
+    private String productId;
+    private List<String> productIdIn;
+    private final List<List<String>> descriptionContains = new ArrayList<>(); // each: contains one of these
+    private Double minPrice;
+    private Double maxPrice;
+    private boolean inStockOnly = false;
+    private OrderBy orderBy = OrderBy.PRODUCT_ID;
+    private Integer limit;
+
+    public static class Builder {
+        private final ProductQuery query = new ProductQuery();
+
+        public Builder productId(String productId) {
+            query.productId = productId;
+            return this;
+        }
+
+        public Builder productIdIn(Collection<String> productIds) {
+            query.productIdIn = new ArrayList<>(productIds);
+            return this;
+        }
+
+        public Builder descriptionContains(String text) {
+            query.descriptionContains.add(List.of(text));
+            return this;
+        }
+
+        public Builder descriptionContainsAny(Collection<String> texts) {
+            query.descriptionContains.add(List.copyOf(texts));
+            return this;
+        }
+
+        public Builder priceRange(Double min, Double max) {
+            query.minPrice = min;
+            query.maxPrice = max;
+            return this;
+        }
+
+        public Builder inStockOnly(boolean inStock) {
+            query.inStockOnly = inStock;
+            return this;
+        }
+
+        public Builder orderBy(OrderBy orderBy) {
+            query.orderBy = orderBy;
+            return this;
+        }
+
+        public Builder limit(Integer limit) {
+            if (limit != null && limit <= 0) {
+                throw new IllegalArgumentException("limit must be greater than 0, was " + limit);
+            }
+            query.limit = limit;
+            return this;
+        }
+
+        public ProductQuery build() {
+            return query;
+        }
+    }
+
+    public String getProductId() { return productId; }
+    public List<String> getProductIdIn() { return productIdIn == null ? null : Collections.unmodifiableList(productIdIn); }
+    // Each entry is one filter: the description contains at least one of its texts (one text for descriptionContains)
+    public List<List<String>> getDescriptionContains() { return Collections.unmodifiableList(descriptionContains); }
+    public Double getMinPrice() { return minPrice; }
+    public Double getMaxPrice() { return maxPrice; }
+    public boolean isInStockOnly() { return inStockOnly; }
+    public OrderBy getOrderBy() { return orderBy; }
+    public Integer getLimit() { return limit; }
+
+    /**
+     * Builds the SQL statement for this query, with a '?' for every value.
+     * eg. SELECT * FROM ProductTable WHERE LOWER(description) LIKE ? ESCAPE '\' AND unitPrice >= ?
+     *     ORDER BY productID FETCH FIRST ? ROWS ONLY
+     */
+    public String toSql() {
+        List<String> conditions = new ArrayList<>();
+        if (productId != null) {
+            conditions.add("UPPER(productID) = UPPER(?)");
+        }
+        if (productIdIn != null) {
+            // padded to a power of two, so only a few different SQL strings are ever prepared
+            conditions.add(productIdIn.isEmpty() ? "1 = 0"
+                    : "productID IN (" + "?, ".repeat(paddedSize(productIdIn.size()) - 1) + "?)");
+        }
+        String like = "LOWER(description) LIKE ? ESCAPE '\\'";
+        for (List<String> texts : descriptionContains) {
+            if (texts.isEmpty()) {
+                conditions.add("1 = 0");
+            } else if (texts.size() == 1) {
+                conditions.add(like);
+            } else { // padded to a power of two like productIdIn
+                conditions.add("(" + (like + " OR ").repeat(paddedSize(texts.size()) - 1) + like + ")");
+            }
+        }
+        if (minPrice != null) {
+            conditions.add("unitPrice >= ?");
+        }
+        if (maxPrice != null) {
+            conditions.add("unitPrice <= ?");
+        }
+        if (inStockOnly) {
+            conditions.add("inStock > 0");
+        }
+
+        StringBuilder sql = new StringBuilder("SELECT * FROM ProductTable");
+        if (!conditions.isEmpty()) {
+            sql.append(" WHERE ").append(String.join(" AND ", conditions));
+        }
+        sql.append(" ORDER BY ").append(orderBy.sql);
+        if (limit != null) {
+            sql.append(" FETCH FIRST ? ROWS ONLY"); // bound, so every limit shares one SQL text
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Binds the values of this query to a statement prepared from toSql(), in the same order.
+     */
+    public void bindParameters(PreparedStatement stmt) throws SQLException {
+        int index = 1;
+        if (productId != null) {
+            stmt.setString(index++, productId);
+        }
+        if (productIdIn != null && !productIdIn.isEmpty()) {
+            int paddedSize = paddedSize(productIdIn.size());
+            for (int i = 0; i < paddedSize; i++) { // pad by repeating the last ID
+                stmt.setString(index++, productIdIn.get(Math.min(i, productIdIn.size() - 1)));
+            }
+        }
+        for (List<String> texts : descriptionContains) {
+            int paddedSize = texts.isEmpty() ? 0 : paddedSize(texts.size());
+            for (int i = 0; i < paddedSize; i++) { // pad by repeating the last text
+                String text = texts.get(Math.min(i, texts.size() - 1));
+                stmt.setString(index++, "%" + escapeLike(text.toLowerCase()) + "%");
+            }
+        }
+        if (minPrice != null) {
+            stmt.setDouble(index++, minPrice);
+        }
+        if (maxPrice != null) {
+            stmt.setDouble(index++, maxPrice);
+        }
+        if (limit != null) {
+            stmt.setInt(index++, limit);
+        }
+    }
+
+    /**
+     * Returns a copy of this query that is also restricted to the given product IDs.
+     */
+    public ProductQuery restrictedTo(Collection<String> productIds) {
+        ProductQuery copy = new ProductQuery();
+        copy.productId = productId;
+        copy.productIdIn = new ArrayList<>(productIds);
+        copy.descriptionContains.addAll(descriptionContains);
+        copy.minPrice = minPrice;
+        copy.maxPrice = maxPrice;
+        copy.inStockOnly = inStockOnly;
+        copy.orderBy = orderBy;
+        copy.limit = limit;
+        return copy;
+    }
+
+    // The smallest power of two that is >= size
+    private static int paddedSize(int size) {
+        return size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+    }
+
+    // Escapes the LIKE wildcards, so that eg searching for "50%" matches the text "50%" literally
+    private static String escapeLike(String text) {
+        return text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    @Override
+    public String toString() {
+        return toSql();
+    }
+}
@@ -0,0 +1,553 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.utility.EventLog;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * The SearchSuggestionIndex class completes what a customer is typing into the words of the catalogue:
+ * every word of every product description and every product ID is a term, kept in a compact prefix trie.
+ *
+ * Ranking:
+ * A term's popularity is the number of units sold (since start-up) of the products it appears in, ties go to
+ * the term found in more products, then to alphabetical order. So "sam" suggests "Samsung" before "Samples"
+ * once Samsung products sell better.
+ *
+ * How it works:
+ * - The trie is stored in parallel primitive arrays (one char and three ints per node) rather than one object
+ *   per node, so a catalogue of hundreds of thousands of products stays within a few tens of megabytes.
+ * - Every node caches the best TOP_K terms below it, so suggest() walks the prefix and copies that list:
+ *   microseconds, however many terms start with the prefix.
+ * - A change to a term (a product added, edited or deleted, or a purchase) only clears the caches on the path
+ *   from the root to that term. They are recomputed from the children's caches by the next suggest() through them.
+ * - A term no longer in any product stays in the trie but is never suggested; the trie is rebuilt once more than
+ *   half of its terms are dead.
+ *
+ * Typo-tolerant search:
+ * fuzzyTerms(word, maxDistance, limit) finds the terms within a few edits of a misspelt word ("samsng" -> Samsung)
+ * by walking the trie with one row of the edit distance table per node (a Levenshtein automaton run over the trie):
+ * a branch is left as soon as every entry of its row is over maxDistance, so only a small part of the trie is
+ * visited. Units sold are also kept per product (unitsSoldByProduct), to rank the products found.
+ *
+ * Maintenance:
+ * The index registers with ProductChangeNotifier (see DatabaseRWFactory.getSearchSuggestionIndex) and is built
+ * from a full catalogue scan the first time a suggestion is asked for. The new trie is built in a separate
+ * index without holding the lock, so purchases are not held up by the scan; it is swapped in under the lock,
+ * and the changes notified while it was being built are applied to it then.
+ *
+ * Example Usage:
+ *     SearchSuggestionIndex index = DatabaseRWFactory.getSearchSuggestionIndex();
+ *     index.ensureBuilt(databaseRW);
+ *     List<String> suggestions = index.suggest("sam", 10); // eg [Samsung, Samples]
+ *     List<SearchSuggestionIndex.FuzzyTerm> terms = index.fuzzyTerms("cofee", 1, 10); // eg [Coffee (1 edit)]
+ */
+
+public class SearchSuggestionIndex implements ProductChangeListener {
+    public static final int TOP_K = 10; // the most suggestions one call can return
+    public static final int MAX_FUZZY_DISTANCE = 2; // the most edits fuzzyTerms allows
+
+    // A term of the catalogue and the number of edits between it and the word it was found for
+    public record FuzzyTerm(String text, int distance) {}
+
+    private static final Pattern WORD_SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final int MIN_WORD_LENGTH = 2;
+    private static final int NONE = -1;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ReentrantLock buildLock = new ReentrantLock(); // one build at a time
+    private boolean built = false;
+    private List<Runnable> changesDuringBuild; // guarded by lock, not null while a build is reading the products
+
+    // the trie, node 0 is the root, children are a linked list (firstChild, then nextSibling)
+    private char[] nodeChar = new char[1024];
+    private int[] firstChild = new int[1024];
+    private int[] nextSibling = new int[1024];
+    private int[] nodeTerm = new int[1024]; // the term ending at the node, or NONE
+    private int[][] topTerms = new int[1024][]; // null when it must be recomputed
+    private int nodeCount;
+
+    // the terms, term numbers are positions in these arrays
+    private String[] termText = new String[1024]; // as first seen in the catalogue, eg "Samsung"
+    private long[] termPopularity = new long[1024];
+    private int[] termProducts = new int[1024]; // how many products contain it, 0 = dead
+    private int[] termDescriptions = new int[1024]; // how many of them have it in their description (not only as ID)
+    private int termCount;
+    private int liveTermCount;
+    private HashMap<String, Integer> termOfKey = new HashMap<>(); // lower-cased text -> term
+    private HashMap<String, int[]> termsOfProduct = new HashMap<>(); // product ID -> its terms, ~term if ID only
+    private HashMap<String, Long> unitsSold = new HashMap<>(); // product ID -> units sold, products sold only
+
+    public SearchSuggestionIndex() {
+        clear();
+    }
+
+    public boolean isBuilt() {
+        lock.lock();
+        try {
+            return built;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Builds the index from a full scan of the DatabaseRW, unless it is built already.
+     */
+    public void ensureBuilt(DatabaseRW source) throws SQLException {
+        if (isBuilt()) {
+            return;
+        }
+        buildLock.lock();
+        try {
+            if (!isBuilt()) { // not built by another caller while we waited
+                try (Stream<Product> allProducts = source.scanProducts(500)) {
+                    build(allProducts);
+                }
+            }
+        } finally {
+            buildLock.unlock();
+        }
+    }
+
+    /**
+     * (Re)builds the index from a stream of all products. Popularity starts again from 0.
+     * The products are read into a new trie without holding the lock, then it replaces the current one
+     * and the changes notified in the meantime are applied to it.
+     */
+    public void build(Stream<Product> allProducts) {
+        buildLock.lock();
+        try {
+            setChangesDuringBuild(new ArrayList<>());
+            SearchSuggestionIndex fresh = new SearchSuggestionIndex();
+            try {
+                allProducts.forEach(fresh::addProduct);
+            } catch (RuntimeException e) {
+                setChangesDuringBuild(null);
+                throw e;
+            }
+
+            lock.lock();
+            try {
+                adopt(fresh);
+                built = true;
+                List<Runnable> changes = changesDuringBuild;
+                changesDuringBuild = null;
+                changes.forEach(Runnable::run); // the scan may have read the products before these changes
+                EventLog.info("Search suggestion index built: {} terms, {} trie nodes", liveTermCount, nodeCount);
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            buildLock.unlock();
+        }
+    }
+
+    private void setChangesDuringBuild(List<Runnable> changes) {
+        lock.lock();
+        try {
+            changesDuringBuild = changes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Takes over the trie and terms of an index built on the side
+    private void adopt(SearchSuggestionIndex other) {
+        nodeChar = other.nodeChar;
+        firstChild = other.firstChild;
+        nextSibling = other.nextSibling;
+        nodeTerm = other.nodeTerm;
+        topTerms = other.topTerms;
+        nodeCount = other.nodeCount;
+        termText = other.termText;
+        termPopularity = other.termPopularity;
+        termProducts = other.termProducts;
+        termDescriptions = other.termDescriptions;
+        termCount = other.termCount;
+        liveTermCount = other.liveTermCount;
+        termOfKey = other.termOfKey;
+        termsOfProduct = other.termsOfProduct;
+        unitsSold = other.unitsSold;
+    }
+
+    /**
+     * Returns up to limit (at most TOP_K) terms starting with the prefix (ignoring case), the most popular first.
+     */
+    public List<String> suggest(String prefix, int limit) {
+        String key = prefix.trim().toLowerCase(Locale.ROOT);
+        List<String> suggestions = new ArrayList<>();
+        if (key.isEmpty() || limit <= 0) {
+            return suggestions;
+        }
+        lock.lock();
+        try {
+            int node = 0;
+            for (int i = 0; i < key.length() && node != NONE; i++) {
+                node = findChild(node, key.charAt(i));
+            }
+            if (node == NONE) {
+                return suggestions;
+            }
+            for (int term : topTermsOf(node)) {
+                if (suggestions.size() == limit) {
+                    break;
+                }
+                suggestions.add(termText[term]);
+            }
+            return suggestions;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns up to limit terms within maxDistance edits (at most MAX_FUZZY_DISTANCE) of the word, ignoring case,
+     * the closest first, then as ranked by suggest(). An edit inserts, deletes or changes one character,
+     * or swaps two neighbouring ones, eg "cofee" and "coffe" are both 1 edit from "coffee".
+     */
+    public List<FuzzyTerm> fuzzyTerms(String word, int maxDistance, int limit) {
+        String key = word.trim().toLowerCase(Locale.ROOT);
+        int distance = Math.min(maxDistance, MAX_FUZZY_DISTANCE);
+        List<FuzzyTerm> matches = new ArrayList<>();
+        if (key.isEmpty() || distance < 0 || limit <= 0) {
+            return matches;
+        }
+        lock.lock();
+        try {
+            int[] firstRow = new int[key.length() + 1];
+            for (int j = 0; j < firstRow.length; j++) {
+                firstRow[j] = j; // the empty path is j deletions away from the first j characters
+            }
+            List<int[]> found = new ArrayList<>(); // {term, distance}
+            for (int child = firstChild[0]; child != NONE; child = nextSibling[child]) {
+                walkWithinDistance(child, key, null, firstRow, (char) 0, 0, distance, found);
+            }
+            found.sort((a, b) -> a[1] != b[1] ? Integer.compare(a[1], b[1])
+                    : ranksBefore(a[0], b[0]) ? -1 : ranksBefore(b[0], a[0]) ? 1 : 0);
+            for (int[] match : found.subList(0, Math.min(limit, found.size()))) {
+                matches.add(new FuzzyTerm(termText[match[0]], match[1]));
+            }
+            return matches;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Works out the node's row of the edit distance table from its parent's (lastRow) and grandparent's
+    // (rowBeforeLast, for swaps): row[j] is the distance between the first j characters of the key and the node's path.
+    // The children are only visited while some entry of the row can still end within maxDistance.
+    private void walkWithinDistance(int node, String key, int[] rowBeforeLast, int[] lastRow, char lastChar,
+                                    int lastRowMin, int maxDistance, List<int[]> found) {
+        char c = nodeChar[node];
+        int[] row = new int[lastRow.length];
+        row[0] = lastRow[0] + 1;
+        int rowMin = row[0];
+        for (int j = 1; j < row.length; j++) {
+            char k = key.charAt(j - 1);
+            int value = Math.min(Math.min(row[j - 1] + 1, lastRow[j] + 1), lastRow[j - 1] + (k == c ? 0 : 1));
+            if (rowBeforeLast != null && j > 1 && k == lastChar && key.charAt(j - 2) == c) {
+                value = Math.min(value, rowBeforeLast[j - 2] + 1); // swapped neighbours
+            }
+            row[j] = value;
+            rowMin = Math.min(rowMin, value);
+        }
+
+        int term = nodeTerm[node];
+        if (term != NONE && termDescriptions[term] > 0 && row[row.length - 1] <= maxDistance) {
+            found.add(new int[] {term, row[row.length - 1]});
+        }
+        // a swap in the next row can reach back to this node's parent row, so that one is checked as well
+        if (Math.min(rowMin, lastRowMin + 1) <= maxDistance) {
+            for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+                walkWithinDistance(child, key, lastRow, row, c, rowMin, maxDistance, found);
+            }
+        }
+    }
+
+    /**
+     * Returns the units sold (since the index was built) of every product that has sold any.
+     */
+    public HashMap<String, Long> unitsSoldByProduct() {
+        lock.lock();
+        try {
+            return new HashMap<>(unitsSold);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void productSaved(Product product) {
+        applyOrRecord(() -> {
+            removeProduct(product.getProductId());
+            addProduct(product);
+        });
+    }
+
+    @Override
+    public void productDeleted(String productId) {
+        applyOrRecord(() -> {
+            removeProduct(productId);
+            unitsSold.remove(productId.trim());
+            rebuildIfMostlyDead();
+        });
+    }
+
+    @Override
+    public void stockPurchased(String productId, int quantity) {
+        applyOrRecord(() -> {
+            int[] terms = termsOfProduct.get(productId.trim());
+            if (terms != null) {
+                unitsSold.merge(productId.trim(), (long) quantity, Long::sum);
+                for (int entry : terms) {
+                    int term = termOf(entry);
+                    termPopularity[term] += quantity;
+                    invalidatePathTo(termText[term].toLowerCase(Locale.ROOT));
+                }
+            }
+        });
+    }
+
+    // Applies a change to the built index, or keeps it for the trie being built (nothing to do before the first build)
+    private void applyOrRecord(Runnable change) {
+        lock.lock();
+        try {
+            if (changesDuringBuild != null) {
+                changesDuringBuild.add(change);
+            } else if (built) {
+                change.run();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The distinct words of a product's description, lower-cased key -> the word as written
+    // ("TV" and "tv" in one description count once)
+    private static Map<String, String> wordsOf(Product product) {
+        Map<String, String> words = new LinkedHashMap<>();
+        if (product.getProductDescription() != null) {
+            for (String word : WORD_SEPARATORS.split(product.getProductDescription())) {
+                if (word.length() >= MIN_WORD_LENGTH) {
+                    words.putIfAbsent(word.toLowerCase(Locale.ROOT), word);
+                }
+            }
+        }
+        return words;
+    }
+
+    // Adds the product's terms: the words of its description and its ID
+    private void addProduct(Product product) {
+        String id = product.getProductId().trim();
+        Map<String, String> words = wordsOf(product);
+        int[] terms = new int[words.size() + 1];
+        int i = 0;
+        for (Map.Entry<String, String> word : words.entrySet()) {
+            terms[i++] = addTermUse(word.getValue(), word.getKey(), true);
+        }
+        String idKey = id.toLowerCase(Locale.ROOT);
+        if (!words.containsKey(idKey)) {
+            terms[i++] = ~addTermUse(id, idKey, false);
+        }
+        termsOfProduct.put(id, Arrays.copyOf(terms, i));
+    }
+
+    private void removeProduct(String productId) {
+        int[] terms = termsOfProduct.remove(productId.trim());
+        if (terms == null) {
+            return;
+        }
+        for (int entry : terms) {
+            int term = termOf(entry);
+            if (entry >= 0) {
+                termDescriptions[term]--;
+            }
+            if (--termProducts[term] == 0) {
+                liveTermCount--;
+            }
+            invalidatePathTo(termText[term].toLowerCase(Locale.ROOT));
+        }
+    }
+
+    // The term of an entry of termsOfProduct (ID-only terms are stored as ~term)
+    private static int termOf(int entry) {
+        return entry >= 0 ? entry : ~entry;
+    }
+
+    // Counts one more product containing the term, adding the term (and its trie path) if it is new
+    private int addTermUse(String text, String key, boolean inDescription) {
+        Integer existing = termOfKey.get(key);
+        int term;
+        if (existing != null) {
+            term = existing;
+        } else {
+            term = newTerm(text);
+            termOfKey.put(key, term);
+            int node = 0;
+            for (int i = 0; i < key.length(); i++) {
+                int child = findChild(node, key.charAt(i));
+                node = child != NONE ? child : newChild(node, key.charAt(i));
+            }
+            nodeTerm[node] = term;
+        }
+        if (termProducts[term]++ == 0) {
+            liveTermCount++;
+            termText[term] = text; // a revived term takes the casing of its new product
+        }
+        if (inDescription) {
+            termDescriptions[term]++;
+        }
+        if (built) {
+            invalidatePathTo(key); // while building, no cache has been computed yet
+        }
+        return term;
+    }
+
+    private void invalidatePathTo(String key) {
+        int node = 0;
+        topTerms[node] = null;
+        for (int i = 0; i < key.length() && node != NONE; i++) {
+            node = findChild(node, key.charAt(i));
+            if (node != NONE) {
+                topTerms[node] = null;
+            }
+        }
+    }
+
+    // The node's cached best terms, recomputed from its own term and its children's caches if it was cleared
+    private int[] topTermsOf(int node) {
+        int[] cached = topTerms[node];
+        if (cached != null) {
+            return cached;
+        }
+        int[] best = new int[TOP_K];
+        int size = 0;
+        if (nodeTerm[node] != NONE && termProducts[nodeTerm[node]] > 0) {
+            best[size++] = nodeTerm[node];
+        }
+        for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+            for (int term : topTermsOf(child)) {
+                size = insertRanked(best, size, term);
+            }
+        }
+        cached = Arrays.copyOf(best, size);
+        topTerms[node] = cached;
+        return cached;
+    }
+
+    // Inserts the term into the ranked array of size terms (keeping at most TOP_K), returns the new size
+    private int insertRanked(int[] best, int size, int term) {
+        int position = size;
+        while (position > 0 && ranksBefore(term, best[position - 1])) {
+            position--;
+        }
+        if (position == TOP_K) {
+            return size; // not good enough
+        }
+        int newSize = Math.min(size + 1, TOP_K);
+        System.arraycopy(best, position, best, position + 1, newSize - position - 1);
+        best[position] = term;
+        return newSize;
+    }
+
+    private boolean ranksBefore(int a, int b) {
+        if (termPopularity[a] != termPopularity[b]) {
+            return termPopularity[a] > termPopularity[b];
+        }
+        if (termProducts[a] != termProducts[b]) {
+            return termProducts[a] > termProducts[b];
+        }
+        return termText[a].compareToIgnoreCase(termText[b]) < 0;
+    }
+
+    private int findChild(int node, char c) {
+        for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+            if (nodeChar[child] == c) {
+                return child;
+            }
+        }
+        return NONE;
+    }
+
+    private int newChild(int parent, char c) {
+        if (nodeCount == nodeChar.length) {
+            int capacity = nodeCount * 2;
+            nodeChar = Arrays.copyOf(nodeChar, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            nodeTerm = Arrays.copyOf(nodeTerm, capacity);
+            topTerms = Arrays.copyOf(topTerms, capacity);
+        }
+        int node = nodeCount++;
+        nodeChar[node] = c;
+        firstChild[node] = NONE;
+        nodeTerm[node] = NONE;
+        topTerms[node] = null;
+        nextSibling[node] = firstChild[parent];
+        firstChild[parent] = node;
+        return node;
+    }
+
+    private int newTerm(String text) {
+        if (termCount == termText.length) {
+            int capacity = termCount * 2;
+            termText = Arrays.copyOf(termText, capacity);
+            termPopularity = Arrays.copyOf(termPopularity, capacity);
+            termProducts = Arrays.copyOf(termProducts, capacity);
+            termDescriptions = Arrays.copyOf(termDescriptions, capacity);
+        }
+        int term = termCount++;
+        termText[term] = text;
+        termPopularity[term] = 0;
+        termProducts[term] = 0;
+        termDescriptions[term] = 0;
+        return term;
+    }
+
+    private void clear() {
+        Arrays.fill(topTerms, 0, nodeCount, null);
+        Arrays.fill(termText, 0, termCount, null);
+        termCount = 0;
+        liveTermCount = 0;
+        termOfKey.clear();
+        termsOfProduct.clear();
+        nodeCount = 1; // the root
+        firstChild[0] = NONE;
+        nextSibling[0] = NONE;
+        nodeTerm[0] = NONE;
+        topTerms[0] = null;
+    }
+
+    // Rebuilds the trie from the live terms, keeping their popularity, once more than half of them are dead
+    private void rebuildIfMostlyDead() {
+        if (termCount < 1024 || liveTermCount * 2 >= termCount) {
+            return;
+        }
+        String[] oldText = Arrays.copyOf(termText, termCount);
+        long[] oldPopularity = Arrays.copyOf(termPopularity, termCount);
+        HashMap<String, int[]> oldTermsOfProduct = new HashMap<>(termsOfProduct);
+        clear();
+        oldTermsOfProduct.forEach((id, oldTerms) -> {
+            int[] terms = new int[oldTerms.length];
+            for (int i = 0; i < oldTerms.length; i++) {
+                int oldTerm = termOf(oldTerms[i]);
+                String text = oldText[oldTerm];
+                int term = addTermUse(text, text.toLowerCase(Locale.ROOT), oldTerms[i] >= 0);
+                termPopularity[term] = oldPopularity[oldTerm];
+                terms[i] = oldTerms[i] >= 0 ? term : ~term;
+            }
+            termsOfProduct.put(id, terms);
+        });
+    }
+}
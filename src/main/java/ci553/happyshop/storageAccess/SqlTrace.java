@@ -0,0 +1,37 @@
+package ci553.happyshop.storageAccess;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The SqlTrace class collects the SQL statements prepared on the current thread while a trace is running,
+ * so that InstrumentedDatabaseRW can log the SQL behind a slow DatabaseRW call.
+ * ConnectionPool records every statement prepared on a pooled connection; outside a trace this costs
+ * one ThreadLocal lookup.
+ *
+ * Work handed to another thread (eg a CheckoutBatcher batch) is not part of the caller's trace.
+ */
+
+class SqlTrace {
+    private static final int MAX_STATEMENTS = 8; // a trace keeps the first few statements only
+
+    private static final ThreadLocal<List<String>> statements = new ThreadLocal<>();
+
+    static void start() {
+        statements.set(new ArrayList<>());
+    }
+
+    static void record(String sql) {
+        List<String> trace = statements.get();
+        if (trace != null && trace.size() < MAX_STATEMENTS) {
+            trace.add(sql);
+        }
+    }
+
+    // Ends the trace and returns the statements prepared since start()
+    static List<String> stop() {
+        List<String> trace = statements.get();
+        statements.remove();
+        return trace == null ? List.of() : trace;
+    }
+}
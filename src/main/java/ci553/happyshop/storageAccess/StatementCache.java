@@ -0,0 +1,181 @@
+package ci553.happyshop.storageAccess;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The StatementCache class keeps the PreparedStatements of one pooled connection, keyed by their SQL text,
+ * so that DerbyRW can skip Derby's parse/compile step when it runs the same SQL again.
+ *
+ * How it works:
+ * - prepare(sql) returns the cached statement for that SQL if there is one (a hit),
+ *   otherwise it prepares a new one and caches it (a miss).
+ * - The returned statement is a proxy: calling close() clears its parameters and batch and
+ *   makes it available again, instead of really closing it.
+ * - The cache holds at most 'capacity' statements; the least recently used one is closed when it is full.
+ * - If the same SQL is prepared again while the cached statement is still open (in use),
+ *   a plain uncached statement is returned instead, so two callers never share one statement.
+ *
+ * A StatementCache belongs to exactly one connection, and a pooled connection is only ever used by
+ * one borrower at a time, so the cache itself does not need to be thread-safe.
+ * The hit/miss counters are shared by all caches of a ConnectionPool.
+ */
+
+class StatementCache {
+    private final Connection connection; // the real (unpooled) connection
+    private final int capacity;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+
+    // access-ordered, so iteration starts at the least recently used statement
+    private final LinkedHashMap<String, CachedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+
+    private static class CachedStatement {
+        final PreparedStatement statement;
+        boolean inUse = false;
+        boolean evicted = false; // evicted while in use, close it once it is returned
+        ResultSet lastResultSet; // closed when the statement is returned
+
+        CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+    }
+
+    StatementCache(Connection connection, int capacity, LongAdder hits, LongAdder misses, LongAdder evictions) {
+        this.connection = connection;
+        this.capacity = capacity;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+    }
+
+    /**
+     * Returns a prepared statement for the SQL, reusing a cached one when possible.
+     */
+    PreparedStatement prepare(String sql) throws SQLException {
+        CachedStatement cached = statements.get(sql);
+        if (cached != null && cached.inUse) {
+            misses.increment();
+            return connection.prepareStatement(sql); // already lent out, do not share it
+        }
+        if (cached != null && cached.statement.isClosed()) {
+            statements.remove(sql);
+            cached = null;
+        }
+        if (cached == null) {
+            misses.increment();
+            cached = new CachedStatement(connection.prepareStatement(sql));
+            statements.put(sql, cached);
+            evictLeastRecentlyUsed();
+        } else {
+            hits.increment();
+        }
+        cached.inUse = true;
+        return wrap(cached);
+    }
+
+    private void evictLeastRecentlyUsed() {
+        Iterator<CachedStatement> it = statements.values().iterator();
+        while (statements.size() > capacity && it.hasNext()) {
+            CachedStatement eldest = it.next();
+            it.remove();
+            evictions.increment();
+            if (eldest.inUse) {
+                eldest.evicted = true;
+            } else {
+                closeQuietly(eldest.statement);
+            }
+        }
+    }
+
+    // Called when the borrower closes the statement proxy.
+    private void giveBack(CachedStatement cached) {
+        cached.inUse = false;
+        try {
+            if (cached.lastResultSet != null) {
+                cached.lastResultSet.close();
+                cached.lastResultSet = null;
+            }
+            if (cached.evicted) {
+                cached.statement.close();
+            } else {
+                cached.statement.clearParameters();
+                cached.statement.clearBatch();
+            }
+        } catch (SQLException e) {
+            // a statement we cannot reset is dropped from the cache
+            statements.values().remove(cached);
+            closeQuietly(cached.statement);
+        }
+    }
+
+    // Closes every cached statement, used when the connection itself is discarded.
+    void closeAll() {
+        for (CachedStatement cached : statements.values()) {
+            closeQuietly(cached.statement);
+        }
+        statements.clear();
+    }
+
+    int size() {
+        return statements.size();
+    }
+
+    private void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ignored) {
+            // the statement is being discarded anyway
+        }
+    }
+
+    // Wraps a cached statement so that close() gives it back to the cache.
+    private PreparedStatement wrap(CachedStatement cached) {
+        InvocationHandler handler = new InvocationHandler() {
+            private boolean returned = false;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close":
+                        if (!returned) {
+                            returned = true;
+                            giveBack(cached);
+                        }
+                        return null;
+                    case "isClosed":
+                        return returned || cached.statement.isClosed();
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                }
+                if (returned) {
+                    throw new SQLException("Statement has already been closed");
+                }
+                try {
+                    Object result = method.invoke(cached.statement, args);
+                    if (result instanceof ResultSet rs) {
+                        cached.lastResultSet = rs;
+                    }
+                    return result;
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        };
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, handler);
+    }
+}
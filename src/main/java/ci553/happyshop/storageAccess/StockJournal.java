@@ -0,0 +1,323 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.utility.EventLog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * The StockJournal class is an append-only file of stock purchases, used by JournaledRW to make a purchase
+ * durable without waiting for Derby.
+ *
+ * How it works:
+ * - append(quantities) queues one purchase (productID -> quantity) and waits until it is on disk.
+ * - A single writer thread collects the purchases queued within fsyncWindowMillis, gives each the next
+ *   sequence number, writes them all and forces the file once (a group commit, like CheckoutBatcher).
+ * - Written entries wait in memory until JournaledRW takes them with drainWritten() and applies them to
+ *   ProductTable. Once the table holds everything written, truncateIfFlushed() empties the file again.
+ * - Each line is "seq;productID:quantity,...;crc32". When the journal is opened, the valid lines are read back
+ *   (getRecoveredEntries) and a torn line left by a crash during a write is cut off.
+ * - A batch that fails, with an IOException or anything else, fails only its own purchases, and the writer
+ *   thread carries on. A caller waits at most -Dhappyshop.journal.appendTimeoutMillis (default 30000):
+ *   if the writer has not taken its purchase by then, the purchase is withdrawn and append throws an IOException.
+ *   A purchase the writer has already taken is always answered, so it is never reported as failed but written.
+ *
+ * Example Usage:
+ *     StockJournal journal = new StockJournal(StorageLocation.stockJournalPath, 2, lastAppliedSeq);
+ *     journal.append(Map.of("0001", 2)); // returns once the purchase is durable
+ */
+
+public class StockJournal {
+
+    /**
+     * One journalled purchase: its sequence number and the quantity taken of each product.
+     */
+    public record Entry(long seq, Map<String, Integer> quantities) {}
+
+    // one queued purchase and the future its caller waits on,
+    // claimed either by the writer (it will be written) or by its caller giving up (it will not)
+    private record Request(Map<String, Integer> quantities, CompletableFuture<Entry> result, AtomicBoolean claimed) {}
+
+    private static final long APPEND_TIMEOUT_MILLIS = Long.getLong("happyshop.journal.appendTimeoutMillis", 30_000);
+
+    private final Path path;
+    private final FileChannel channel;
+    private final long fsyncWindowMillis;
+    private final List<Entry> recoveredEntries;
+
+    private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Thread writerThread;
+    private volatile boolean closed = false;
+
+    // guarded by this
+    private long lastSeq;
+    private List<Entry> written = new ArrayList<>();
+
+    /**
+     * Opens (or creates) the journal file and reads back the entries it holds.
+     * @param lastKnownSeq the last sequence number already applied elsewhere, new entries are numbered after it
+     */
+    public StockJournal(Path path, long fsyncWindowMillis, long lastKnownSeq) throws IOException {
+        this.path = path;
+        this.fsyncWindowMillis = fsyncWindowMillis;
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        recoveredEntries = recover();
+        lastSeq = lastKnownSeq;
+        for (Entry entry : recoveredEntries) {
+            lastSeq = Math.max(lastSeq, entry.seq());
+        }
+
+        writerThread = new Thread(this::runWriter, "StockJournal-writer");
+        writerThread.setDaemon(true); // must not keep the JVM alive
+        writerThread.start();
+    }
+
+    /**
+     * The entries found in the file when it was opened, in sequence order.
+     */
+    public List<Entry> getRecoveredEntries() {
+        return recoveredEntries;
+    }
+
+    /**
+     * Writes one purchase to the journal and returns once it is forced to disk.
+     * @throws IOException if the journal could not be written, the purchase is then not in it
+     */
+    public Entry append(Map<String, Integer> quantities) throws IOException {
+        if (closed) {
+            throw new IOException("Stock journal is closed");
+        }
+        Request request = new Request(quantities, new CompletableFuture<>(), new AtomicBoolean());
+        queue.add(request);
+        if (closed) {
+            failQueued(); // closed while we were queueing, nobody else will answer the request
+        }
+        try {
+            return request.result().get(APPEND_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // like a timeout, withdraw the purchase unless it is being written
+        } catch (TimeoutException e) {
+            // fall through and try to withdraw the purchase
+        } catch (ExecutionException e) {
+            throw asIOException(e.getCause());
+        }
+        if (request.claimed().compareAndSet(false, true)) {
+            throw new IOException("Timed out after " + APPEND_TIMEOUT_MILLIS + "ms waiting for the stock journal");
+        }
+        try {
+            return request.result().join(); // the writer has taken it, and always answers a purchase it took
+        } catch (CompletionException e) {
+            throw asIOException(e.getCause());
+        }
+    }
+
+    private static IOException asIOException(Throwable cause) {
+        return cause instanceof IOException ioException
+                ? ioException
+                : new IOException("Stock journal write failed: " + cause, cause);
+    }
+
+    /**
+     * Takes the entries written since the last call, in sequence order.
+     */
+    public synchronized List<Entry> drainWritten() {
+        List<Entry> drained = written;
+        written = new ArrayList<>();
+        return drained;
+    }
+
+    /**
+     * Empties the file if nothing after flushedSeq has been written, ie everything in it is in ProductTable.
+     */
+    public synchronized void truncateIfFlushed(long flushedSeq) throws IOException {
+        if (flushedSeq >= lastSeq && written.isEmpty() && channel.size() > 0) {
+            channel.truncate(0);
+            channel.force(true);
+        }
+    }
+
+    private void runWriter() {
+        while (!closed) {
+            List<Request> batch = new ArrayList<>();
+            try {
+                batch.add(queue.take());
+                if (fsyncWindowMillis > 0) {
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(fsyncWindowMillis);
+                    long remaining;
+                    while ((remaining = deadline - System.nanoTime()) > 0) {
+                        Request next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+                }
+                queue.drainTo(batch);
+            } catch (InterruptedException e) {
+                closed = true; // close() interrupts us, the batch collected so far is still written
+            }
+            if (!batch.isEmpty()) {
+                try {
+                    writeBatch(batch);
+                } catch (RuntimeException e) {
+                    // fail the purchases of this batch that have no result yet, but keep the writer thread alive
+                    EventLog.error("Stock journal batch of {} failed: {}", batch.size(), e);
+                    for (Request request : batch) {
+                        request.result().completeExceptionally(asIOException(e));
+                    }
+                }
+            }
+        }
+        failQueued();
+    }
+
+    private synchronized void writeBatch(List<Request> batch) {
+        batch.removeIf(request -> !request.claimed().compareAndSet(false, true)); // withdrawn by a timed out caller
+        if (batch.isEmpty()) {
+            return;
+        }
+        long sizeBefore = -1;
+        List<Entry> entries = new ArrayList<>();
+        try {
+            StringBuilder lines = new StringBuilder();
+            for (Request request : batch) {
+                Entry entry = new Entry(lastSeq + entries.size() + 1, new LinkedHashMap<>(request.quantities()));
+                entries.add(entry);
+                lines.append(format(entry)).append('\n');
+            }
+            sizeBefore = channel.size();
+            ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, channel.size());
+            }
+            channel.force(false); // one fsync for the whole batch
+        } catch (IOException | RuntimeException e) {
+            EventLog.error("Stock journal write failed: {}", e);
+            try {
+                if (sizeBefore >= 0) {
+                    channel.truncate(sizeBefore); // no half-written batch may be replayed
+                }
+            } catch (IOException ignored) {
+                // the torn line is cut off when the journal is next opened
+            }
+            for (Request request : batch) {
+                request.result().completeExceptionally(asIOException(e));
+            }
+            return;
+        }
+        lastSeq += entries.size();
+        written.addAll(entries);
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).result().complete(entries.get(i));
+        }
+    }
+
+    // Reads the valid lines of the file and cuts off anything after the last one
+    private List<Entry> recover() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        byte[] bytes = Files.readAllBytes(path);
+        int validLength = 0;
+        int lineStart = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != '\n') {
+                continue;
+            }
+            Entry entry = parse(new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8));
+            if (entry == null) {
+                break;
+            }
+            entries.add(entry);
+            lineStart = i + 1;
+            validLength = lineStart;
+        }
+        if (validLength < bytes.length) {
+            EventLog.warn("Stock journal: cutting off {} bytes of a torn write", bytes.length - validLength);
+            channel.truncate(validLength);
+            channel.force(true);
+        }
+        return entries;
+    }
+
+    private static String format(Entry entry) {
+        StringBuilder body = new StringBuilder().append(entry.seq()).append(';');
+        String separator = "";
+        for (Map.Entry<String, Integer> quantity : entry.quantities().entrySet()) {
+            body.append(separator).append(quantity.getKey()).append(':').append(quantity.getValue());
+            separator = ",";
+        }
+        return body + ";" + Long.toHexString(crc(body.toString()));
+    }
+
+    // Returns null for a line that is not a complete, valid entry
+    private static Entry parse(String line) {
+        int lastSemicolon = line.lastIndexOf(';');
+        if (lastSemicolon < 0) {
+            return null;
+        }
+        String body = line.substring(0, lastSemicolon);
+        try {
+            if (Long.parseLong(line.substring(lastSemicolon + 1), 16) != crc(body)) {
+                return null;
+            }
+            String[] parts = body.split(";", 2);
+            Map<String, Integer> quantities = new LinkedHashMap<>();
+            for (String item : parts[1].split(",")) {
+                String[] idAndQuantity = item.split(":");
+                quantities.put(idAndQuantity[0], Integer.parseInt(idAndQuantity[1]));
+            }
+            return new Entry(Long.parseLong(parts[0]), quantities);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static long crc(String text) {
+        CRC32 crc = new CRC32();
+        crc.update(text.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    private void failQueued() {
+        Request request;
+        while ((request = queue.poll()) != null) {
+            request.result().completeExceptionally(new IOException("Stock journal is closed"));
+        }
+    }
+
+    /**
+     * Stops the writer once the current batch is written and closes the file.
+     * Purchases still queued fail with an IOException.
+     */
+    public void close() throws IOException {
+        closed = true;
+        writerThread.interrupt();
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    public synchronized long getLastSeq() {
+        return lastSeq;
+    }
+}
@@ -0,0 +1,348 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.utility.EventLog;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * The StockReservationManager class lets customers soft-reserve stock while it sits in their trolley,
+ * so that they learn about a shortage when adding a product instead of at checkout.
+ *
+ * How it works:
+ * - reserve(session, product, quantity) adds to the session's reservation of a product if
+ *   (stock in the database - quantity reserved by other sessions) is enough. The stock is read and the
+ *   reservation made under the product's lock, so two customers can never both get the last unit.
+ * - Every reservation expires ttlMillis after it was last changed; an abandoned trolley gives its stock back.
+ * - purchaseReserved(session, trolley) buys the trolley with DatabaseRW.purchaseStocks and, if it succeeds,
+ *   drops the session's reservations. In the default CONDITIONAL purchase mode this is a conditional decrement
+ *   with no stock read, the reservation having already done the checking.
+ * - syncWithTrolley / releaseAll keep the reservations in line when the trolley shrinks or is cancelled.
+ *
+ * Expiry uses a single hashed timer wheel instead of one scheduled task per reservation:
+ * the wheel has WHEEL_SIZE buckets of tickMillis each, a reservation sits in the bucket of its expiry tick,
+ * and one sweeper thread empties one bucket per tick. A reservation whose expiry was pushed back
+ * (or lies more than one turn of the wheel ahead) is simply put back into the bucket of its new expiry tick.
+ *
+ * Reservations are soft: they are held in memory only, and a purchase that does not go through this class
+ * is not stopped by them. DatabaseRWFactory hands the same instance to every customer client, so all
+ * clients in this JVM see each other's reservations.
+ */
+
+public class StockReservationManager {
+    private static final int WHEEL_SIZE = 512;
+
+    /**
+     * The outcome of a reserve call: whether it was reserved, and how many units the session could still get
+     * (the stock minus what other sessions hold, before this reservation).
+     */
+    public record ReservationResult(boolean reserved, int available) {}
+
+    // what became of a reservation, it only ever leaves HELD once
+    private enum State { HELD, RELEASED, PURCHASED, EXPIRED }
+
+    // one session's hold on one product, guarded by the lock of its ProductReservations
+    private static class Reservation {
+        final String sessionId;
+        final String productId;
+        int quantity;
+        volatile long expiresAtMillis;
+        volatile State state = State.HELD; // only changed under the lock, read without it by the sweeper
+        boolean inWheel = false; // guarded by the wheel, a reservation has at most one wheel entry
+
+        Reservation(String sessionId, String productId) {
+            this.sessionId = sessionId;
+            this.productId = productId;
+        }
+    }
+
+    // all reservations of one product, guarded by its lock (a ReentrantLock rather than synchronized,
+    // so a virtual thread waiting for the stock read inside reserve does not pin its carrier thread)
+    private static class ProductReservations {
+        final ReentrantLock lock = new ReentrantLock();
+        int totalReserved = 0;
+        final HashMap<String, Reservation> bySession = new HashMap<>();
+    }
+
+    private final DatabaseRW databaseRW;
+    private final long ttlMillis;
+    private final long tickMillis;
+    private final LongSupplier clock; // the current time in milliseconds
+
+    private final ConcurrentHashMap<String, ProductReservations> byProduct = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<String>> productsOfSession = new ConcurrentHashMap<>();
+
+    // the timer wheel, one bucket per tick, guarded by itself
+    private final List<List<Reservation>> wheel = new ArrayList<>(WHEEL_SIZE);
+    private long currentTick;
+    private final ScheduledExecutorService sweeper; // null when the caller runs sweep() itself
+
+    public StockReservationManager(DatabaseRW databaseRW, long ttlMillis, long tickMillis) {
+        this(databaseRW, ttlMillis, tickMillis, System::currentTimeMillis, true);
+    }
+
+    /**
+     * Creates a manager that reads the time from clock and has no sweeper thread:
+     * reservations only expire when sweep() is called, so tests can move time on by themselves.
+     */
+    StockReservationManager(DatabaseRW databaseRW, long ttlMillis, long tickMillis, LongSupplier clock) {
+        this(databaseRW, ttlMillis, tickMillis, clock, false);
+    }
+
+    private StockReservationManager(DatabaseRW databaseRW, long ttlMillis, long tickMillis, LongSupplier clock,
+                                    boolean startSweeper) {
+        this.databaseRW = databaseRW;
+        this.ttlMillis = ttlMillis;
+        this.tickMillis = tickMillis;
+        this.clock = clock;
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel.add(new ArrayList<>());
+        }
+        currentTick = clock.getAsLong() / tickMillis;
+
+        if (startSweeper) {
+            sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "StockReservation-sweeper");
+                t.setDaemon(true); // must not keep the JVM alive
+                return t;
+            });
+            sweeper.scheduleAtFixedRate(this::sweep, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        } else {
+            sweeper = null;
+        }
+    }
+
+    /**
+     * Adds quantity units of the product to the session's reservation, if enough unreserved stock is left.
+     * A successful reserve also restarts the reservation's time to live.
+     * @throws SQLException if the stock cannot be read
+     */
+    public ReservationResult reserve(String sessionId, String productId, int quantity) throws SQLException {
+        ProductReservations reservations = byProduct.computeIfAbsent(productId, id -> new ProductReservations());
+        reservations.lock.lock();
+        try {
+            Product product = databaseRW.searchByProductId(productId);
+            int stock = product == null ? 0 : product.getStockQuantity();
+            Reservation own = reservations.bySession.get(sessionId);
+            int heldByOthers = reservations.totalReserved - (own == null ? 0 : own.quantity);
+            int available = Math.max(0, stock - heldByOthers);
+            int wanted = (own == null ? 0 : own.quantity) + quantity;
+            if (wanted > available) {
+                return new ReservationResult(false, available);
+            }
+            if (own == null) {
+                own = new Reservation(sessionId, productId);
+                reservations.bySession.put(sessionId, own);
+                // added inside compute, so a remove() of the session's last other product cannot drop the set first
+                productsOfSession.compute(sessionId, (id, productIds) -> {
+                    Set<String> ids = productIds == null ? ConcurrentHashMap.newKeySet() : productIds;
+                    ids.add(productId);
+                    return ids;
+                });
+            }
+            own.quantity = wanted;
+            reservations.totalReserved += quantity;
+            own.expiresAtMillis = clock.getAsLong() + ttlMillis;
+            schedule(own);
+            return new ReservationResult(true, available);
+        } finally {
+            reservations.lock.unlock();
+        }
+    }
+
+    /**
+     * Makes the session's reservations match its trolley: products no longer in the trolley are released,
+     * and a product whose quantity went down keeps only that many units. Reservations never grow here.
+     */
+    public void syncWithTrolley(String sessionId, List<Product> trolley) {
+        Map<String, Integer> quantities = new HashMap<>();
+        for (Product product : trolley) {
+            quantities.merge(product.getProductId(), product.getOrderedQuantity(), Integer::sum);
+        }
+        Set<String> productIds = productsOfSession.get(sessionId);
+        if (productIds == null) {
+            return;
+        }
+        for (String productId : List.copyOf(productIds)) {
+            ProductReservations reservations = byProduct.get(productId);
+            if (reservations == null) {
+                continue;
+            }
+            reservations.lock.lock();
+            try {
+                Reservation own = reservations.bySession.get(sessionId);
+                int keep = quantities.getOrDefault(productId, 0);
+                if (own != null && keep < own.quantity) {
+                    if (keep <= 0) {
+                        remove(reservations, own, State.RELEASED);
+                    } else {
+                        reservations.totalReserved -= own.quantity - keep;
+                        own.quantity = keep;
+                    }
+                }
+            } finally {
+                reservations.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Releases every reservation of the session, eg when the trolley is cancelled.
+     */
+    public void releaseAll(String sessionId) {
+        releaseAll(sessionId, State.RELEASED);
+    }
+
+    private void releaseAll(String sessionId, State outcome) {
+        Set<String> productIds = productsOfSession.remove(sessionId);
+        if (productIds == null) {
+            return;
+        }
+        for (String productId : productIds) {
+            ProductReservations reservations = byProduct.get(productId);
+            if (reservations != null) {
+                reservations.lock.lock();
+                try {
+                    Reservation own = reservations.bySession.get(sessionId);
+                    if (own != null) {
+                        remove(reservations, own, outcome);
+                    }
+                } finally {
+                    reservations.lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Buys the trolley and, if every product could be bought, turns the session's reservations into the sale
+     * by dropping them. On a shortage the reservations are kept, so the customer can adjust the trolley.
+     * @return the products that are short of stock, empty if the purchase succeeded
+     */
+    public ArrayList<Product> purchaseReserved(String sessionId, ArrayList<Product> proList) throws SQLException {
+        ArrayList<Product> insufficientProducts = databaseRW.purchaseStocks(proList);
+        if (insufficientProducts.isEmpty()) {
+            releaseAll(sessionId, State.PURCHASED);
+        }
+        return insufficientProducts;
+    }
+
+    /**
+     * Returns the number of units of the product currently reserved by all sessions.
+     */
+    public int getReservedQuantity(String productId) {
+        ProductReservations reservations = byProduct.get(productId);
+        if (reservations == null) {
+            return 0;
+        }
+        reservations.lock.lock();
+        try {
+            return reservations.totalReserved;
+        } finally {
+            reservations.lock.unlock();
+        }
+    }
+
+    // Ends a HELD reservation with the given outcome, its units are given back exactly once.
+    // Must be called while holding the lock of reservations
+    private void remove(ProductReservations reservations, Reservation reservation, State outcome) {
+        if (reservation.state != State.HELD) {
+            return; // already released, bought or expired
+        }
+        reservation.state = outcome; // its wheel entry is skipped by the sweeper
+        reservations.bySession.remove(reservation.sessionId, reservation);
+        reservations.totalReserved -= reservation.quantity;
+        // a session without reservations is dropped, so abandoned sessions do not pile up
+        productsOfSession.computeIfPresent(reservation.sessionId, (id, productIds) -> {
+            productIds.remove(reservation.productId);
+            return productIds.isEmpty() ? null : productIds;
+        });
+    }
+
+    // Puts the reservation into the wheel bucket of its expiry tick (never the bucket being swept).
+    // A reservation already in the wheel stays where it is, the sweeper moves it on when it finds it renewed.
+    private void schedule(Reservation reservation) {
+        synchronized (wheel) {
+            if (reservation.inWheel) {
+                return;
+            }
+            reservation.inWheel = true;
+            long tick = Math.max(reservation.expiresAtMillis / tickMillis, currentTick + 1);
+            wheel.get((int) (tick % WHEEL_SIZE)).add(reservation);
+        }
+    }
+
+    // Runs on the sweeper thread (or is called by tests): empties the buckets of every tick that has passed
+    void sweep() {
+        long nowTick = clock.getAsLong() / tickMillis;
+        while (true) {
+            List<Reservation> due;
+            synchronized (wheel) {
+                if (currentTick > nowTick) {
+                    return;
+                }
+                int bucket = (int) (currentTick % WHEEL_SIZE);
+                due = wheel.set(bucket, new ArrayList<>());
+                currentTick++;
+                for (Reservation reservation : due) {
+                    reservation.inWheel = false;
+                }
+            }
+            for (Reservation reservation : due) {
+                expireOrReschedule(reservation);
+            }
+        }
+    }
+
+    private void expireOrReschedule(Reservation reservation) {
+        if (reservation.state != State.HELD) {
+            return;
+        }
+        if (reservation.expiresAtMillis > clock.getAsLong()) {
+            schedule(reservation); // renewed since, or more than one turn of the wheel away
+            return;
+        }
+        ProductReservations reservations = byProduct.get(reservation.productId);
+        reservations.lock.lock();
+        try {
+            // re-check under the lock, a reserve may have renewed it in the meantime
+            if (reservation.state != State.HELD) {
+                return; // released or bought while we waited for the lock
+            }
+            if (reservation.expiresAtMillis <= clock.getAsLong()) {
+                remove(reservations, reservation, State.EXPIRED);
+                EventLog.debug("Reservation expired: {} x {} for session {}", reservation.quantity,
+                        reservation.productId, reservation.sessionId);
+            } else {
+                schedule(reservation);
+            }
+        } finally {
+            reservations.lock.unlock();
+        }
+    }
+
+    // The number of sessions holding at least one reservation
+    int getSessionCount() {
+        return productsOfSession.size();
+    }
+
+    /**
+     * Stops the sweeper thread. Reservations are kept but no longer expire.
+     */
+    public void close() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package ci553.happyshop.systemSetup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The BulkCatalogueLoader class fills a fresh ProductTable from a product file, for catalogues far too large
+ * for the one-by-one inserts of SetDatabase (eg 200,000 products).
+ *
+ * The product file has one product per line, with the columns of ProductTable in table order:
+ *     productID  description  unitPrice  image  inStock
+ * separated by tabs (.tsv or any other extension) or commas (.csv, where a field may be "quoted", with ""
+ * for a quote inside it). A first line starting with "productID" is taken as a header and skipped.
+ *
+ * How it works:
+ * - ProductTable is created without its primary key, so the rows go in without an index to maintain.
+ * - The file is streamed line by line into batched INSERTs; each batch of batchSize rows is one transaction.
+ * - Invalid lines (wrong number of columns, an ID longer than 4 characters or already seen, a text longer than
+ *   its column, a price or stock that is not a number, a negative stock) are skipped and reported,
+ *   so that no batch fails and the primary key can always be built.
+ * - Once every row is in, the primary key (and its index) is added in one pass over the table.
+ * - Progress and throughput are printed every progressEvery rows and at the end.
+ *
+ * Example Usage:
+ *     BulkCatalogueLoader loader = new BulkCatalogueLoader(1000, 50000);
+ *     BulkCatalogueLoader.Result result = loader.load(connection, Paths.get("catalogue.tsv"));
+ */
+
+public class BulkCatalogueLoader {
+
+    /**
+     * The outcome of a load: rows inserted, lines skipped, and the time spent inserting and building the key.
+     */
+    public record Result(long loaded, long rejected, long insertNanos, long indexNanos) {}
+
+    // Same columns as SetDatabase's ProductTable, the primary key is added after the load
+    private static final String CREATE_TABLE_SQL =
+            "CREATE TABLE ProductTable(" +
+                    "productID CHAR(4) NOT NULL," +
+                    "description VARCHAR(100)," +
+                    "unitPrice DOUBLE," +
+                    "image VARCHAR(100)," +
+                    "inStock INT," +
+                    "CHECK (inStock >= 0)" +
+                    ")";
+    private static final String INSERT_SQL = "INSERT INTO ProductTable VALUES(?, ?, ?, ?, ?)";
+    private static final String ADD_PRIMARY_KEY_SQL =
+            "ALTER TABLE ProductTable ADD CONSTRAINT ProductTable_PK PRIMARY KEY (productID)";
+
+    private static final int MAX_REPORTED_REJECTS = 10; // the rest are only counted
+
+    private final int batchSize;
+    private final long progressEvery;
+
+    public BulkCatalogueLoader(int batchSize, long progressEvery) {
+        this.batchSize = Math.max(1, batchSize);
+        this.progressEvery = Math.max(1, progressEvery);
+    }
+
+    /**
+     * Creates ProductTable (which must not exist) and loads the product file into it.
+     * @throws IOException if the file cannot be read
+     * @throws SQLException if a batch cannot be inserted or the primary key cannot be built,
+     *                      the rows committed so far stay in the table
+     */
+    public Result load(Connection connection, Path productFile) throws IOException, SQLException {
+        char separator = productFile.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv") ? ',' : '\t';
+        boolean autoCommit = connection.getAutoCommit();
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate(CREATE_TABLE_SQL);
+        }
+
+        long start = System.nanoTime();
+        long loaded = 0;
+        long rejected = 0;
+        Set<String> seenIds = new HashSet<>();
+        connection.setAutoCommit(false); // one transaction per batch
+        try (BufferedReader reader = Files.newBufferedReader(productFile, StandardCharsets.UTF_8);
+             PreparedStatement insert = connection.prepareStatement(INSERT_SQL)) {
+            int inBatch = 0;
+            long lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank() || (lineNumber == 1 && line.regionMatches(true, 0, "productID", 0, 9))) {
+                    continue; // empty line or header
+                }
+                String problem = bindRow(insert, splitLine(line, separator), seenIds);
+                if (problem != null) {
+                    rejected++;
+                    if (rejected <= MAX_REPORTED_REJECTS) {
+                        System.out.println("Skipped line " + lineNumber + ": " + problem);
+                    }
+                    continue;
+                }
+                insert.addBatch();
+                inBatch++;
+                loaded++;
+                if (inBatch == batchSize) {
+                    insert.executeBatch();
+                    connection.commit();
+                    inBatch = 0;
+                }
+                if (loaded % progressEvery == 0) {
+                    printProgress(loaded, System.nanoTime() - start);
+                }
+            }
+            if (inBatch > 0) {
+                insert.executeBatch();
+                connection.commit();
+            }
+        } catch (SQLException | IOException e) {
+            connection.rollback(); // only the batch in progress, earlier batches are committed
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        long insertNanos = System.nanoTime() - start;
+        if (rejected > MAX_REPORTED_REJECTS) {
+            System.out.println("... " + (rejected - MAX_REPORTED_REJECTS) + " more lines skipped");
+        }
+        if (loaded % progressEvery != 0) {
+            printProgress(loaded, insertNanos); // the final count, unless it was just printed
+        }
+
+        long indexStart = System.nanoTime();
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate(ADD_PRIMARY_KEY_SQL);
+        }
+        long indexNanos = System.nanoTime() - indexStart;
+        System.out.printf("Primary key built in %.1f s%n", indexNanos / 1e9);
+        return new Result(loaded, rejected, insertNanos, indexNanos);
+    }
+
+    private static void printProgress(long loaded, long elapsedNanos) {
+        double seconds = Math.max(elapsedNanos, 1) / 1e9;
+        System.out.printf("Loaded %,d products in %.1f s (%,.0f rows/s)%n", loaded, seconds, loaded / seconds);
+    }
+
+    // Binds one line's fields to the insert, or returns what is wrong with them
+    private static String bindRow(PreparedStatement insert, List<String> fields, Set<String> seenIds)
+            throws SQLException {
+        if (fields.size() != 5) {
+            return "expected 5 columns, found " + fields.size();
+        }
+        String id = fields.get(0).trim();
+        if (id.isEmpty() || id.length() > 4) {
+            return "product ID must be 1 to 4 characters: " + id;
+        }
+        if (fields.get(1).length() > 100 || fields.get(3).trim().length() > 100) {
+            return "description and image name must be at most 100 characters, product " + id;
+        }
+        if (!seenIds.add(id)) {
+            return "duplicate product ID " + id;
+        }
+        double price;
+        int stock;
+        try {
+            price = Double.parseDouble(fields.get(2).trim());
+            stock = Integer.parseInt(fields.get(4).trim());
+        } catch (NumberFormatException e) {
+            seenIds.remove(id);
+            return "price or stock is not a number (" + e.getMessage() + ")";
+        }
+        if (stock < 0) {
+            seenIds.remove(id);
+            return "negative stock for " + id;
+        }
+        insert.setString(1, id);
+        insert.setString(2, fields.get(1));
+        insert.setDouble(3, price);
+        insert.setString(4, fields.get(3).trim());
+        insert.setInt(5, stock);
+        return null;
+    }
+
+    // Splits a line at the separator; for CSV a field may be quoted ("a, b"), with "" for a quote inside it
+    static List<String> splitLine(String line, char separator) {
+        List<String> fields = new ArrayList<>(5);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (separator == ',' && c == '"') {
+                if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"'); // an escaped quote
+                    i++;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == separator && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -1,5 +1,6 @@
 package ci553.happyshop.systemSetup;
 
+import ci553.happyshop.catalogue.Product;
 import ci553.happyshop.storageAccess.DatabaseRWFactory;
 import ci553.happyshop.utility.StorageLocation;
 
@@ -7,8 +8,17 @@ import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
 
 /**
  * The setDB class is responsible for resetting the database when the system is first initialized.
@@ -22,8 +32,16 @@ import java.util.concurrent.locks.ReentrantLock;
  * 1. Deletes all existing tables in the database.
  * 2. Recreates the database tables based on the initial schema.
  * 3. Inserts default values into the newly created tables.
+ *    The stock journal file (orders/stockJournal.log) and the catalogue snapshot (happyShopDB.snapshot)
+ *    are deleted as well, they belong to the old tables.
  * 4. Deletes all existing image files from the working image folder (images/).
  * 5. Copies all image files from the backup folder (images_resetDB/) into the working image folder.
+ *
+ * Bulk mode:
+ * Run with a product file as the first argument (eg SetDatabase catalogue.tsv) to load a large catalogue instead of
+ * the default products. The file is streamed into batched inserts by BulkCatalogueLoader (batch size
+ * -Dhappyshop.setup.batchSize, default 1000), the primary key is only built once every row is in, and the images are
+ * copied by -Dhappyshop.setup.copyThreads threads (default 8). Both steps report their progress and throughput.
  */
 
 public class SetDatabase {
@@ -35,8 +53,9 @@ public class SetDatabase {
     private static final Path imageWorkingFolderPath = StorageLocation.imageFolderPath;
     private static final Path imageBackupFolderPath = StorageLocation.imageResetFolderPath;
 
-    private final String[] tables = {"ProductTable"};
-    // Currently only "ProductTable" exists, but using an array allows easy expansion
+    private final String[] tables = {"ProductTable", "StockJournalState", "CatalogueVersion"};
+    // "StockJournalState" only exists once the journal storage has been used, "CatalogueVersion" once a client has run.
+    // Using an array allows easy expansion
     // if more tables need to be processed in the future without changing the logic structure.
 
     private static final Lock lock = new ReentrantLock();    // Create a global lock
@@ -44,6 +63,15 @@ public class SetDatabase {
     public static void main(String[] args) throws SQLException, IOException {
         SetDatabase setDB = new SetDatabase();
         setDB.clearTables(); // clear all tables in the tables array from database if they are existing
+        Files.deleteIfExists(StorageLocation.stockJournalPath); // its purchases must not be replayed over the fresh table
+        Files.deleteIfExists(StorageLocation.catalogueSnapshotPath); // its products must not be loaded into the cache
+        if (args.length > 0) {
+            setDB.bulkLoadTable(Paths.get(args[0])); // bulk mode: the products come from the file
+            deleteFilesInFolder(imageWorkingFolderPath);
+            copyFolderContentsInParallel(imageBackupFolderPath, imageWorkingFolderPath,
+                    Integer.getInteger("happyshop.setup.copyThreads", 8));
+            return;
+        }
         setDB.initializeTable();//create and initialize databse and tables
         setDB.queryTableAfterInitilization();
         deleteFilesInFolder(imageWorkingFolderPath);
@@ -51,6 +79,21 @@ public class SetDatabase {
 
     }
 
+    //Creates ProductTable and fills it from a product file (see BulkCatalogueLoader)
+    private void bulkLoadTable(Path productFile) throws SQLException, IOException {
+        lock.lock();
+        try (Connection connection = DriverManager.getConnection(dbURL)) {
+            System.out.println("Bulk loading " + productFile + " into ProductTable...");
+            BulkCatalogueLoader loader = new BulkCatalogueLoader(
+                    Integer.getInteger("happyshop.setup.batchSize", 1000), 50_000);
+            BulkCatalogueLoader.Result result = loader.load(connection, productFile);
+            System.out.printf("Table initialized with %,d products, %,d lines skipped, in %.1f s.%n",
+                    result.loaded(), result.rejected(), (result.insertNanos() + result.indexNanos()) / 1e9);
+        } finally {
+            lock.unlock();
+        }
+    }
+
     //Deletes all existing tables in the database.
     private void clearTables() throws SQLException {
         lock.lock();  // 🔒 Lock first
@@ -77,9 +120,8 @@ public class SetDatabase {
     private void initializeTable() throws SQLException {
         lock.lock(); // Lock to ensure thread safety
 
-        // Table creation and insert statements
-        String[] iniTableSQL = {
-                // Create ProductTable
+        // Table creation statement
+        String createTableSQL =
                 "CREATE TABLE ProductTable(" +
                         "productID CHAR(4) PRIMARY KEY," +
                         "description VARCHAR(100)," +
@@ -87,38 +129,30 @@ public class SetDatabase {
                         "image VARCHAR(100)," +
                         "inStock INT," +
                         "CHECK (inStock >= 0)" +
-                        ")",
-
-                // Insert data into ProductTable
-                "INSERT INTO ProductTable VALUES('0001', '40 inch TV', 269.00,'0001.jpg',100)",
-                "INSERT INTO ProductTable VALUES('0002', 'DAB Radio', 29.99, '0002.jpg',100)",
-                "INSERT INTO ProductTable VALUES('0003', 'Toaster', 19.99, '0003.jpg',100)",
-                "INSERT INTO ProductTable VALUES('0004', 'Watch', 29.99, '0004.jpg',100)",
-                "INSERT INTO ProductTable VALUES('0005', 'Digital Camera', 89.99, '0005.jpg',100)",
-                "INSERT INTO ProductTable VALUES('0006', 'MP3 player', 7.99, '0006.jpg',100)",
-                "INSERT INTO ProductTable VALUES('0007', 'USB drive', 6.99, '0007.jpg',100)",
-                "INSERT INTO ProductTable VALUES('0008', 'USB2 drive', 7.99, '0008.jpg',100)",
-                "INSERT INTO ProductTable VALUES('0009', 'USB3 drive', 8.99, '0009.jpg',100)",
-                "INSERT INTO ProductTable VALUES('0010', 'USB4 drive', 9.99, '0010.jpg',100)",
-                "INSERT INTO ProductTable VALUES('0011', 'USB5 drive', 10.99, '0011.jpg',100)",
-                "INSERT INTO ProductTable VALUES('0012', 'USB6 drive', 10.99, '0011.jpg',100)",
-        };
+                        ")";
+        String insertSQL = "INSERT INTO ProductTable VALUES(?, ?, ?, ?, ?)";
 
         try (Connection connection = DriverManager.getConnection(dbURL)) {
             System.out.println("Database happyShopDB is created successfully!");
             connection.setAutoCommit(false); // Disable auto-commit for the batch
 
-            try (Statement statement = connection.createStatement()) {
+            try (Statement statement = connection.createStatement();
+                 PreparedStatement insertStatement = connection.prepareStatement(insertSQL)) {
                 // First, create the table (DDL) - Execute this one separately from DML
-                statement.executeUpdate(iniTableSQL[0]);  // Execute Create Table SQL
+                statement.executeUpdate(createTableSQL);  // Execute Create Table SQL
 
                 // Prepare and execute the insert operations (DML)
-                for (int i = 1; i < iniTableSQL.length; i++) {
-                    statement.addBatch(iniTableSQL[i]);  // Add insert queries to batch
+                for (Product product : initialProducts()) {
+                    insertStatement.setString(1, product.getProductId());
+                    insertStatement.setString(2, product.getProductDescription());
+                    insertStatement.setDouble(3, product.getUnitPrice());
+                    insertStatement.setString(4, product.getProductImageName());
+                    insertStatement.setInt(5, product.getStockQuantity());
+                    insertStatement.addBatch();  // Add insert queries to batch
                 }
 
                 // Execute all the insert statements in the batch
-                statement.executeBatch();
+                insertStatement.executeBatch();
                 connection.commit(); // Commit the transaction if everything was successful
 
                 System.out.println("Table and data initialized successfully.");
@@ -133,6 +167,27 @@ public class SetDatabase {
         }
     }
 
+    /**
+     * The default products of a fresh database, also used to seed InMemoryRW.
+     * A record in the database looks like ('0001', '40 inch TV', 269.00,'0001.jpg',100)
+     */
+    public static List<Product> initialProducts() {
+        return List.of(
+                new Product("0001", "40 inch TV", "0001.jpg", 269.00, 100),
+                new Product("0002", "DAB Radio", "0002.jpg", 29.99, 100),
+                new Product("0003", "Toaster", "0003.jpg", 19.99, 100),
+                new Product("0004", "Watch", "0004.jpg", 29.99, 100),
+                new Product("0005", "Digital Camera", "0005.jpg", 89.99, 100),
+                new Product("0006", "MP3 player", "0006.jpg", 7.99, 100),
+                new Product("0007", "USB drive", "0007.jpg", 6.99, 100),
+                new Product("0008", "USB2 drive", "0008.jpg", 7.99, 100),
+                new Product("0009", "USB3 drive", "0009.jpg", 8.99, 100),
+                new Product("0010", "USB4 drive", "0010.jpg", 9.99, 100),
+                new Product("0011", "USB5 drive", "0011.jpg", 10.99, 100),
+                new Product("0012", "USB6 drive", "0011.jpg", 10.99, 100)
+        );
+    }
+
     private void queryTableAfterInitilization() throws SQLException {
         lock.lock();
         //Query ProductTable
@@ -235,4 +290,60 @@ public class SetDatabase {
         System.out.println("Copied files from: " + source + " → " + destination);
     }
 
+    // Copies all files from source folder to destination folder with the given number of threads,
+    // reporting progress every 10% and the throughput at the end
+    public static void copyFolderContentsInParallel(Path source, Path destination, int threads) throws IOException {
+        lock.lock();
+        try {
+            if (!Files.exists(source)) {
+                throw new IOException("Source folder does not exist: " + source);
+            }
+            Files.createDirectories(destination);
+            List<Path> files;
+            try (Stream<Path> stream = Files.list(source)) {
+                files = stream.filter(Files::isRegularFile).toList();
+            }
+
+            long start = System.nanoTime();
+            long progressStep = Math.max(1, files.size() / 10);
+            AtomicLong copiedFiles = new AtomicLong();
+            AtomicLong copiedBytes = new AtomicLong();
+            List<Callable<Void>> copies = new ArrayList<>(files.size());
+            for (Path file : files) {
+                copies.add(() -> {
+                    Path targetFile = destination.resolve(file.getFileName());
+                    Files.copy(file, targetFile, StandardCopyOption.REPLACE_EXISTING);
+                    copiedBytes.addAndGet(Files.size(targetFile));
+                    long copied = copiedFiles.incrementAndGet();
+                    if (copied % progressStep == 0 && copied < files.size()) {
+                        System.out.printf("Copied %,d of %,d files%n", copied, files.size());
+                    }
+                    return null;
+                });
+            }
+
+            ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+            try {
+                for (Future<Void> copy : pool.invokeAll(copies)) {
+                    copy.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while copying " + source, e);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ioException
+                        ? ioException : new IOException(e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+
+            double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+            System.out.printf("Copied %,d files (%.1f MB) from: %s → %s in %.1f s (%,.0f files/s, %.1f MB/s)%n",
+                    copiedFiles.get(), copiedBytes.get() / 1e6, source, destination, seconds,
+                    copiedFiles.get() / seconds, copiedBytes.get() / 1e6 / seconds);
+        } finally {
+            lock.unlock();
+        }
+    }
+
 }
@@ -0,0 +1,217 @@
+package ci553.happyshop.utility;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The EventLog class is a small logging facility for code on hot paths (checkout, search, order handling),
+ * replacing System.out.println there.
+ *
+ * How it works:
+ * - Each message has a level (DEBUG, INFO, WARN, ERROR). Messages below the current level are dropped by a
+ *   single comparison, before anything is allocated. The level is set with -Dhappyshop.log.level (default INFO)
+ *   or setLevel().
+ * - A message is a template with up to three "{}" placeholders and its arguments, eg
+ *       EventLog.debug("Product {} found.", proId);
+ *   The caller only stores the template and the argument references into a slot of a lock-free ring buffer;
+ *   the text is built later, on the writer thread. (Arguments are formatted when written, so pass
+ *   values that are not changed afterwards.) Primitive arguments are boxed at the call, so guard such calls with
+ *   isDebugEnabled() when they sit on a hot path.
+ * - One background writer thread drains the ring, formats the messages and prints them to the console
+ *   in one write per batch.
+ * - The ring holds RING_SIZE messages. If the writer falls that far behind, new messages are dropped
+ *   (and counted) instead of making the caller wait.
+ *
+ * The ring is a bounded multi-producer queue: a producer claims a slot by incrementing the tail sequence with a CAS,
+ * fills it, then publishes it by writing the slot's sequence number, which the writer waits for.
+ */
+
+public final class EventLog {
+
+    public enum Level {
+        DEBUG,
+        INFO,
+        WARN,
+        ERROR
+    }
+
+    private static final int RING_SIZE = 8192; // a power of two
+    private static final int MASK = RING_SIZE - 1;
+
+    private static volatile Level level = parseLevel(System.getProperty("happyshop.log.level", "INFO"));
+
+    // the ring: slot i may be written when sequences[i] == claim position, and read when it is position + 1
+    private static final AtomicLongArray sequences = new AtomicLongArray(RING_SIZE);
+    private static final Level[] levels = new Level[RING_SIZE];
+    private static final long[] times = new long[RING_SIZE];
+    private static final String[] threadNames = new String[RING_SIZE];
+    private static final String[] templates = new String[RING_SIZE];
+    private static final Object[] args1 = new Object[RING_SIZE];
+    private static final Object[] args2 = new Object[RING_SIZE];
+    private static final Object[] args3 = new Object[RING_SIZE];
+    private static final AtomicLong tail = new AtomicLong(); // next position to claim
+    private static long head = 0; // next position to read, only used by the writer thread
+    private static long reportedDropped = 0; // only used by the writer thread
+
+    private static final LongAdder droppedCount = new LongAdder();
+    private static final PrintStream out = System.out;
+    private static final DateTimeFormatter timeFormat =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    static {
+        for (int i = 0; i < RING_SIZE; i++) {
+            sequences.set(i, i);
+        }
+        Thread writer = new Thread(EventLog::runWriter, "EventLog-writer");
+        writer.setDaemon(true); // must not keep the JVM alive
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(EventLog::drain, "EventLog-final-drain"));
+    }
+
+    private EventLog() {
+    }
+
+    private static Level parseLevel(String name) {
+        try {
+            return Level.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return Level.INFO;
+        }
+    }
+
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    public static boolean isEnabled(Level messageLevel) {
+        return messageLevel.compareTo(level) >= 0;
+    }
+
+    public static boolean isDebugEnabled() {
+        return level == Level.DEBUG;
+    }
+
+    // the logging methods, one per level and number of arguments (no varargs, so nothing is allocated when disabled)
+    public static void debug(String message) { log(Level.DEBUG, message, null, null, null); }
+    public static void debug(String template, Object a) { log(Level.DEBUG, template, a, null, null); }
+    public static void debug(String template, Object a, Object b) { log(Level.DEBUG, template, a, b, null); }
+    public static void debug(String template, Object a, Object b, Object c) { log(Level.DEBUG, template, a, b, c); }
+
+    public static void info(String message) { log(Level.INFO, message, null, null, null); }
+    public static void info(String template, Object a) { log(Level.INFO, template, a, null, null); }
+    public static void info(String template, Object a, Object b) { log(Level.INFO, template, a, b, null); }
+    public static void info(String template, Object a, Object b, Object c) { log(Level.INFO, template, a, b, c); }
+
+    public static void warn(String message) { log(Level.WARN, message, null, null, null); }
+    public static void warn(String template, Object a) { log(Level.WARN, template, a, null, null); }
+    public static void warn(String template, Object a, Object b) { log(Level.WARN, template, a, b, null); }
+    public static void warn(String template, Object a, Object b, Object c) { log(Level.WARN, template, a, b, c); }
+
+    public static void error(String message) { log(Level.ERROR, message, null, null, null); }
+    public static void error(String template, Object a) { log(Level.ERROR, template, a, null, null); }
+    public static void error(String template, Object a, Object b) { log(Level.ERROR, template, a, b, null); }
+    public static void error(String template, Object a, Object b, Object c) { log(Level.ERROR, template, a, b, c); }
+
+    private static void log(Level messageLevel, String template, Object a, Object b, Object c) {
+        if (messageLevel.compareTo(level) < 0) {
+            return;
+        }
+        long position;
+        while (true) {
+            position = tail.get();
+            long sequence = sequences.get((int) (position & MASK));
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break; // the slot is ours
+                }
+            } else if (sequence < position) {
+                droppedCount.increment(); // the ring is full, the writer has not freed this slot yet
+                return;
+            }
+            // otherwise another producer claimed this position first, try the next one
+        }
+        int slot = (int) (position & MASK);
+        levels[slot] = messageLevel;
+        times[slot] = System.currentTimeMillis();
+        threadNames[slot] = Thread.currentThread().getName();
+        templates[slot] = template;
+        args1[slot] = a;
+        args2[slot] = b;
+        args3[slot] = c;
+        sequences.set(slot, position + 1); // publish: the writer may read the slot now
+    }
+
+    private static void runWriter() {
+        while (true) {
+            if (!drain()) {
+                LockSupport.parkNanos(2_000_000); // nothing to write, look again in 2ms
+            }
+        }
+    }
+
+    // Writes every published message, returns false if there was none
+    private static synchronized boolean drain() {
+        StringBuilder batch = new StringBuilder();
+        while (true) {
+            int slot = (int) (head & MASK);
+            if (sequences.get(slot) != head + 1) {
+                break; // not published yet
+            }
+            format(batch, slot);
+            templates[slot] = null; // let go of the arguments
+            args1[slot] = null;
+            args2[slot] = null;
+            args3[slot] = null;
+            sequences.set(slot, head + RING_SIZE); // free the slot for the producer one lap ahead
+            head++;
+        }
+        long dropped = droppedCount.sum() - reportedDropped;
+        if (dropped > 0) {
+            reportedDropped += dropped;
+            batch.append("EventLog: ").append(dropped).append(" messages dropped, the log could not keep up")
+                    .append(System.lineSeparator());
+        }
+        if (batch.isEmpty()) {
+            return false;
+        }
+        out.print(batch);
+        out.flush();
+        return true;
+    }
+
+    private static void format(StringBuilder batch, int slot) {
+        batch.append(timeFormat.format(Instant.ofEpochMilli(times[slot]))).append(' ')
+                .append(levels[slot]).append(" [").append(threadNames[slot]).append("] ");
+        String template = templates[slot];
+        Object[] args = {args1[slot], args2[slot], args3[slot]};
+        int argIndex = 0;
+        int from = 0;
+        int placeholder;
+        while (argIndex < args.length && (placeholder = template.indexOf("{}", from)) >= 0) {
+            batch.append(template, from, placeholder).append(args[argIndex++]);
+            from = placeholder + 2;
+        }
+        batch.append(template, from, template.length()).append(System.lineSeparator());
+    }
+
+    /**
+     * Writes every message logged so far, eg before the program prints something of its own.
+     */
+    public static void flush() {
+        drain();
+    }
+
+    public static long getDroppedCount() {
+        return droppedCount.sum();
+    }
+}
@@ -0,0 +1,111 @@
+package ci553.happyshop.utility;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The LatencyHistogram class records latencies (in microseconds) into a fixed set of log-linear buckets,
+ * in the style of an HdrHistogram, so that percentiles can be read at any time without keeping every sample.
+ *
+ * How it works:
+ * - Values below 32 each have their own bucket. Above that, every power of two is split into 16 equal buckets,
+ *   so any recorded value is reported within about 6% of its real value, from 1 microsecond up to about 25 days.
+ * - record(value) is a single atomic increment, safe to call from many threads at once.
+ * - valueAtPercentile(p) walks the buckets and returns the highest value of the bucket holding the p-th percentile.
+ *   Count, mean and max are exact.
+ *
+ * Example Usage:
+ *     LatencyHistogram histogram = new LatencyHistogram();
+ *     histogram.record(micros);
+ *     long p99 = histogram.valueAtPercentile(99.0);
+ */
+
+public class LatencyHistogram {
+    private static final int LINEAR_LIMIT = 32; // values below this have a bucket each
+    private static final int SUB_BUCKETS = 16; // buckets per power of two above it
+    private static final int MAX_SHIFT = 36;
+    private static final long MAX_VALUE = (1L << (MAX_SHIFT + 5)) - 1; // larger values are counted as this
+
+    private final AtomicLongArray counts = new AtomicLongArray(SUB_BUCKETS * MAX_SHIFT + LINEAR_LIMIT);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalValue = new LongAdder();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    public void record(long value) {
+        long clamped = Math.min(Math.max(value, 0), MAX_VALUE);
+        counts.incrementAndGet(indexOf(clamped));
+        totalCount.increment();
+        totalValue.add(clamped);
+        maxValue.accumulateAndGet(clamped, Math::max);
+    }
+
+    // value v >= 32 with shift s = floorLog2(v) - 4 lands in bucket 16*s + (v >>> s), where v >>> s is 16..31
+    private static int indexOf(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - 4;
+        return SUB_BUCKETS * shift + (int) (value >>> shift);
+    }
+
+    // The highest value that falls into the bucket
+    private static long highestValueOf(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lowest = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Returns the value below which the given percentage (0 to 100) of recorded values fall, 0 if nothing was recorded.
+     */
+    public long valueAtPercentile(double percentile) {
+        long count = totalCount.sum();
+        if (count == 0) {
+            return 0;
+        }
+        long wanted = Math.max(1, (long) Math.ceil(count * Math.min(percentile, 100.0) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= wanted) {
+                return Math.min(highestValueOf(i), getMax());
+            }
+        }
+        return getMax(); // values recorded while we were reading
+    }
+
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    public double getMean() {
+        long count = totalCount.sum();
+        return count == 0 ? 0 : (double) totalValue.sum() / count;
+    }
+
+    public long getMax() {
+        return maxValue.get();
+    }
+
+    /**
+     * Forgets every recorded value. Values recorded while resetting may be partly kept.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        totalCount.reset();
+        totalValue.reset();
+        maxValue.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, mean=%.1f, p50=%d, p90=%d, p99=%d, p99.9=%d, max=%d", getCount(), getMean(),
+                valueAtPercentile(50), valueAtPercentile(90), valueAtPercentile(99), valueAtPercentile(99.9), getMax());
+    }
+}
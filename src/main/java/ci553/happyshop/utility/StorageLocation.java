@@ -18,7 +18,7 @@ import java.nio.file.Paths;
  *
  * 2. Order Management:
  *    - ordersFolder / ordersPath:
- *         Root folder for all orders.
+ *         Root folder for all orders ("orders" unless -Dhappyshop.ordersFolder is set).
  *    - orderedPath:
  *         Subfolder to store orders in the "Ordered" state.
  *    - progressingPath:
@@ -31,6 +31,22 @@ import java.nio.file.Paths;
  *         A text file (orders/orderCounter.txt) used to track and increment the unique order ID
  *         when a new order is created.
  *
+ * 4. Stock Journal:
+ *    - stockJournalFile / stockJournalPath:
+ *         The append-only file (orders/stockJournal.log) of purchases not yet written to ProductTable,
+ *         used when the storage is "journal" (see JournaledRW).
+ *
+ * 5. Logs:
+ *    - logsFolder / logsPath:
+ *         Folder for log files written while the system runs.
+ *    - slowQueryLogPath:
+ *         The slow-query log (logs/slowQueries.log) written by InstrumentedDatabaseRW.
+ *
+ * 6. Catalogue Snapshot:
+ *    - catalogueSnapshotFile / catalogueSnapshotPath:
+ *         The binary copy of ProductTable (happyShopDB.snapshot, next to the happyShopDB folder) written at shutdown
+ *         and read at start-up to fill the product cache (see CatalogueSnapshot).
+ *
  * These static paths ensure consistent folder usage throughout the application and simplify
  * file-related operations such as reset, loading, and persistence.
  *
@@ -54,8 +70,8 @@ public class StorageLocation {
     public static final String imageResetFolder = "images_resetDB";
     public static final Path imageResetFolderPath = Paths.get(imageResetFolder);
 
-    // Orders folders and their Path
-    public static final String ordersFolder = "orders";
+    // Orders folders and their Path, -Dhappyshop.ordersFolder moves them elsewhere (eg a scratch folder for benchmarks)
+    public static final String ordersFolder = System.getProperty("happyshop.ordersFolder", "orders");
     public static final Path ordersPath = Paths.get(ordersFolder);
     public static final Path orderedPath = ordersPath.resolve("ordered");//orders/ordered to store orders at Ordered state
     public static final Path progressingPath = ordersPath.resolve("progressing");// orders/progressing to store orders at Progressing state
@@ -64,4 +80,17 @@ public class StorageLocation {
     //OrderCounter File and its Path, ie orders/orderCounter.txt
     public static final String orderCounterFile = "orderCounter.txt";
     public static final Path orderCounterPath = ordersPath.resolve(orderCounterFile);
+
+    //Stock journal File and its Path, ie orders/stockJournal.log
+    public static final String stockJournalFile = "stockJournal.log";
+    public static final Path stockJournalPath = ordersPath.resolve(stockJournalFile);
+
+    // Logs folder and the slow-query log, ie logs/slowQueries.log
+    public static final String logsFolder = "logs";
+    public static final Path logsPath = Paths.get(logsFolder);
+    public static final Path slowQueryLogPath = logsPath.resolve("slowQueries.log");
+
+    // Catalogue snapshot File and its Path, ie happyShopDB.snapshot
+    public static final String catalogueSnapshotFile = "happyShopDB.snapshot";
+    public static final Path catalogueSnapshotPath = Paths.get(catalogueSnapshotFile);
 }
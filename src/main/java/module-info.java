@@ -2,6 +2,7 @@ module ci553.happyshop {
     requires javafx.controls;
     requires javafx.fxml;
     requires java.sql;
+    requires java.management;
     requires javafx.graphics;
 
     opens ci553.happyshop to javafx.fxml;
@@ -19,5 +20,6 @@ module ci553.happyshop {
     exports ci553.happyshop.client.orderTracker;
     exports ci553.happyshop.client.emergency;
     exports ci553.happyshop.systemSetup;
+    exports ci553.happyshop.storageAccess to java.management; // for the DatabaseRWStats MXBean
 
 }
\ No newline at end of file
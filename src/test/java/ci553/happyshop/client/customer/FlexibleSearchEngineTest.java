@@ -0,0 +1,108 @@
+package ci553.happyshop.client.customer;
+
+import ci553.happyshop.catalogue.Product;
+import ci553.happyshop.storageAccess.DatabaseRW;
+import ci553.happyshop.storageAccess.InMemoryRW;
+import ci553.happyshop.storageAccess.SearchSuggestionIndex;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FlexibleSearchEngineTest {
+    private static final List<Product> CATALOGUE = List.of(
+            new Product("0001", "Coffee Maker", "0001.jpg", 49.99, 10),
+            new Product("0002", "Coffee Grinder", "0002.jpg", 29.99, 0),
+            new Product("0003", "Toffee Apples", "0003.jpg", 2.99, 10),
+            new Product("0004", "DAB Radio", "0004.jpg", 29.99, 10),
+            new Product("0005", "Cofee Filters (misprint)", "0005.jpg", 1.99, 10));
+
+    // "cofee" allows 1 edit, so there is one query for the exact word and one for the spellings within 1 edit
+    @Test
+    void fuzzySearchRunsOneQueryPerTierAndRanksCloserSpellingsFirst() throws Exception {
+        AtomicInteger queries = new AtomicInteger();
+        FlexibleSearchEngine engine = engineOver(countingSearches(new InMemoryRW(CATALOGUE), queries));
+
+        assertEquals(List.of("0005", "0001", "0002"), ids(engine.quickSearchFuzzy("cofee")));
+        assertEquals(2, queries.get());
+        assertEquals(List.of("0001"), ids(engine.quickSearchFuzzy("cofee makr")));
+    }
+
+    @Test
+    void fuzzySearchKeepsTheOtherCriteriaAndTheResultLimit() throws Exception {
+        FlexibleSearchEngine engine = engineOver(new InMemoryRW(CATALOGUE));
+        FlexibleSearchEngine.SearchCriteria criteria = new FlexibleSearchEngine.SearchCriteria.Builder()
+                .productName("cofee")
+                .inStockOnly(true)
+                .maxResults(1)
+                .searchType(FlexibleSearchEngine.SearchType.FUZZY)
+                .build();
+
+        assertEquals(List.of("0005"), ids(engine.search(criteria)));
+    }
+
+    // More 2-edit matches than are read per query, all with a lower product ID than the exact match
+    @Test
+    void exactMatchIsNotCutOffByFurtherMatchesWithLowerIds() throws Exception {
+        List<Product> catalogue = new ArrayList<>();
+        for (int i = 1; i <= 600; i++) {
+            catalogue.add(new Product(String.format("%04d", i), "Toastie Maker", "toastie.jpg", 19.99, 10));
+        }
+        catalogue.add(new Product("0601", "Toaster", "toaster.jpg", 24.99, 10));
+        FlexibleSearchEngine engine = engineOver(new InMemoryRW(catalogue));
+        FlexibleSearchEngine.SearchCriteria criteria = new FlexibleSearchEngine.SearchCriteria.Builder()
+                .productName("toaster")
+                .maxResults(3)
+                .searchType(FlexibleSearchEngine.SearchType.FUZZY)
+                .build();
+
+        assertEquals(List.of("0601", "0001", "0002"), ids(engine.search(criteria)));
+    }
+
+    @Test
+    void maxResultsMustBeGreaterThanZero() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new FlexibleSearchEngine.SearchCriteria.Builder().maxResults(-1));
+    }
+
+    @Test
+    void exactIdSearchIgnoresCase() throws Exception {
+        FlexibleSearchEngine engine = engineOver(new InMemoryRW(List.of(
+                new Product("P001", "Coffee Maker", "0001.jpg", 49.99, 10))));
+        FlexibleSearchEngine.SearchCriteria criteria = new FlexibleSearchEngine.SearchCriteria.Builder()
+                .productId("p001")
+                .searchType(FlexibleSearchEngine.SearchType.EXACT_ID)
+                .build();
+
+        assertEquals(List.of("P001"), ids(engine.search(criteria)));
+    }
+
+    private static FlexibleSearchEngine engineOver(DatabaseRW databaseRW) {
+        return new FlexibleSearchEngine(databaseRW, new SearchSuggestionIndex());
+    }
+
+    // Counts the searchProducts calls made to the DatabaseRW
+    private static DatabaseRW countingSearches(DatabaseRW databaseRW, AtomicInteger queries) {
+        return (DatabaseRW) Proxy.newProxyInstance(DatabaseRW.class.getClassLoader(),
+                new Class<?>[] {DatabaseRW.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("searchProducts")) {
+                        queries.incrementAndGet();
+                    }
+                    try {
+                        return method.invoke(databaseRW, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    private static List<String> ids(List<Product> products) {
+        return products.stream().map(product -> product.getProductId().trim()).toList();
+    }
+}
@@ -0,0 +1,46 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CachingDatabaseRWTest {
+
+    @Test
+    void searchLargerThanHalfTheCacheDoesNotFillIt() throws Exception {
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            products.add(new Product(String.format("%04d", i), "Widget " + i, "0001.jpg", 1.0, 10));
+        }
+        CachingDatabaseRW cachingRW = new CachingDatabaseRW(new InMemoryRW(products), 8);
+
+        ProductQuery all = new ProductQuery.Builder().descriptionContains("widget").build();
+        assertEquals(10, cachingRW.searchProducts(all).size());
+        assertEquals(0, cachingRW.getSize());
+
+        ProductQuery firstFour = new ProductQuery.Builder().descriptionContains("widget").limit(4).build();
+        assertEquals(4, cachingRW.searchProducts(firstFour).size());
+        assertEquals(4, cachingRW.getSize());
+        assertEquals(0, cachingRW.getEvictionCount());
+    }
+
+    @Test
+    void nameSearchLargerThanHalfTheCacheDoesNotFillIt() throws Exception {
+        List<Product> products = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            products.add(new Product(String.format("%04d", i), (i < 4 ? "Gadget " : "Widget ") + i, "0001.jpg", 1.0, 10));
+        }
+        CachingDatabaseRW cachingRW = new CachingDatabaseRW(new InMemoryRW(products), 8);
+
+        assertEquals(6, cachingRW.searchProduct("widget").size());
+        assertEquals(0, cachingRW.getSize());
+
+        assertEquals(4, cachingRW.searchProduct("gadget").size());
+        assertEquals(4, cachingRW.getSize());
+        assertEquals(0, cachingRW.getEvictionCount());
+    }
+}
@@ -0,0 +1,42 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CatalogueSnapshotTest {
+
+    @Test
+    void nullDescriptionAndImageReadBackAsNull() throws Exception {
+        Path dir = Files.createTempDirectory("snapshot");
+        Path path = dir.resolve("catalogue.snapshot");
+        try {
+            CatalogueSnapshot.write(path, 7, List.of(
+                    new Product("0001", null, null, 1.5, 3),
+                    new Product("0002", "", "0002.jpg", 2.5, 0)));
+            List<Product> products = CatalogueSnapshot.decode(ByteBuffer.wrap(Files.readAllBytes(path)), 7);
+
+            assertEquals(2, products.size());
+            assertNull(products.get(0).getProductDescription());
+            assertNull(products.get(0).getProductImageName());
+            assertEquals("", products.get(1).getProductDescription());
+            assertEquals("0002.jpg", products.get(1).getProductImageName());
+            assertEquals(3, products.get(0).getStockQuantity());
+
+            // a snapshot that was read can be replaced by the next save
+            CatalogueSnapshot.write(path, 8, List.of(new Product("0003", "DAB Radio", "0003.jpg", 29.99, 1)));
+            assertNull(CatalogueSnapshot.decode(ByteBuffer.wrap(Files.readAllBytes(path)), 7));
+            assertEquals(1, CatalogueSnapshot.decode(ByteBuffer.wrap(Files.readAllBytes(path)), 8).size());
+        } finally {
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(dir);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CheckoutBatcherTest {
+    private static final int TROLLEYS = 40;
+
+    private TestDatabase db;
+    private CheckoutBatcher batcher;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        db = TestDatabase.create("checkoutBatcher", List.of(
+                new Product("0001", "40 inch TV", "0001.jpg", 269.00, 100),
+                new Product("0002", "DAB Radio", "0002.jpg", 29.99, 5),
+                new Product("0003", "USB drive", "0003.jpg", 9.99, 100)));
+        batcher = new CheckoutBatcher(db.pool, 50, 64);
+    }
+
+    @AfterEach
+    void tearDown() {
+        batcher.close();
+        db.close();
+    }
+
+    // Half of the trolleys want one TV and one of the 5 radios, the other half two USB drives.
+    // Checked out at the same time, in shared batches, exactly 5 TV trolleys may succeed, and a short one
+    // must not keep its TV or hold back the USB trolleys in its batch
+    @Test
+    void concurrentTrolleysAreEachAllOrNothing() throws Exception {
+        DerbyRW derbyRW = db.derbyRW(DerbyRW.PurchaseMode.BATCHED, batcher);
+        ExecutorService customers = Executors.newFixedThreadPool(TROLLEYS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<ArrayList<Product>>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < TROLLEYS; i++) {
+                ArrayList<Product> trolley = i % 2 == 0
+                        ? trolleyOf(item("0001", 1), item("0002", 1))
+                        : trolleyOf(item("0003", 2));
+                results.add(customers.submit(() -> {
+                    start.await();
+                    return derbyRW.purchaseStocks(trolley);
+                }));
+            }
+            start.countDown();
+
+            int tvTrolleysBought = 0;
+            for (int i = 0; i < TROLLEYS; i++) {
+                ArrayList<Product> insufficient = results.get(i).get(30, TimeUnit.SECONDS);
+                if (i % 2 == 0) {
+                    if (insufficient.isEmpty()) {
+                        tvTrolleysBought++;
+                    } else {
+                        assertEquals(List.of("0002"), insufficient.stream().map(Product::getProductId).toList());
+                    }
+                } else {
+                    assertTrue(insufficient.isEmpty());
+                }
+            }
+
+            assertEquals(5, tvTrolleysBought);
+            assertEquals(95, db.stockOf("0001"));
+            assertEquals(0, db.stockOf("0002"));
+            assertEquals(100 - TROLLEYS, db.stockOf("0003"));
+            assertEquals((long) TROLLEYS, batcher.getTrolleyCount());
+            assertTrue(batcher.getBatchCount() < batcher.getTrolleyCount());
+        } finally {
+            customers.shutdownNow();
+        }
+    }
+
+    // A listener that throws must neither hang the trolley it is told about nor stop the batcher thread
+    @Test
+    void failingListenerDoesNotStopTheBatcher() throws Exception {
+        DerbyRW derbyRW = db.derbyRW(DerbyRW.PurchaseMode.BATCHED, batcher);
+        ProductChangeListener failing = new ProductChangeListener() {
+            @Override
+            public void stockPurchased(String productId, int quantity) {
+                throw new IllegalStateException("listener failed");
+            }
+        };
+        ProductChangeNotifier.getNotifier().register(failing);
+        try {
+            assertTrue(CompletableFuture.supplyAsync(() -> purchase(derbyRW, trolleyOf(item("0001", 1))))
+                    .get(10, TimeUnit.SECONDS).isEmpty());
+            assertTrue(CompletableFuture.supplyAsync(() -> purchase(derbyRW, trolleyOf(item("0001", 2))))
+                    .get(10, TimeUnit.SECONDS).isEmpty());
+            assertEquals(97, db.stockOf("0001"));
+        } finally {
+            ProductChangeNotifier.getNotifier().unregister(failing);
+        }
+    }
+
+    private static ArrayList<Product> purchase(DerbyRW derbyRW, ArrayList<Product> trolley) {
+        try {
+            return derbyRW.purchaseStocks(trolley);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Product item(String productId, int quantity) {
+        Product product = new Product(productId, "", "", 0, 0);
+        product.setOrderedQuantity(quantity);
+        return product;
+    }
+
+    private static ArrayList<Product> trolleyOf(Product... products) {
+        return new ArrayList<>(List.of(products));
+    }
+}
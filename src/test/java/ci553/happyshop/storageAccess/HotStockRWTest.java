@@ -0,0 +1,116 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HotStockRWTest {
+    private TestDatabase db;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        db = TestDatabase.create("hotStock", List.of(
+                new Product("0001", "40 inch TV", "0001.jpg", 269.00, 10),
+                new Product("0002", "DAB Radio", "0002.jpg", 29.99, 10)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        db.close();
+    }
+
+    // A cold purchase that arrives after setHotProduct has read the stock, but before the product is hot,
+    // must wait and then be taken from the stripes, not committed to the table and lost
+    @Test
+    void coldPurchaseDuringSetHotProductIsNotLost() throws Exception {
+        DerbyRW derbyRW = db.derbyRW(DerbyRW.PurchaseMode.CONDITIONAL, null);
+        CountDownLatch stockRead = new CountDownLatch(1);
+        CountDownLatch publish = new CountDownLatch(1);
+        AtomicBoolean gateNextRead = new AtomicBoolean(true);
+        // pauses setHotProduct right after its stock read
+        DatabaseRW gated = (DatabaseRW) Proxy.newProxyInstance(DatabaseRW.class.getClassLoader(),
+                new Class<?>[] {DatabaseRW.class}, (proxy, method, args) -> {
+                    Object result;
+                    try {
+                        result = method.invoke(derbyRW, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                    if (method.getName().equals("searchByProductId") && gateNextRead.getAndSet(false)) {
+                        stockRead.countDown();
+                        publish.await(10, TimeUnit.SECONDS);
+                    }
+                    return result;
+                });
+        HotStockRW hotStockRW = new HotStockRW(gated, db.pool, 4, TimeUnit.HOURS.toMillis(1));
+
+        CompletableFuture<Void> switching = CompletableFuture.runAsync(() -> {
+            try {
+                hotStockRW.setHotProduct("0001", true);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertTrue(stockRead.await(10, TimeUnit.SECONDS));
+
+        CompletableFuture<ArrayList<Product>> purchase = CompletableFuture.supplyAsync(() -> {
+            try {
+                return hotStockRW.purchaseStocks(trolley("0001", 3));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(200);
+        assertFalse(purchase.isDone(), "the cold purchase must wait for the switch to hot");
+
+        publish.countDown();
+        switching.get(10, TimeUnit.SECONDS);
+        assertTrue(purchase.get(10, TimeUnit.SECONDS).isEmpty());
+
+        assertEquals(7, hotStockRW.searchByProductId("0001").getStockQuantity());
+        hotStockRW.setHotProduct("0001", false); // flushes the stripes to the table
+        assertEquals(7, db.stockOf("0001"));
+    }
+
+    @Test
+    void hotAndColdProductsInOneTrolleyAreAllOrNothing() throws Exception {
+        HotStockRW hotStockRW = new HotStockRW(db.derbyRW(DerbyRW.PurchaseMode.CONDITIONAL, null), db.pool, 4,
+                TimeUnit.HOURS.toMillis(1));
+        hotStockRW.setHotProduct("0001", true);
+
+        ArrayList<Product> tooMuchCold = trolley("0001", 2);
+        tooMuchCold.addAll(trolley("0002", 11));
+        assertEquals(1, hotStockRW.purchaseStocks(tooMuchCold).size());
+        assertEquals(10, hotStockRW.searchByProductId("0001").getStockQuantity());
+        assertEquals(10, db.stockOf("0002"));
+
+        ArrayList<Product> fits = trolley("0001", 2);
+        fits.addAll(trolley("0002", 4));
+        assertTrue(hotStockRW.purchaseStocks(fits).isEmpty());
+        hotStockRW.setHotProduct("0001", false);
+        assertEquals(8, db.stockOf("0001"));
+        assertEquals(6, db.stockOf("0002"));
+    }
+
+    private static ArrayList<Product> trolley(String productId, int quantity) {
+        Product product = new Product(productId, "", "", 0, 0);
+        product.setOrderedQuantity(quantity);
+        ArrayList<Product> trolley = new ArrayList<>();
+        trolley.add(product);
+        return trolley;
+    }
+}
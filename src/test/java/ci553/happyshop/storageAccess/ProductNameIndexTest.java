@@ -0,0 +1,47 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProductNameIndexTest {
+
+    // A write committed after the scan read its row, and notified before the index is live, must not be lost
+    @Test
+    void changeNotifiedDuringTheBuildScanIsApplied() throws Exception {
+        ProductNameIndex index = new ProductNameIndex();
+        List<Product> scanned = List.of(
+                new Product("0001", "40 inch TV", "0001.jpg", 269.00, 10),
+                new Product("0002", "DAB Radio", "0002.jpg", 29.99, 10));
+        index.ensureBuilt(() -> {
+            index.productSaved(new Product("0001", "Coffee Maker", "0001.jpg", 49.99, 10));
+            index.productDeleted("0002");
+            index.productSaved(new Product("0003", "USB drive", "0003.jpg", 9.99, 10));
+            return scanned.stream();
+        });
+
+        assertTrue(index.isBuilt());
+        assertEquals(List.of("0001"), index.findIdsContaining("coffee"));
+        assertEquals(List.of(), index.findIdsContaining("TV"));
+        assertEquals(List.of(), index.findIdsContaining("radio"));
+        assertEquals(List.of("0003"), index.findIdsContaining("sb dr"));
+    }
+
+    @Test
+    void shortSearchesUseTheirOwnGrams() throws Exception {
+        ProductNameIndex index = new ProductNameIndex();
+        index.ensureBuilt(() -> List.of(
+                new Product("0001", "40 inch TV", "0001.jpg", 269.00, 10),
+                new Product("0002", "DAB Radio", "0002.jpg", 29.99, 10),
+                new Product("0003", "USB drive", "0003.jpg", 9.99, 10)).stream());
+        index.productDeleted("0003");
+
+        assertEquals(List.of("0001"), index.findIdsContaining("tv"));
+        assertEquals(List.of("0002"), index.findIdsContaining("B"));
+        assertEquals(List.of("0001", "0002"), index.findIdsContaining("i"));
+    }
+}
@@ -0,0 +1,71 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ProductQueryTest {
+    private TestDatabase db;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        db = TestDatabase.create("productQuery", List.of(
+                new Product("P001", "40 inch TV", "0001.jpg", 269.00, 10),
+                new Product("P002", "DAB Radio", "0002.jpg", 29.99, 10),
+                new Product("P003", "Radio Alarm Clock", "0003.jpg", 19.99, 0)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        db.close();
+    }
+
+    @Test
+    void limitIsBoundSoEveryLimitSharesOneSqlText() throws Exception {
+        ProductQuery two = new ProductQuery.Builder().descriptionContains("radio").limit(2).build();
+        ProductQuery one = new ProductQuery.Builder().descriptionContains("radio").limit(1).build();
+        assertEquals(two.toSql(), one.toSql());
+
+        DerbyRW derbyRW = db.derbyRW(DerbyRW.PurchaseMode.CONDITIONAL, null);
+        assertEquals(2, derbyRW.searchProducts(two).size());
+        assertEquals(List.of("P002"), ids(derbyRW.searchProducts(one)));
+    }
+
+    @Test
+    void descriptionContainsAnyMatchesOneOfTheTexts() throws Exception {
+        ProductQuery query = new ProductQuery.Builder()
+                .descriptionContainsAny(List.of("tv", "alarm", "toaster"))
+                .build();
+        DerbyRW derbyRW = db.derbyRW(DerbyRW.PurchaseMode.CONDITIONAL, null);
+        assertEquals(List.of("P001", "P003"), ids(derbyRW.searchProducts(query)));
+    }
+
+    @Test
+    void limitMustBeGreaterThanZero() {
+        assertThrows(IllegalArgumentException.class, () -> new ProductQuery.Builder().limit(0));
+        assertThrows(IllegalArgumentException.class, () -> new ProductQuery.Builder().limit(-5));
+    }
+
+    @Test
+    void productIdMatchesIgnoringCase() throws Exception {
+        ProductQuery query = new ProductQuery.Builder().productId("p002").build();
+        assertEquals(List.of("P002"), ids(db.derbyRW(DerbyRW.PurchaseMode.CONDITIONAL, null).searchProducts(query)));
+
+        InMemoryRW inMemoryRW = new InMemoryRW(List.of(new Product("P002", "DAB Radio", "0002.jpg", 29.99, 10)));
+        assertEquals(List.of("P002"), ids(inMemoryRW.searchProducts(query)));
+
+        ColumnarCatalogue catalogue = new ColumnarCatalogue();
+        catalogue.build(List.of(new Product("P002", "DAB Radio", "0002.jpg", 29.99, 10)));
+        assertEquals(List.of("P002"), ids(catalogue.search(query, null)));
+    }
+
+    private static List<String> ids(List<Product> products) {
+        return products.stream().map(product -> product.getProductId().trim()).toList();
+    }
+}
@@ -0,0 +1,50 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SearchSuggestionIndexTest {
+
+    // Changes notified from another thread while the products are read must neither wait for the build
+    // nor be lost by it
+    @Test
+    void changesNotifiedDuringTheBuildAreNotBlockedAndNotLost() throws Exception {
+        SearchSuggestionIndex index = new SearchSuggestionIndex();
+        Stream<Product> scan = Stream.of(
+                new Product("0001", "Samsung TV", "0001.jpg", 269.00, 10),
+                new Product("0002", "Samples Box", "0002.jpg", 9.99, 10))
+                .peek(product -> {
+                    if (product.getProductId().equals("0002")) {
+                        CompletableFuture.runAsync(() -> {
+                            index.stockPurchased("0001", 3);
+                            index.productSaved(new Product("0003", "Sandwich Toaster", "0003.jpg", 19.99, 10));
+                            index.productDeleted("0002");
+                        }).orTimeout(5, TimeUnit.SECONDS).join();
+                    }
+                });
+
+        index.build(scan);
+
+        assertEquals(List.of("Samsung", "Sandwich"), index.suggest("sa", 10));
+        assertEquals(3L, (long) index.unitsSoldByProduct().get("0001"));
+    }
+
+    @Test
+    void suggestionsFollowUnitsSold() throws Exception {
+        SearchSuggestionIndex index = new SearchSuggestionIndex();
+        index.build(Stream.of(
+                new Product("0001", "Samsung TV", "0001.jpg", 269.00, 10),
+                new Product("0002", "Samples Box", "0002.jpg", 9.99, 10)));
+        assertEquals(List.of("Samples", "Samsung"), index.suggest("sam", 10));
+
+        index.stockPurchased("0001", 2);
+        assertEquals(List.of("Samsung", "Samples"), index.suggest("sam", 10));
+    }
+}
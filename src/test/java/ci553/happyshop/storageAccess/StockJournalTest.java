@@ -0,0 +1,49 @@
+package ci553.happyshop.storageAccess;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class StockJournalTest {
+    private Path path;
+    private StockJournal journal;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        path = Files.createTempFile("stockJournal", ".log");
+        journal = new StockJournal(path, 0, 0);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        journal.close();
+        Files.deleteIfExists(path);
+    }
+
+    // A batch that throws something other than an IOException fails its own purchase,
+    // and the writer thread is still there for the next one
+    @Test
+    void unexpectedFailureFailsTheBatchButNotTheWriter() throws Exception {
+        Map<String, Integer> broken = new HashMap<>() {
+            @Override
+            public int size() {
+                throw new IllegalStateException("cannot be read");
+            }
+        };
+        assertThrows(IOException.class, () -> journal.append(broken));
+
+        StockJournal.Entry entry = journal.append(Map.of("0001", 2));
+        assertEquals(1L, entry.seq());
+        assertEquals(Map.of("0001", 2), entry.quantities());
+        assertEquals(1, journal.drainWritten().size());
+    }
+}
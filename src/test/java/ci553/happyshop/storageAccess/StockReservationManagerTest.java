@@ -0,0 +1,82 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StockReservationManagerTest {
+    private final InMemoryRW databaseRW = new InMemoryRW(List.of(
+            new Product("0001", "40 inch TV", "0001.jpg", 269.00, 10)));
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private final StockReservationManager manager = new StockReservationManager(databaseRW, 200, 10, now::get);
+
+    @AfterEach
+    void tearDown() {
+        manager.close();
+    }
+
+    // A reservation that was bought or released must not give its units back a second time when it expires
+    @Test
+    void boughtAndReleasedReservationsAreOnlyCountedOffOnce() throws Exception {
+        assertTrue(manager.reserve("bought", "0001", 2).reserved());
+        assertTrue(manager.reserve("released", "0001", 1).reserved());
+        assertTrue(manager.purchaseReserved("bought", trolley(2)).isEmpty());
+        manager.releaseAll("released");
+        assertTrue(manager.reserve("holding", "0001", 3).reserved());
+
+        advance(120);
+        assertTrue(manager.reserve("holding", "0001", 1).reserved()); // renews it past the old expiries
+        advance(120);
+        assertEquals(4, manager.getReservedQuantity("0001"));
+
+        advance(100);
+        assertEquals(0, manager.getReservedQuantity("0001"));
+    }
+
+    // Once a session's last reservation has expired or been released, the session itself is forgotten
+    @Test
+    void sessionsWithoutReservationsAreDropped() throws Exception {
+        databaseRW.insertNewProduct("0002", "DAB Radio", 29.99, "0002.jpg", 10);
+        assertTrue(manager.reserve("abandoned", "0001", 1).reserved());
+        assertTrue(manager.reserve("emptied", "0001", 1).reserved());
+        assertTrue(manager.reserve("emptied", "0002", 1).reserved());
+        assertEquals(2, manager.getSessionCount());
+
+        manager.syncWithTrolley("emptied", List.of());
+        assertEquals(1, manager.getSessionCount());
+
+        advance(200);
+        assertEquals(0, manager.getSessionCount());
+        assertEquals(0, manager.getReservedQuantity("0001"));
+    }
+
+    @Test
+    void reservationsCannotTakeMoreThanTheStock() throws Exception {
+        assertTrue(manager.reserve("first", "0001", 7).reserved());
+        StockReservationManager.ReservationResult second = manager.reserve("second", "0001", 4);
+        assertFalse(second.reserved());
+        assertEquals(3, second.available());
+    }
+
+    // Moves the clock on and runs the expiry the sweeper thread would have run by then
+    private void advance(long millis) {
+        now.addAndGet(millis);
+        manager.sweep();
+    }
+
+    private static ArrayList<Product> trolley(int quantity) {
+        Product product = new Product("0001", "40 inch TV", "0001.jpg", 269.00, 10);
+        product.setOrderedQuantity(quantity);
+        ArrayList<Product> trolley = new ArrayList<>();
+        trolley.add(product);
+        return trolley;
+    }
+}
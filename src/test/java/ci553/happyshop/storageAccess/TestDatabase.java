@@ -0,0 +1,87 @@
+package ci553.happyshop.storageAccess;
+
+import ci553.happyshop.catalogue.Product;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * The TestDatabase class gives each test its own in-memory Derby database with the ProductTable schema of
+ * SetDatabase, and a ConnectionPool over it. Nothing touches happyShopDB.
+ *
+ * Example Usage:
+ *     TestDatabase db = TestDatabase.create("hotStock", List.of(new Product("0001", "TV", "0001.jpg", 9.99, 10)));
+ *     DerbyRW derbyRW = db.derbyRW(DerbyRW.PurchaseMode.CONDITIONAL, null);
+ *     int stock = db.stockOf("0001");
+ *     db.close();
+ */
+
+final class TestDatabase implements AutoCloseable {
+    private final String url;
+    final ConnectionPool pool;
+
+    private TestDatabase(String url) {
+        this.url = url;
+        this.pool = new ConnectionPool(url, 1, 8, 5000, 60000, 8);
+    }
+
+    static TestDatabase create(String name, List<Product> products) throws SQLException {
+        String url = "jdbc:derby:memory:" + name + System.nanoTime();
+        try (Connection connection = DriverManager.getConnection(url + ";create=true");
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE ProductTable(" +
+                    "productID CHAR(4) PRIMARY KEY," +
+                    "description VARCHAR(100)," +
+                    "unitPrice DOUBLE," +
+                    "image VARCHAR(100)," +
+                    "inStock INT," +
+                    "CHECK (inStock >= 0)" +
+                    ")");
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO ProductTable VALUES(?, ?, ?, ?, ?)")) {
+                for (Product product : products) {
+                    insert.setString(1, product.getProductId());
+                    insert.setString(2, product.getProductDescription());
+                    insert.setDouble(3, product.getUnitPrice());
+                    insert.setString(4, product.getProductImageName());
+                    insert.setInt(5, product.getStockQuantity());
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+        }
+        return new TestDatabase(url);
+    }
+
+    DerbyRW derbyRW(DerbyRW.PurchaseMode purchaseMode, CheckoutBatcher checkoutBatcher) {
+        return new DerbyRW(pool, purchaseMode, null, checkoutBatcher);
+    }
+
+    // The stock in ProductTable, read directly rather than through a DatabaseRW
+    int stockOf(String productId) throws SQLException {
+        try (Connection connection = pool.getConnection();
+             PreparedStatement stmt = connection.prepareStatement("SELECT inStock FROM ProductTable WHERE productID = ?")) {
+            stmt.setString(1, productId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("Product not found: " + productId);
+                }
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.close();
+        try {
+            DriverManager.getConnection(url + ";drop=true");
+        } catch (SQLException e) {
+            // 08006: the database was dropped
+        }
+    }
+}